@@ -17,33 +17,70 @@ package kenichia.quipapi;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
-import org.apache.http.client.config.CookieSpecs;
-import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.fluent.Executor;
 import org.apache.http.client.fluent.Form;
 import org.apache.http.client.fluent.Request;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 class QuipAccess {
 
   public static String ENDPOINT = "https://platform.quip.com/1";
 
-  private static Executor _executor = Executor.newInstance(HttpClients.custom()
-      .setDefaultRequestConfig(
-          RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).build())
-      .build());
+  // Gson is thread safe and caches its type adapters, so one instance is
+  // shared by every request instead of building a new one per response
+  protected static final Gson _gson = new Gson();
+
+  private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+  // GETs being sent right now, keyed by result type, token and uri
+  private static final ConcurrentHashMap<String, CompletableFuture<Object>> _inFlightGets =
+      new ConcurrentHashMap<>();
 
   // ============================================
   // Protected
@@ -60,33 +97,160 @@ class QuipAccess {
   // utc timestamp in seconds
   protected static Long xCompanyRateLimitReset = 0L;
   protected static Integer xCompanyRetryAfter = 0;
-  protected static Integer xCurrentRetryCount = 0;
-  protected static Integer xMaxRetries = 50;
 
   protected static JsonObject _getToJsonObject(String uri) throws IOException {
-    return _toJsonObject(_requestGet(uri));
+    return _getCoalesced(uri, JsonObject.class, QuipAccess::_readJsonObject);
   }
 
   protected static JsonObject _getToJsonObject(URI uri) throws IOException {
-    return _toJsonObject(_requestGet(uri));
+    return _getToJsonObject(uri.toString());
+  }
+
+  /**
+   * Same as {@link #_getToJsonObject(String)}, but also counts the
+   * characters of the response body, so that a cache can weigh the JSON
+   * without serializing it again.
+   */
+  protected static Fetched _fetchJsonObject(String uri) throws IOException {
+    return _getCoalesced(uri, Fetched.class, QuipAccess::_readFetched);
   }
 
   protected static JsonArray _getToJsonArray(String uri) throws IOException {
-    return _toJsonArray(_requestGet(uri));
+    return _getCoalesced(uri, JsonArray.class, QuipAccess::_readJsonArray);
   }
 
   protected static JsonArray _getToJsonArray(URI uri) throws IOException {
-    return _toJsonArray(_requestGet(uri));
+    return _getToJsonArray(uri.toString());
+  }
+
+  /**
+   * Reloads an object that is already held as current. The request carries
+   * the ETag and Last-Modified seen last time, and current is returned as is
+   * on 304. Without validators, the body is read member by member and
+   * current is returned as soon as the value at versionPath equals the one
+   * in current, leaving the rest unparsed.
+   *
+   * @param versionPath - path to a member such as updated_usec, or null.
+   */
+  protected static JsonObject _getToJsonObjectIfModified(String uri,
+      Validators validators, String[] versionPath, JsonObject current)
+      throws IOException {
+    return _sendRequest(() -> {
+      Request req = Request.Get(uri);
+      String etag = validators._etag;
+      String lastModified = validators._lastModified;
+      if (etag != null)
+        req.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+      if (lastModified != null)
+        req.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+      return req;
+    }, response -> {
+      if (response.getStatusLine()
+          .getStatusCode() == HttpStatus.SC_NOT_MODIFIED)
+        return current;
+      validators._update(response);
+      JsonElement version = _member(current, versionPath);
+      if (version == null)
+        return _readJsonObject(response);
+      try (JsonReader reader = _jsonReader(response)) {
+        return _readJsonObjectIfNewer(reader, versionPath, version, current);
+      }
+    }, HttpStatus.SC_NOT_MODIFIED);
   }
 
   protected static byte[] _getToByteArray(String uri) throws IOException {
-    HttpResponse res = _requestGet(uri);
-    if (res.getStatusLine().getStatusCode() == 200) {
-      byte[] buff = new byte[(int) res.getEntity().getContentLength()];
-      res.getEntity().getContent().read(buff);
-      return buff;
+    // reads until the end of the stream, so chunked responses without a
+    // Content-Length are not truncated
+    return _sendRequest(_get(uri),
+        response -> EntityUtils.toByteArray(response.getEntity()));
+  }
+
+  /**
+   * Transfers the channel to the file from the position until the end of
+   * the channel.
+   *
+   * @return - number of bytes transferred.
+   */
+  protected static long _transfer(ReadableByteChannel in, FileChannel file,
+      long position) throws IOException {
+    long total = 0L;
+    long count;
+    while ((count = file.transferFrom(in, position + total,
+        TRANSFER_CHUNK_SIZE)) > 0)
+      total += count;
+    return total;
+  }
+
+  /**
+   * Sends a GET request for the bytes from first to last, inclusive. The
+   * handler gets a 206 response with the range, or a 200 response with the
+   * whole body if the server does not support ranges.
+   */
+  protected static <T> T _getRange(String uri, long first, long last,
+      ResponseHandler<T> handler) throws IOException {
+    return _sendRequest(() -> Request.Get(uri).addHeader(HttpHeaders.RANGE,
+        "bytes=" + first + "-" + last), handler, HttpStatus.SC_PARTIAL_CONTENT);
+  }
+
+  /**
+   * Copies the response body to the stream through a bounded buffer. The
+   * stream is not closed.
+   *
+   * @return - number of bytes copied.
+   */
+  protected static long _getToOutputStream(String uri, OutputStream out)
+      throws IOException {
+    Objects.requireNonNull(out);
+    return _sendRequest(_get(uri), response -> {
+      try (InputStream in = response.getEntity().getContent()) {
+        return in.transferTo(out);
+      }
+    });
+  }
+
+  /**
+   * Transfers the response body into a temporary file next to the target,
+   * which replaces the target once the whole body has arrived, as far as a
+   * Content-Length tells. A failed download leaves an existing target as it
+   * was.
+   *
+   * @return - number of bytes written.
+   */
+  protected static long _getToFile(String uri, Path path) throws IOException {
+    Objects.requireNonNull(path);
+    return _sendRequest(_get(uri), response -> _saveToFile(response, path));
+  }
+
+  /**
+   * Transfers the body of a response already received the same way as
+   * {@link #_getToFile}.
+   *
+   * @return - number of bytes written.
+   */
+  protected static long _saveToFile(HttpResponse response, Path path)
+      throws IOException {
+    Path target = path.toAbsolutePath();
+    Path temp = Files.createTempFile(target.getParent(),
+        target.getFileName().toString(), ".tmp");
+    try {
+      long size;
+      try (ReadableByteChannel in = Channels
+          .newChannel(response.getEntity().getContent());
+          FileChannel file = FileChannel.open(temp,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        size = _transfer(in, file, 0L);
+      }
+      long length = response.getEntity().getContentLength();
+      if (length >= 0 && size != length)
+        throw new IOException("Received " + size + " of " + length
+            + " bytes for " + target.getFileName());
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      return size;
+    } finally {
+      Files.deleteIfExists(temp);
     }
-    return null;
   }
 
   protected static int _getToStatusCode(String uri) throws IOException {
@@ -94,106 +258,493 @@ class QuipAccess {
   }
 
   protected static String _getToString(URI uri) throws IOException {
-    return _toString(_requestGet(uri));
+    return _sendRequest(_get(uri), QuipAccess::_toString);
   }
 
   protected static JsonObject _postToJsonObject(String uri, Form form)
       throws IOException {
-    return _toJsonObject(_requestPost(uri, form));
+    return _sendRequest(_post(uri, form), QuipAccess::_readJsonObject);
   }
 
   protected static JsonObject _postToJsonObject(URI uri, Form form)
       throws IOException {
-    return _toJsonObject(_requestPost(uri, form));
+    return _sendRequest(_post(uri, form), QuipAccess::_readJsonObject);
   }
 
   protected static JsonObject _postToJsonObject(String uri,
       MultipartEntityBuilder multi) throws IOException {
-    return _toJsonObject(_requestPost(uri, multi));
+    return _sendRequest(_post(uri, multi), QuipAccess::_readJsonObject);
   }
 
   protected static JsonObject _postToJsonObject(URI uri) throws IOException {
-    return _toJsonObject(_requestPost(uri));
+    return _sendRequest(_post(uri), QuipAccess::_readJsonObject);
   }
 
   protected static JsonArray _postToJsonArray(String uri, Form form)
       throws IOException {
-    return _toJsonArray(_requestPost(uri, form));
+    return _sendRequest(_post(uri, form), QuipAccess::_readJsonArray);
+  }
+
+  /**
+   * Reads a JSON object response member by member and hands every member
+   * whose value is an object to the consumer, without building the whole
+   * response tree.
+   */
+  protected static void _getToJsonObjectMembers(URI uri,
+      BiConsumer<String, JsonObject> consumer) throws IOException {
+    _sendRequest(_get(uri), response -> {
+      try (JsonReader reader = _jsonReader(response)) {
+        JsonObject others = new JsonObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          JsonElement value = _gson.fromJson(reader, JsonElement.class);
+          if (value.isJsonObject()) {
+            if (QuipClient._isDebugEnabled())
+              System.out.println("Json> " + name + ": " + value);
+            consumer.accept(name, value.getAsJsonObject());
+          } else {
+            others.add(name, value);
+          }
+        }
+        reader.endObject();
+        _checkError(others);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Reads a JSON array response element by element and hands every object
+   * to the consumer, without building the whole response tree.
+   */
+  protected static void _getToJsonArrayElements(URI uri,
+      Consumer<JsonObject> consumer) throws IOException {
+    _sendRequest(_get(uri), response -> {
+      try (JsonReader reader = _jsonReader(response)) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          JsonElement value = _gson.fromJson(reader, JsonElement.class);
+          if (QuipClient._isDebugEnabled())
+            System.out.println("Json> " + value);
+          if (value.isJsonObject())
+            consumer.accept(value.getAsJsonObject());
+        }
+        reader.endArray();
+        return null;
+      }
+    });
+  }
+
+  protected static CompletableFuture<JsonObject> _getToJsonObjectAsync(
+      String uri) {
+    return _getToJsonObjectAsync(URI.create(uri));
+  }
+
+  protected static CompletableFuture<JsonObject> _getToJsonObjectAsync(
+      URI uri) {
+    return _sendRequestAsync(HttpRequest.newBuilder(uri).GET())
+        .thenApply(QuipAccess::_parseJsonObject);
+  }
+
+  protected static CompletableFuture<JsonArray> _getToJsonArrayAsync(
+      String uri) {
+    return _getToJsonArrayAsync(URI.create(uri));
+  }
+
+  protected static CompletableFuture<JsonArray> _getToJsonArrayAsync(
+      URI uri) {
+    return _sendRequestAsync(HttpRequest.newBuilder(uri).GET())
+        .thenApply(QuipAccess::_parseJsonArray);
+  }
+
+  protected static CompletableFuture<JsonObject> _postToJsonObjectAsync(
+      String uri, Form form) {
+    return _postToJsonObjectAsync(URI.create(uri), form);
+  }
+
+  protected static CompletableFuture<JsonObject> _postToJsonObjectAsync(
+      URI uri, Form form) {
+    return _sendRequestAsync(HttpRequest.newBuilder(uri)
+        .header(HttpHeaders.CONTENT_TYPE,
+            "application/x-www-form-urlencoded; charset=UTF-8")
+        .POST(HttpRequest.BodyPublishers.ofString(
+            URLEncodedUtils.format(form.build(), Consts.UTF_8),
+            StandardCharsets.UTF_8)))
+        .thenApply(QuipAccess::_parseJsonObject);
+  }
+
+  /**
+   * The multipart body is built in memory before it is sent, since the
+   * non-blocking client takes a body publisher rather than an entity.
+   */
+  protected static CompletableFuture<JsonObject> _postToJsonObjectAsync(
+      String uri, MultipartEntityBuilder multi) {
+    HttpEntity entity = multi.build();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try {
+      entity.writeTo(body);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return _sendRequestAsync(HttpRequest.newBuilder(URI.create(uri))
+        .header(HttpHeaders.CONTENT_TYPE, entity.getContentType().getValue())
+        .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())))
+        .thenApply(QuipAccess::_parseJsonObject);
+  }
+
+  protected static CompletableFuture<byte[]> _getToByteArrayAsync(
+      String uri) {
+    return _sendRequestAsync(HttpRequest.newBuilder(URI.create(uri)).GET(),
+        QuipClient._getRetryPolicy()._newAttempt());
+  }
+
+  /**
+   * ETag and Last-Modified of the last full response for one object.
+   */
+  protected static final class Validators {
+    private volatile String _etag;
+    private volatile String _lastModified;
+
+    private void _update(HttpResponse response) {
+      _etag = _header(response, HttpHeaders.ETAG);
+      _lastModified = _header(response, HttpHeaders.LAST_MODIFIED);
+    }
+
+    protected void _update(Fetched fetched) {
+      _etag = fetched._etag;
+      _lastModified = fetched._lastModified;
+    }
+  }
+
+  /**
+   * JSON object read from a response, with the length of the body in
+   * characters and the validators of the response.
+   */
+  protected static final class Fetched {
+    protected final JsonObject _json;
+    protected final long _length;
+    private final String _etag;
+    private final String _lastModified;
+
+    private Fetched(JsonObject json, long length, HttpResponse response) {
+      _json = json;
+      _length = length;
+      _etag = _header(response, HttpHeaders.ETAG);
+      _lastModified = _header(response, HttpHeaders.LAST_MODIFIED);
+    }
   }
 
   // ============================================
   // Private
   // ============================================
 
+  /**
+   * Sends a GET unless the same GET is already in flight, in which case this
+   * waits for that one and returns its result. The JSON is then shared by
+   * all callers, so it must not be modified.
+   */
+  private static <T> T _getCoalesced(String uri,
+      Class<T> type, ResponseHandler<T> handler) throws IOException {
+    String key = type.getSimpleName() + " " + QuipClient._getBearerToken()
+        + " " + uri;
+    while (true) {
+      CompletableFuture<Object> call = new CompletableFuture<>();
+      CompletableFuture<Object> inFlight = _inFlightGets
+          .putIfAbsent(key, call);
+      if (inFlight == null) {
+        try {
+          T result = _sendRequest(_get(uri), handler);
+          call.complete(result);
+          return result;
+        } catch (IOException | RuntimeException | Error e) {
+          call.completeExceptionally(e);
+          throw e;
+        } finally {
+          _inFlightGets.remove(key, call);
+        }
+      }
+      try {
+        return type.cast(inFlight.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException ex = new InterruptedIOException(
+            "Interrupted while waiting for " + uri);
+        ex.initCause(e);
+        throw ex;
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        // the caller that sent it was interrupted, not the request itself
+        if (cause instanceof InterruptedIOException)
+          continue;
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new IOException(cause);
+      }
+    }
+  }
+
   private static HttpResponse _requestGet(String uri) throws IOException {
-    return _sendRequest(Request.Get(uri));
+    return _sendRequest(_get(uri), QuipAccess::_buffer);
   }
 
-  private static HttpResponse _requestGet(URI uri) throws IOException {
-    return _sendRequest(Request.Get(uri));
+  private static Supplier<Request> _get(String uri) {
+    return () -> Request.Get(uri);
   }
 
-  private static HttpResponse _requestPost(String uri, Form form)
-      throws IOException {
-    return _sendRequest(Request.Post(uri)
-        .body(new UrlEncodedFormEntity(form.build(), Consts.UTF_8)));
+  private static Supplier<Request> _get(URI uri) {
+    return () -> Request.Get(uri);
   }
 
-  private static HttpResponse _requestPost(URI uri, Form form)
-      throws IOException {
-    return _sendRequest(Request.Post(uri)
-        .body(new UrlEncodedFormEntity(form.build(), Consts.UTF_8)));
+  private static Supplier<Request> _post(String uri, Form form) {
+    return () -> Request.Post(uri)
+        .body(new UrlEncodedFormEntity(form.build(), Consts.UTF_8));
   }
 
-  private static HttpResponse _requestPost(String uri,
-      MultipartEntityBuilder multi) throws IOException {
-    return _sendRequest(Request.Post(uri).body(multi.build()));
+  private static Supplier<Request> _post(URI uri, Form form) {
+    return () -> Request.Post(uri)
+        .body(new UrlEncodedFormEntity(form.build(), Consts.UTF_8));
   }
 
-  private static HttpResponse _requestPost(URI uri) throws IOException {
-    return _sendRequest(Request.Post(uri));
+  private static Supplier<Request> _post(String uri,
+      MultipartEntityBuilder multi) {
+    return () -> Request.Post(uri).body(multi.build());
   }
 
-  private static HttpResponse _sendRequest(Request req) throws IOException {
-    Gson gson = new Gson();
-    Request originalReq = gson.fromJson(gson.toJson(req), Request.class);
-    if (QuipClient._isDebugEnabled())
-      System.out.println(System.lineSeparator() + "Request> " + req.toString());
-    String token = QuipClient._getBearerToken();
-    req.addHeader(HttpHeaders.AUTHORIZATION, token);
-    HttpResponse response = _executor.execute(req).returnResponse();
+  private static Supplier<Request> _post(URI uri) {
+    return () -> Request.Post(uri);
+  }
+
+  /**
+   * Sends the request and retries it on 429 or 503 according to the retry
+   * policy of QuipClient. The factory builds a fresh request for every
+   * attempt, and the retry state belongs to this call only. The handler
+   * reads the successful response while its entity is still streaming.
+   *
+   * @param accepted - statuses besides 200 that are handed to the handler
+   *                 instead of being thrown.
+   */
+  private static <T> T _sendRequest(Supplier<Request> factory,
+      ResponseHandler<T> handler, int... accepted) throws IOException {
+    QuipRetryPolicy.Attempt attempt = QuipClient._getRetryPolicy()
+        ._newAttempt();
+    while (true) {
+      Request req = factory.get();
+      if (QuipClient._isDebugEnabled())
+        System.out.println(System.lineSeparator() + "Request> " + req);
+      String token = QuipClient._getBearerToken();
+      req.addHeader(HttpHeaders.AUTHORIZATION, token);
+      QuipRateLimiter limiter = QuipClient._getRateLimiter();
+      if (limiter != null)
+        limiter._acquire(token);
+      long[] backoff = {-1L};
+      T result = QuipClient._getTransport()._getExecutor().execute(req)
+          .handleResponse(response -> {
+            if (QuipClient._isDebugEnabled())
+              System.out.println("Response> "
+                  + response.getStatusLine().toString() + " "
+                  + response.getEntity().toString());
+            long retryAfter = updateRateLimits(token, response);
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (QuipRetryPolicy._isRetryable(statusCode)) {
+              backoff[0] = attempt.nextBackoffMillis(retryAfter);
+              if (backoff[0] >= 0) {
+                if (QuipClient._isDebugEnabled())
+                  System.out.println("Waiting for: " + backoff[0] + "ms"
+                      + ", retry count: " + attempt.getRetryCount()
+                      + ", error code: " + statusCode);
+                return null;
+              }
+            }
+            handleErrorResponse(response, accepted);
+            return handler.handleResponse(response);
+          });
+      if (backoff[0] < 0)
+        return result;
+      _sleep(backoff[0]);
+    }
+  }
+
+  private static void _sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      // keep the interrupt so that executors can cancel the caller
+      Thread.currentThread().interrupt();
+      InterruptedIOException ex = new InterruptedIOException(
+          "Interrupted while waiting to retry");
+      ex.initCause(e);
+      throw ex;
+    }
+  }
+
+  /**
+   * Sends the request on the non-blocking client of the transport. Unlike
+   * {@link #_sendRequest(Supplier)}, a retry is scheduled on a timer instead
+   * of sleeping the calling thread.
+   */
+  private static CompletableFuture<String> _sendRequestAsync(
+      HttpRequest.Builder builder) {
+    return _sendRequestAsync(builder,
+        QuipClient._getRetryPolicy()._newAttempt())
+        .thenApply(body -> new String(body, StandardCharsets.UTF_8));
+  }
+
+  private static CompletableFuture<byte[]> _sendRequestAsync(
+      HttpRequest.Builder builder, QuipRetryPolicy.Attempt attempt) {
+    return _sendRequestAsync(builder, attempt, QuipClient._getBearerToken());
+  }
+
+  // the token is read once on the calling thread, as retries run elsewhere
+  private static CompletableFuture<byte[]> _sendRequestAsync(
+      HttpRequest.Builder builder, QuipRetryPolicy.Attempt attempt,
+      String token) {
+    HttpRequest req = builder.copy()
+        .header(HttpHeaders.AUTHORIZATION, token).build();
+    QuipRateLimiter limiter = QuipClient._getRateLimiter();
+    long wait = (limiter == null) ? 0L : limiter._reserve(token);
     if (QuipClient._isDebugEnabled())
-      System.out.println("Response> " + response.getStatusLine().toString()
-          + " " + response.getEntity().toString());
-    updateRateLimits(response);
-    int statusCode = response.getStatusLine().getStatusCode();
-    if (statusCode == 429 || statusCode == 503) {
-      if (xCurrentRetryCount < xMaxRetries) {
-        long backoff = (xRateLimitRetryAfter + (xRateLimitLimit - xRateLimitRemaining)/100)* 100L;
-        xCurrentRetryCount++;
-        try {
+      System.out.println(System.lineSeparator() + "Request> " + req);
+    return _delay(wait)
+        .thenCompose(v -> QuipClient._getTransport()._getAsyncClient()
+            .sendAsync(req,
+                java.net.http.HttpResponse.BodyHandlers.ofByteArray()))
+        .thenCompose(response -> {
           if (QuipClient._isDebugEnabled())
-            System.out.println("Waiting for: " + backoff + "ms" + ", retry count: " + xCurrentRetryCount + ", error code: " + statusCode);
-          Thread.sleep(backoff);
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
-        response = _sendRequest(originalReq);
-      }
-    }
-    handleErrorResponse(response);
-    xCurrentRetryCount = 0;
-    return response;
+            System.out.println("Response> " + response);
+          int statusCode = response.statusCode();
+          long retryAfter = updateRateLimits(token, statusCode,
+              name -> response.headers().firstValue(name).orElse(null));
+          if (QuipRetryPolicy._isRetryable(statusCode)) {
+            long backoff = attempt.nextBackoffMillis(retryAfter);
+            if (backoff >= 0) {
+              if (QuipClient._isDebugEnabled())
+                System.out.println("Waiting for: " + backoff + "ms"
+                    + ", retry count: " + attempt.getRetryCount()
+                    + ", error code: " + statusCode);
+              return _delay(backoff)
+                  .thenCompose(
+                      v -> _sendRequestAsync(builder, attempt, token));
+            }
+          }
+          if (statusCode != 200)
+            throw new CompletionException(new HttpResponseException(
+                statusCode,
+                new String(response.body(), StandardCharsets.UTF_8)));
+          return CompletableFuture.completedFuture(response.body());
+        });
+  }
+
+  private static CompletableFuture<Void> _delay(long millis) {
+    if (millis <= 0)
+      return CompletableFuture.completedFuture(null);
+    return CompletableFuture.runAsync(() -> {
+    }, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
   }
 
   private static String _toString(HttpResponse response) throws IOException {
     return EntityUtils.toString(response.getEntity());
   }
 
-  private static JsonObject _toJsonObject(HttpResponse response)
+  /**
+   * Replaces the streaming entity with a buffered copy, for callers that
+   * read the response after the connection has been released.
+   */
+  private static HttpResponse _buffer(HttpResponse response)
+      throws IOException {
+    HttpEntity entity = response.getEntity();
+    if (entity != null) {
+      ByteArrayEntity buffered = new ByteArrayEntity(
+          EntityUtils.toByteArray(entity));
+      buffered.setContentType(entity.getContentType());
+      response.setEntity(buffered);
+    }
+    return response;
+  }
+
+  private static JsonReader _jsonReader(HttpResponse response)
+      throws IOException {
+    HttpEntity entity = response.getEntity();
+    Charset charset = ContentType.getOrDefault(entity).getCharset();
+    return new JsonReader(new InputStreamReader(entity.getContent(),
+        (charset != null) ? charset : StandardCharsets.UTF_8));
+  }
+
+  private static String _header(HttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return (header == null) ? null : header.getValue();
+  }
+
+  private static JsonObject _readJsonObject(HttpResponse response)
+      throws IOException {
+    try (JsonReader reader = _jsonReader(response)) {
+      return _verifyJsonObject(_gson.fromJson(reader, JsonObject.class));
+    }
+  }
+
+  private static Fetched _readFetched(HttpResponse response)
       throws IOException {
-    JsonObject json = new Gson().fromJson(_toString(response),
-        JsonObject.class);
+    HttpEntity entity = response.getEntity();
+    Charset charset = ContentType.getOrDefault(entity).getCharset();
+    CountingReader counting = new CountingReader(new InputStreamReader(
+        entity.getContent(),
+        (charset != null) ? charset : StandardCharsets.UTF_8));
+    try (JsonReader reader = new JsonReader(counting)) {
+      JsonObject json = _verifyJsonObject(
+          _gson.fromJson(reader, JsonObject.class));
+      return new Fetched(json, counting._count, response);
+    }
+  }
+
+  private static JsonArray _readJsonArray(HttpResponse response)
+      throws IOException {
+    try (JsonReader reader = _jsonReader(response)) {
+      return _verifyJsonArray(_gson.fromJson(reader, JsonArray.class));
+    }
+  }
+
+  private static JsonObject _readJsonObjectIfNewer(JsonReader reader,
+      String[] versionPath, JsonElement version, JsonObject current)
+      throws IOException {
+    JsonObject json = new JsonObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      JsonElement value = _gson.fromJson(reader, JsonElement.class);
+      json.add(name, value);
+      if (name.equals(versionPath[0])
+          && version.equals(_member(json, versionPath)))
+        return current;
+    }
+    reader.endObject();
+    return _verifyJsonObject(json);
+  }
+
+  private static JsonElement _member(JsonObject json, String[] path) {
+    if (path == null)
+      return null;
+    JsonElement element = json;
+    for (String name : path) {
+      if (element == null || !element.isJsonObject())
+        return null;
+      element = element.getAsJsonObject().get(name);
+    }
+    return element;
+  }
+
+  private static JsonObject _parseJsonObject(String body) {
+    return _verifyJsonObject(_gson.fromJson(body, JsonObject.class));
+  }
+
+  private static JsonArray _parseJsonArray(String body) {
+    return _verifyJsonArray(_gson.fromJson(body, JsonArray.class));
+  }
+
+  private static JsonObject _verifyJsonObject(JsonObject json) {
     if (QuipClient._isDebugEnabled())
       System.out.println("Json> " + json.toString());
     if (_checkError(json))
@@ -201,9 +752,7 @@ class QuipAccess {
     return json;
   }
 
-  private static JsonArray _toJsonArray(HttpResponse response)
-      throws IOException {
-    JsonArray json = new Gson().fromJson(_toString(response), JsonArray.class);
+  private static JsonArray _verifyJsonArray(JsonArray json) {
     if (QuipClient._isDebugEnabled())
       System.out.println("Json> " + json.toString());
     return json;
@@ -226,52 +775,99 @@ class QuipAccess {
     return true;
   }
 
-  private static void handleErrorResponse(HttpResponse response)
-      throws HttpResponseException {
+  private static void handleErrorResponse(HttpResponse response,
+      int... accepted) throws HttpResponseException {
     StatusLine statusLine = response.getStatusLine();
-    if (statusLine.getStatusCode() != 200) {
-      throw new HttpResponseException(statusLine.getStatusCode(),
-          statusLine.getReasonPhrase());
+    int statusCode = statusLine.getStatusCode();
+    if (statusCode == 200)
+      return;
+    for (int status : accepted) {
+      if (statusCode == status)
+        return;
+    }
+    throw new HttpResponseException(statusCode,
+        statusLine.getReasonPhrase());
+  }
+
+  private static long updateRateLimits(String token, HttpResponse response) {
+    return updateRateLimits(token, response.getStatusLine().getStatusCode(),
+        name -> response.containsHeader(name)
+            ? response.getFirstHeader(name).getValue()
+            : null);
+  }
+
+  /**
+   * @return - seconds the server asks to wait before retrying, the longer of
+   * Retry-After and X-Company-Retry-After.
+   */
+  private static long updateRateLimits(String token, int statusCode,
+      Function<String, String> header) {
+    int limit = Integer.parseInt(_headerOrZero(header, "X-Ratelimit-Limit"));
+    int remaining = Integer
+        .parseInt(_headerOrZero(header, "X-Ratelimit-Remaining"));
+    long reset = Long.parseLong(_headerOrZero(header, "X-Ratelimit-Reset"));
+    int retryAfter = Integer.parseInt(_headerOrZero(header, "Retry-After"));
+    int companyLimit = Integer
+        .parseInt(_headerOrZero(header, "X-Company-RateLimit-Limit"));
+    int companyRemaining = Integer
+        .parseInt(_headerOrZero(header, "X-Company-RateLimit-Remaining"));
+    long companyReset = Long
+        .parseLong(_headerOrZero(header, "X-Company-RateLimit-Reset"));
+    int companyRetryAfter = Integer
+        .parseInt(_headerOrZero(header, "X-Company-Retry-After"));
+
+    xRateLimitLimit = limit;
+    xRateLimitRemaining = remaining;
+    xRateLimitReset = reset;
+    xRateLimitRetryAfter = retryAfter;
+    xCompanyRateLimitLimit = companyLimit;
+    xCompanyRateLimitRemaining = companyRemaining;
+    xCompanyRateLimitReset = companyReset;
+    xCompanyRetryAfter = companyRetryAfter;
+
+    QuipRateLimiter limiter = QuipClient._getRateLimiter();
+    if (limiter != null) {
+      limiter._update(token, limit, remaining, reset, companyLimit,
+          companyRemaining, companyReset);
+      if (QuipRetryPolicy._isRetryable(statusCode))
+        limiter._pause(token, retryAfter, companyRetryAfter);
     }
+    return Math.max(retryAfter, companyRetryAfter);
   }
 
-  private static void updateRateLimits(HttpResponse response) {
-    xRateLimitLimit = Integer
-        .valueOf(response.containsHeader("X-Ratelimit-Limit")
-            ? response.getFirstHeader("X-Ratelimit-Limit").getValue()
-            : "0");
-    xRateLimitRemaining = Integer
-        .valueOf(response.containsHeader("X-Ratelimit-Remaining")
-            ? response.getFirstHeader("X-Ratelimit-Remaining").getValue()
-            : "0");
-    xRateLimitReset = Long.valueOf(response.containsHeader("X-Ratelimit-Reset")
-        ? response.getFirstHeader("X-Ratelimit-Reset").getValue()
-        : "0");
-    xRateLimitRetryAfter = Integer
-        .valueOf(response.containsHeader("Retry-After")
-            ? response.getFirstHeader("Retry-After").getValue()
-            : "0");
-
-    xCompanyRateLimitLimit = Integer
-        .valueOf(response.containsHeader("X-Company-RateLimit-Limit")
-            ? response.getFirstHeader("X-Company-RateLimit-Limit").getValue()
-            : "0");
-    xCompanyRateLimitRemaining = Integer
-        .valueOf(response.containsHeader("X-Company-RateLimit-Remaining")
-            ? response.getFirstHeader("X-Company-RateLimit-Remaining")
-                .getValue()
-            : "0");
-    xCompanyRateLimitReset = Long
-        .valueOf(response.containsHeader("X-Company-RateLimit-Reset")
-            ? response.getFirstHeader("X-Company-RateLimit-Reset").getValue()
-            : "0");
-    xCompanyRetryAfter = Integer
-        .valueOf(response.containsHeader("X-Company-Retry-After")
-            ? response.getFirstHeader("X-Company-Retry-After").getValue()
-            : "0");
+  private static String _headerOrZero(Function<String, String> header,
+      String name) {
+    String value = header.apply(name);
+    return (value == null) ? "0" : value;
   }
 
   public static void setMaxRetries(int maxRetries) {
-    xMaxRetries = maxRetries;
+    QuipClient.setRetryPolicy(QuipClient.getRetryPolicy().toBuilder()
+        .setMaxRetries(maxRetries).build());
+  }
+
+  private static final class CountingReader extends FilterReader {
+    private long _count = 0L;
+
+    private CountingReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int c = super.read();
+      if (c >= 0)
+        _count++;
+      return c;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length)
+        throws IOException {
+      int count = super.read(buffer, offset, length);
+      if (count > 0)
+        _count += count;
+      return count;
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * Splits the ids of a batch call such as /threads/?ids= into chunks that fit
+ * the server and the URL, and fetches the chunks with at most
+ * {@link QuipClient#getBatchParallelism()} workers of
+ * {@link QuipClient#invokeAll}. Each request still goes through the rate
+ * limiter and the retry policy. When the server rejects a chunk with a 400 or
+ * 404 status, the chunk is split in half until the bad ids are isolated.
+ * Other errors, such as an error body for an auth or quota problem, fail the
+ * whole chunk without splitting it.
+ */
+final class QuipBatch {
+
+  // keeps the ids parameter well under the common 8 KB URL limit
+  private static final int MAX_IDS_LENGTH = 4000;
+
+  interface Fetcher {
+    /**
+     * @return - objects keyed by the requested ids.
+     */
+    JsonObject fetch(String[] ids) throws Exception;
+  }
+
+  private QuipBatch() {
+  }
+
+  static <T> QuipBatchResult<T> _fetch(String[] ids, Fetcher fetcher,
+      Function<JsonObject, T> factory) throws Exception {
+    List<String> requested = Arrays.asList(ids.clone());
+    Map<String, T> results = new ConcurrentHashMap<>();
+    Map<String, Exception> failures = new ConcurrentHashMap<>();
+    Queue<List<String>> pending = new ConcurrentLinkedQueue<>(_split(
+        new ArrayList<>(new LinkedHashSet<>(requested)),
+        QuipClient._getBatchSize()));
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < Math.min(QuipClient._getBatchParallelism(),
+        pending.size()); i++) {
+      workers.add(() -> {
+        List<String> chunk;
+        while ((chunk = pending.poll()) != null)
+          _fetchChunk(chunk, fetcher, factory, results, failures);
+        return null;
+      });
+    }
+    QuipClient.invokeAll(workers);
+    return new QuipBatchResult<>(requested, results, failures);
+  }
+
+  static List<List<String>> _split(List<String> ids, int batchSize) {
+    List<List<String>> chunks = new ArrayList<>();
+    List<String> chunk = new ArrayList<>();
+    int length = 0;
+    for (String id : ids) {
+      if (!chunk.isEmpty() && (chunk.size() >= batchSize
+          || length + 1 + id.length() > MAX_IDS_LENGTH)) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>();
+        length = 0;
+      }
+      chunk.add(id);
+      length += id.length() + 1;
+    }
+    if (!chunk.isEmpty())
+      chunks.add(chunk);
+    return chunks;
+  }
+
+  private static <T> void _fetchChunk(List<String> chunk, Fetcher fetcher,
+      Function<JsonObject, T> factory, Map<String, T> results,
+      Map<String, Exception> failures) throws InterruptedIOException {
+    JsonObject json;
+    try {
+      json = fetcher.fetch(chunk.toArray(new String[0]));
+      // an error body is not a verdict on the ids, so it is not bisected
+      if (json == null)
+        throw new IOException("Error response for " + chunk);
+    } catch (InterruptedIOException e) {
+      throw e;
+    } catch (Exception e) {
+      if (chunk.size() > 1 && _isCausedByIds(e)) {
+        int half = chunk.size() / 2;
+        _fetchChunk(chunk.subList(0, half), fetcher, factory, results,
+            failures);
+        _fetchChunk(chunk.subList(half, chunk.size()), fetcher, factory,
+            results, failures);
+      } else {
+        for (String id : chunk)
+          failures.put(id, e);
+      }
+      return;
+    }
+    for (String id : chunk) {
+      JsonElement element = json.get(id);
+      if (element != null && element.isJsonObject())
+        results.put(id, factory.apply(element.getAsJsonObject()));
+      else
+        failures.put(id, new NoSuchElementException("Not returned: " + id));
+    }
+  }
+
+  private static boolean _isCausedByIds(Exception e) {
+    if (!(e instanceof HttpResponseException))
+      return false;
+    int statusCode = ((HttpResponseException) e).getStatusCode();
+    return statusCode == 400 || statusCode == 404;
+  }
+}
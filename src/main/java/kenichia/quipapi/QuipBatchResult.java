@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a batch call such as {@link QuipThread#getThreadsBatch}. Every
+ * requested id either has a result or a failure, so one bad id does not fail
+ * the whole call.
+ */
+public class QuipBatchResult<T> {
+
+  private final List<String> _ids;
+  private final Map<String, T> _results;
+  private final Map<String, Exception> _failures;
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  QuipBatchResult(List<String> ids, Map<String, T> results,
+      Map<String, Exception> failures) {
+    _ids = Collections.unmodifiableList(ids);
+    _results = results;
+    _failures = failures;
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  /**
+   * @return - ids in the order they were requested.
+   */
+  public List<String> getIds() {
+    return _ids;
+  }
+
+  /**
+   * @return - results in the order of the requested ids, with null for the
+   * ids that failed.
+   */
+  public List<T> getResults() {
+    List<T> results = new ArrayList<>(_ids.size());
+    for (String id : _ids)
+      results.add(_results.get(id));
+    return results;
+  }
+
+  /**
+   * @return - result for the id, or null if it failed.
+   */
+  public T get(String id) {
+    return _results.get(id);
+  }
+
+  /**
+   * @return - failure of the id, or null if it succeeded.
+   */
+  public Exception getFailure(String id) {
+    return _failures.get(id);
+  }
+
+  /**
+   * @return - failure of each failed id, in the order of the requested ids.
+   * An id that the server did not return fails with
+   * {@link java.util.NoSuchElementException}.
+   */
+  public Map<String, Exception> getFailures() {
+    Map<String, Exception> failures = new LinkedHashMap<>();
+    for (String id : _ids)
+      if (_failures.containsKey(id))
+        failures.put(id, _failures.get(id));
+    return failures;
+  }
+
+  public boolean isSuccessful() {
+    return _failures.isEmpty();
+  }
+}
@@ -17,6 +17,10 @@ package kenichia.quipapi;
 
 import com.google.gson.JsonObject;
 
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
 public class QuipBlob extends QuipJsonObject {
 
     // ============================================
@@ -41,6 +45,43 @@ public class QuipBlob extends QuipJsonObject {
                 QuipAccess.ENDPOINT + "/blob/" + threadId + "/" + blobId);
     }
 
+    public static CompletableFuture<byte[]> getBlobAsync(String threadId, String blobId) {
+        return _getToByteArrayAsync(
+                QuipAccess.ENDPOINT + "/blob/" + threadId + "/" + blobId);
+    }
+
+    /**
+     * Streams a blob into a file instead of loading it into memory.
+     *
+     * @param threadId - thread id.
+     * @param blobId   - id of the blob to be fetched.
+     * @param path     - file to write. It is created or replaced once the
+     *                 download is complete, and left as it was if the
+     *                 download fails.
+     * @return - size of the blob in bytes
+     * @throws Exception - if the blob not exit on the thread or if the
+     *                   thread id is invalid.
+     */
+    public static long getBlob(String threadId, String blobId, Path path) throws Exception {
+        return _getToFile(
+                QuipAccess.ENDPOINT + "/blob/" + threadId + "/" + blobId, path);
+    }
+
+    /**
+     * Streams a blob into the output stream, which is left open.
+     *
+     * @param threadId - thread id.
+     * @param blobId   - id of the blob to be fetched.
+     * @param out      - stream to write the blob to.
+     * @return - size of the blob in bytes
+     * @throws Exception - if the blob not exit on the thread or if the
+     *                   thread id is invalid.
+     */
+    public static long getBlob(String threadId, String blobId, OutputStream out) throws Exception {
+        return _getToOutputStream(
+                QuipAccess.ENDPOINT + "/blob/" + threadId + "/" + blobId, out);
+    }
+
     // ============================================
     // Properties
     // ============================================
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Downloads blobs into files with HTTP Range requests. A blob is split into
+ * chunks that are fetched in parallel into a preallocated part file next to
+ * the target (target name plus {@value #PART_SUFFIX}). Finished chunks are
+ * recorded in a checkpoint file beside it (target name plus
+ * {@value #CHECKPOINT_SUFFIX}), so a download that failed or crashed resumes
+ * with the missing chunks only, provided the server sent an ETag or a
+ * Last-Modified to tell that the blob has not changed. Once the size has been
+ * verified, the part file replaces the target and the checkpoint is removed;
+ * until then an existing target is left as it was. If the server does not
+ * support ranges, the blob is streamed in one request instead.
+ *
+ * <pre>
+ * QuipBlobDownloader downloader = QuipBlobDownloader.builder()
+ *     .setChunkSize(16 * 1024 * 1024).setParallelism(4).build();
+ * downloader.download(threadId, blobId, Paths.get("archive", blobId));
+ * </pre>
+ */
+public class QuipBlobDownloader {
+
+  public static final String CHECKPOINT_SUFFIX = ".quipdl";
+  public static final String PART_SUFFIX = ".part";
+
+  private final long _chunkSize;
+  private final int _parallelism;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private long _chunkSize = 8 * 1024 * 1024;
+    private int _parallelism = 4;
+
+    private Builder() {
+    }
+
+    /**
+     * @param chunkSize - bytes fetched by a single Range request.
+     */
+    public Builder setChunkSize(long chunkSize) {
+      if (chunkSize <= 0)
+        throw new IllegalArgumentException("chunkSize must be positive.");
+      _chunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * @param parallelism - max number of chunks of one blob fetched at the
+     *                    same time.
+     */
+    public Builder setParallelism(int parallelism) {
+      if (parallelism <= 0)
+        throw new IllegalArgumentException("parallelism must be positive.");
+      _parallelism = parallelism;
+      return this;
+    }
+
+    public QuipBlobDownloader build() {
+      return new QuipBlobDownloader(this);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipBlobDownloader(Builder builder) {
+    _chunkSize = builder._chunkSize;
+    _parallelism = builder._parallelism;
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Downloads a blob into a file, resuming a previous attempt if a matching
+   * checkpoint exists.
+   *
+   * @param threadId - thread id.
+   * @param blobId   - id of the blob to be fetched.
+   * @param path     - file to write.
+   * @return - size of the blob in bytes
+   * @throws Exception - if a chunk cannot be fetched. The file is left as it
+   *                   was, and the part file and checkpoint are kept so that
+   *                   the next call resumes.
+   */
+  public long download(String threadId, String blobId, Path path)
+      throws Exception {
+    Objects.requireNonNull(path);
+    String uri = QuipAccess.ENDPOINT + "/blob/" + threadId + "/" + blobId;
+    Path checkpointPath = path
+        .resolveSibling(path.getFileName() + CHECKPOINT_SUFFIX);
+    Path partPath = path.resolveSibling(path.getFileName() + PART_SUFFIX);
+
+    // a one byte range tells the size and whether ranges are supported
+    Probe probe = QuipAccess._getRange(uri, 0, 0, response -> {
+      if (response.getStatusLine().getStatusCode() == 206)
+        return new Probe(_totalLength(response),
+            _header(response, HttpHeaders.ETAG),
+            _header(response, HttpHeaders.LAST_MODIFIED));
+      // the server ignored the range and the whole blob is on the way
+      return new Probe(QuipAccess._saveToFile(response, path));
+    });
+    if (probe._isComplete) {
+      Files.deleteIfExists(checkpointPath);
+      Files.deleteIfExists(partPath);
+      return probe._totalLength;
+    }
+    if (probe._totalLength < 0)
+      return QuipAccess._getToFile(uri, path);
+
+    Checkpoint checkpoint = Checkpoint._load(checkpointPath);
+    if (checkpoint == null || !checkpoint._matches(probe, _chunkSize)
+        || !Files.exists(partPath)
+        || Files.size(partPath) != probe._totalLength) {
+      checkpoint = new Checkpoint(checkpointPath, probe, _chunkSize);
+      try (FileChannel file = FileChannel.open(partPath,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        if (probe._totalLength > 0)
+          file.write(ByteBuffer.allocate(1), probe._totalLength - 1);
+      }
+      checkpoint._save();
+    }
+
+    Queue<Integer> pending = new ConcurrentLinkedQueue<>(
+        checkpoint._pendingChunks());
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < Math.min(_parallelism, pending.size()); i++) {
+      Checkpoint state = checkpoint;
+      workers.add(() -> {
+        // a channel per worker: when a failure cancels the others, the
+        // interrupt closes only the channel of the interrupted worker
+        try (FileChannel file = FileChannel.open(partPath,
+            StandardOpenOption.WRITE)) {
+          Integer chunk;
+          while ((chunk = pending.poll()) != null)
+            _fetchChunk(uri, chunk, probe._totalLength, file, state);
+          file.force(true);
+        }
+        return null;
+      });
+    }
+    QuipClient.invokeAll(workers);
+
+    long size = Files.size(partPath);
+    if (!checkpoint._isComplete() || size != probe._totalLength)
+      throw new IOException("Downloaded " + size + " of "
+          + probe._totalLength + " bytes of " + uri);
+    Files.move(partPath, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    Files.deleteIfExists(checkpointPath);
+    return size;
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private void _fetchChunk(String uri, int chunk, long totalLength,
+      FileChannel file, Checkpoint checkpoint) throws IOException {
+    long first = chunk * _chunkSize;
+    long last = Math.min(first + _chunkSize, totalLength) - 1;
+    long copied = QuipAccess._getRange(uri, first, last, response -> {
+      if (response.getStatusLine().getStatusCode() != 206)
+        throw new IOException("Range not honored for " + uri);
+      try (ReadableByteChannel in = Channels
+          .newChannel(response.getEntity().getContent())) {
+        return QuipAccess._transfer(in, file, first);
+      }
+    });
+    if (copied != last - first + 1)
+      throw new IOException("Chunk " + chunk + " of " + uri + " is "
+          + copied + " bytes instead of " + (last - first + 1));
+    // the data must be on disk before the checkpoint says so
+    file.force(false);
+    checkpoint._markDone(chunk);
+  }
+
+  private static long _totalLength(HttpResponse response) throws IOException {
+    // Content-Range: bytes 0-0/12345
+    String range = _header(response, HttpHeaders.CONTENT_RANGE);
+    int slash = (range == null) ? -1 : range.lastIndexOf('/');
+    if (slash < 0 || range.endsWith("*"))
+      return -1L;
+    try {
+      return Long.parseLong(range.substring(slash + 1).trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid Content-Range: " + range, e);
+    }
+  }
+
+  private static String _header(HttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return (header == null) ? null : header.getValue();
+  }
+
+  /**
+   * What the first request found out about the blob.
+   */
+  private static class Probe {
+    private final long _totalLength;
+    private final String _etag;
+    private final String _lastModified;
+    // true when the server ignored the range and sent the whole blob
+    private final boolean _isComplete;
+
+    Probe(long totalLength, String etag, String lastModified) {
+      _totalLength = totalLength;
+      _etag = etag;
+      _lastModified = lastModified;
+      _isComplete = false;
+    }
+
+    Probe(long totalLength) {
+      _totalLength = totalLength;
+      _etag = null;
+      _lastModified = null;
+      _isComplete = true;
+    }
+  }
+
+  /**
+   * Finished chunks of a download, saved after every chunk.
+   */
+  private static class Checkpoint {
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Path _path;
+    private final long _totalLength;
+    private final long _chunkSize;
+    private final String _etag;
+    private final String _lastModified;
+    private final int _chunkCount;
+    private final BitSet _done;
+
+    Checkpoint(Path path, Probe probe, long chunkSize) {
+      this(path, probe._totalLength, chunkSize, probe._etag,
+          probe._lastModified, new BitSet());
+    }
+
+    private Checkpoint(Path path, long totalLength, long chunkSize,
+        String etag, String lastModified, BitSet done) {
+      _path = path;
+      _totalLength = totalLength;
+      _chunkSize = chunkSize;
+      _etag = etag;
+      _lastModified = lastModified;
+      _chunkCount = (int) ((totalLength + chunkSize - 1) / chunkSize);
+      _done = done;
+    }
+
+    static Checkpoint _load(Path path) {
+      if (!Files.exists(path))
+        return null;
+      Properties props = new Properties();
+      try (InputStream in = Files.newInputStream(path)) {
+        props.load(in);
+        BitSet done = new BitSet();
+        for (String chunk : props.getProperty("done", "").split(","))
+          if (!chunk.isEmpty())
+            done.set(Integer.parseInt(chunk));
+        return new Checkpoint(path,
+            Long.parseLong(props.getProperty("totalLength")),
+            Long.parseLong(props.getProperty("chunkSize")),
+            props.getProperty("etag"), props.getProperty("lastModified"),
+            done);
+      } catch (IOException | RuntimeException e) {
+        // a checkpoint torn by a crash means starting over
+        return null;
+      }
+    }
+
+    /**
+     * @return - false unless a validator shows the blob is unchanged, since
+     * a changed blob of the same length would resume into a mixed file.
+     */
+    boolean _matches(Probe probe, long chunkSize) {
+      return _totalLength == probe._totalLength && _chunkSize == chunkSize
+          && (_etag != null || _lastModified != null)
+          && Objects.equals(_etag, probe._etag)
+          && Objects.equals(_lastModified, probe._lastModified);
+    }
+
+    List<Integer> _pendingChunks() {
+      List<Integer> chunks = new ArrayList<>();
+      _lock.lock();
+      try {
+        for (int i = _done.nextClearBit(0); i < _chunkCount;
+            i = _done.nextClearBit(i + 1))
+          chunks.add(i);
+      } finally {
+        _lock.unlock();
+      }
+      return chunks;
+    }
+
+    boolean _isComplete() {
+      _lock.lock();
+      try {
+        return _done.cardinality() == _chunkCount;
+      } finally {
+        _lock.unlock();
+      }
+    }
+
+    void _markDone(int chunk) throws IOException {
+      _lock.lock();
+      try {
+        _done.set(chunk);
+        _save();
+      } finally {
+        _lock.unlock();
+      }
+    }
+
+    void _save() throws IOException {
+      Properties props = new Properties();
+      props.setProperty("totalLength", String.valueOf(_totalLength));
+      props.setProperty("chunkSize", String.valueOf(_chunkSize));
+      if (_etag != null)
+        props.setProperty("etag", _etag);
+      if (_lastModified != null)
+        props.setProperty("lastModified", _lastModified);
+      StringBuilder done = new StringBuilder();
+      _lock.lock();
+      try {
+        for (int i = _done.nextSetBit(0); i >= 0; i = _done.nextSetBit(i + 1))
+          done.append((done.length() == 0) ? "" : ",").append(i);
+      } finally {
+        _lock.unlock();
+      }
+      props.setProperty("done", done.toString());
+      // write aside and rename, so a crash never leaves half a checkpoint
+      Path temp = _path.resolveSibling(_path.getFileName() + ".tmp");
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        props.store(out, null);
+      }
+      Files.move(temp, _path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+}
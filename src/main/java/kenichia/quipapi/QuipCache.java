@@ -0,0 +1,308 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory cache of the JSON returned by QuipThread.getThread,
+ * QuipUser.getUser and QuipFolder.getFolder. Entries expire after the time
+ * to live, and the least recently used entries are evicted once the total
+ * weight exceeds the max weight. An entry weighs the length of the response
+ * body it was read from, in characters. Writes made through this library,
+ * such as editDocument, addMembers, update and delete, invalidate the
+ * entries of the object they change, including the ones still being loaded.
+ * Entries are kept per access token, so a response fetched with one token,
+ * for example inside QuipClient.callWithAccessToken, is never served to
+ * another; invalidating an object drops its entries for all tokens.
+ *
+ * <pre>
+ * // 64M characters
+ * QuipClient.setCache(QuipCache.builder()
+ *     .setMaxWeight(64L * 1024 * 1024).setTimeToLive(Duration.ofMinutes(5))
+ *     .build());
+ * </pre>
+ */
+public class QuipCache {
+
+  private final long _maxWeight;
+  private final long _timeToLiveMillis;
+  private final ReentrantLock _lock = new ReentrantLock();
+  // access order, so the eldest entry is the least recently used one
+  private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>(
+      16, 0.75f, true);
+  // object key to the keys of its entries, one per token
+  private final HashMap<String, Set<String>> _scopedKeys = new HashMap<>();
+  // keys being loaded, bumped on invalidation so that a late load is dropped
+  private final HashMap<String, Load> _loads = new HashMap<>();
+  private long _weight = 0L;
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _evictions = new AtomicLong();
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private long _maxWeight = 64L * 1024 * 1024;
+    private Duration _timeToLive = Duration.ofMinutes(5);
+
+    private Builder() {
+    }
+
+    /**
+     * @param maxWeight - max total length of the cached responses, in
+     *                  characters.
+     */
+    public Builder setMaxWeight(long maxWeight) {
+      if (maxWeight <= 0)
+        throw new IllegalArgumentException("maxWeight must be positive.");
+      _maxWeight = maxWeight;
+      return this;
+    }
+
+    /**
+     * @param timeToLive - how long an entry is served after it was fetched.
+     */
+    public Builder setTimeToLive(Duration timeToLive) {
+      Objects.requireNonNull(timeToLive);
+      if (timeToLive.isNegative() || timeToLive.isZero())
+        throw new IllegalArgumentException("timeToLive must be positive.");
+      _timeToLive = timeToLive;
+      return this;
+    }
+
+    public QuipCache build() {
+      return new QuipCache(this);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipCache(Builder builder) {
+    _maxWeight = builder._maxWeight;
+    _timeToLiveMillis = builder._timeToLive.toMillis();
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public void invalidateAll() {
+    _lock.lock();
+    try {
+      _entries.clear();
+      _scopedKeys.clear();
+      _weight = 0L;
+      for (Load load : _loads.values())
+        load._generation++;
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  // ============================================
+  // Statistics
+  // ============================================
+
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  /**
+   * @return - number of entries removed to stay under the max weight.
+   */
+  public long getEvictionCount() {
+    return _evictions.get();
+  }
+
+  public double getHitRate() {
+    long hits = _hits.get();
+    long total = hits + _misses.get();
+    return (total == 0) ? 0.0 : (double) hits / total;
+  }
+
+  /**
+   * @return - total length of the cached responses, in characters.
+   */
+  public long getWeight() {
+    _lock.lock();
+    try {
+      return _weight;
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  public int size() {
+    _lock.lock();
+    try {
+      return _entries.size();
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  // ============================================
+  // Package private
+  // ============================================
+
+  /**
+   * @return - the cached response, or null if absent or expired. Its JSON is
+   * shared between callers and must not be modified.
+   */
+  QuipAccess.Fetched _get(String key, String token) {
+    String scopedKey = _scope(key, token);
+    long now = System.currentTimeMillis();
+    _lock.lock();
+    try {
+      Entry entry = _entries.get(scopedKey);
+      if (entry != null && entry._expiresAtMillis > now) {
+        _hits.incrementAndGet();
+        return entry._fetched;
+      }
+      if (entry != null)
+        _remove(scopedKey);
+    } finally {
+      _lock.unlock();
+    }
+    _misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Registers a load of the key, whatever the token. Every call must be
+   * followed by one {@link #_put} with the returned generation, even if the
+   * load fails.
+   */
+  long _beginLoad(String key) {
+    _lock.lock();
+    try {
+      Load load = _loads.computeIfAbsent(key, k -> new Load());
+      load._count++;
+      return load._generation;
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  /**
+   * Ends a load started by {@link #_beginLoad} and caches its response,
+   * unless the load failed or the key was invalidated after it began.
+   *
+   * @param fetched - the loaded response, or null if the load failed.
+   */
+  void _put(String key, String token, long generation,
+      QuipAccess.Fetched fetched) {
+    _lock.lock();
+    try {
+      Load load = _loads.get(key);
+      boolean current = load._generation == generation;
+      if (--load._count == 0)
+        _loads.remove(key);
+      if (fetched == null || fetched._json == null || !current
+          || fetched._length > _maxWeight)
+        return;
+      String scopedKey = _scope(key, token);
+      Entry entry = new Entry(key, fetched,
+          System.currentTimeMillis() + _timeToLiveMillis);
+      _remove(scopedKey);
+      _entries.put(scopedKey, entry);
+      _scopedKeys.computeIfAbsent(key, k -> new HashSet<>()).add(scopedKey);
+      _weight += entry._weight;
+      while (_weight > _maxWeight && !_entries.isEmpty()) {
+        _remove(_entries.keySet().iterator().next());
+        _evictions.incrementAndGet();
+      }
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  void _invalidate(String... keys) {
+    _lock.lock();
+    try {
+      for (String key : keys) {
+        Set<String> scopedKeys = _scopedKeys.get(key);
+        if (scopedKeys != null)
+          for (String scopedKey : new ArrayList<>(scopedKeys))
+            _remove(scopedKey);
+        Load load = _loads.get(key);
+        if (load != null)
+          load._generation++;
+      }
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static String _scope(String key, String token) {
+    return key + " " + token;
+  }
+
+  private void _remove(String scopedKey) {
+    Entry entry = _entries.remove(scopedKey);
+    if (entry == null)
+      return;
+    _weight -= entry._weight;
+    Set<String> scopedKeys = _scopedKeys.get(entry._key);
+    scopedKeys.remove(scopedKey);
+    if (scopedKeys.isEmpty())
+      _scopedKeys.remove(entry._key);
+  }
+
+  private static class Load {
+    private int _count = 0;
+    private long _generation = 0L;
+  }
+
+  private static class Entry {
+    private final String _key;
+    private final QuipAccess.Fetched _fetched;
+    private final long _weight;
+    private final long _expiresAtMillis;
+
+    Entry(String key, QuipAccess.Fetched fetched, long expiresAtMillis) {
+      _key = key;
+      _fetched = fetched;
+      _weight = fetched._length;
+      _expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
@@ -23,12 +23,38 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Holds the settings shared by every request: the access token, transport,
+ * executor, retry policy, rate limiter and cache.
+ *
+ * <p>Every request of QuipThread, QuipFolder, QuipUser, QuipMessage and
+ * QuipBlob has an Async variant returning a CompletableFuture, except those
+ * that write into a Path, an OutputStream or a Consumer, the batch calls,
+ * and the OAuth calls of this class. Sinks and batches block on purpose, so
+ * run them through {@link #invokeAll} instead.
+ */
 public class QuipClient extends QuipAccess {
 
   private static QuipClient _instance = new QuipClient();
+  private static final ThreadLocal<String> _threadAccessToken =
+      new ThreadLocal<>();
   private String _accessToken;
   private boolean _isDebugEnabled = false;
+  private volatile QuipTransport _transport = QuipTransport.builder().build();
+  private volatile ExecutorService _executorService = null;
+  private volatile boolean _isVirtualThreadsEnabled = false;
+  private volatile QuipRateLimiter _rateLimiter = null;
+  private volatile QuipRetryPolicy _retryPolicy = QuipRetryPolicy.builder()
+      .build();
+  private volatile int _batchSize = 100;
+  private volatile int _batchParallelism = 4;
+  private volatile QuipCache _cache = null;
 
   // ============================================
   // Authentication
@@ -41,6 +67,29 @@ public class QuipClient extends QuipAccess {
       throw new IOException("The access token is invalid.");
   }
 
+  /**
+   * Runs the call with another access token, for applications acting for
+   * several accounts. The requests the library runs on its own executor for
+   * the call, such as those of {@link #invokeAll}, the batch calls, the
+   * downloader and the Async variants, use it too. Calls handed to an
+   * executor of your own do not; wrap them in callWithAccessToken again. The
+   * token is not verified.
+   */
+  public static <T> T callWithAccessToken(String accessToken,
+      Callable<T> call) throws Exception {
+    Objects.requireNonNull(accessToken);
+    String previous = _threadAccessToken.get();
+    _threadAccessToken.set(accessToken);
+    try {
+      return call.call();
+    } finally {
+      if (previous == null)
+        _threadAccessToken.remove();
+      else
+        _threadAccessToken.set(previous);
+    }
+  }
+
   public static String getAuthorizationUrl(String clientId, String clientSecret,
       String redirectUri, String state) throws Exception {
     Objects.requireNonNull(clientId);
@@ -132,26 +181,262 @@ public class QuipClient extends QuipAccess {
     return QuipAccess.xCompanyRetryAfter;
   }
 
+  /**
+   * Spaces requests to stay under the rate limits announced by the server,
+   * instead of waiting only after a 429 or 503 response.
+   *
+   * @param rateLimiter - limiter shared by all threads, or null to disable.
+   */
+  public static void setRateLimiter(QuipRateLimiter rateLimiter) {
+    _instance._rateLimiter = rateLimiter;
+  }
+
+  public static QuipRateLimiter getRateLimiter() {
+    return _instance._rateLimiter;
+  }
+
+  /**
+   * @param retryPolicy - decides how requests answered with 429 or 503 are
+   *                    retried.
+   */
+  public static void setRetryPolicy(QuipRetryPolicy retryPolicy) {
+    Objects.requireNonNull(retryPolicy);
+    _instance._retryPolicy = retryPolicy;
+  }
+
+  public static QuipRetryPolicy getRetryPolicy() {
+    return _instance._retryPolicy;
+  }
+
+  /**
+   * @param batchSize - max number of ids sent in one request by the batch
+   *                  calls such as {@link QuipThread#getThreadsBatch}.
+   */
+  public static void setBatchSize(int batchSize) {
+    if (batchSize <= 0)
+      throw new IllegalArgumentException("batchSize must be positive.");
+    _instance._batchSize = batchSize;
+  }
+
+  public static int getBatchSize() {
+    return _instance._batchSize;
+  }
+
+  /**
+   * @param batchParallelism - max number of requests a single batch call
+   *                         has in flight at the same time.
+   */
+  public static void setBatchParallelism(int batchParallelism) {
+    if (batchParallelism <= 0)
+      throw new IllegalArgumentException(
+          "batchParallelism must be positive.");
+    _instance._batchParallelism = batchParallelism;
+  }
+
+  public static int getBatchParallelism() {
+    return _instance._batchParallelism;
+  }
+
+  /**
+   * @param cache - caches getThread, getUser and getFolder. null disables
+   *              caching, which is the default.
+   */
+  public static void setCache(QuipCache cache) {
+    _instance._cache = cache;
+  }
+
+  public static QuipCache getCache() {
+    return _instance._cache;
+  }
+
   public static void enableDebug(boolean isEnabled) {
     _instance._isDebugEnabled = isEnabled;
   }
 
+  // ============================================
+  // Transport
+  // ============================================
+
+  /**
+   * Replaces the transport used for all API calls. The previous transport is
+   * not closed, since requests may still be running on it.
+   *
+   * @param transport - transport with its own connection pool.
+   */
+  public static void setTransport(QuipTransport transport) {
+    Objects.requireNonNull(transport);
+    _instance._transport = transport;
+  }
+
+  public static QuipTransport getTransport() {
+    return _instance._transport;
+  }
+
+  // ============================================
+  // Concurrency
+  // ============================================
+
+  /**
+   * @return - true if the running JVM provides virtual threads (Java 21+).
+   */
+  public static boolean isVirtualThreadsSupported() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Runs {@link #invokeAll(List)} on virtual threads, one thread per call.
+   * Blocking API calls do not pin their carrier thread, so thousands of
+   * them can wait on the network at the same time.
+   *
+   * @param isEnabled - true to use virtual threads, false to use a cached
+   *                  pool of platform threads.
+   * @throws UnsupportedOperationException - if the JVM is older than 21.
+   */
+  public static void enableVirtualThreads(boolean isEnabled) {
+    if (isEnabled && !isVirtualThreadsSupported())
+      throw new UnsupportedOperationException(
+          "Virtual threads require Java 21 or later.");
+    synchronized (_instance) {
+      if (_instance._isVirtualThreadsEnabled == isEnabled)
+        return;
+      _instance._isVirtualThreadsEnabled = isEnabled;
+      ExecutorService previous = _instance._executorService;
+      _instance._executorService = null;
+      if (previous != null)
+        previous.shutdown();
+    }
+  }
+
+  public static boolean isVirtualThreadsEnabled() {
+    return _instance._isVirtualThreadsEnabled;
+  }
+
+  /**
+   * Runs blocking API calls concurrently and waits for all of them.
+   *
+   * <pre>
+   * List&lt;QuipThread&gt; threads = QuipClient.invokeAll(Stream.of(ids)
+   *     .map(id -&gt; (Callable&lt;QuipThread&gt;) () -&gt; QuipThread.getThread(id))
+   *     .collect(Collectors.toList()));
+   * </pre>
+   *
+   * @param calls - calls to run.
+   * @return - results in the order of the calls.
+   * @throws Exception - the exception of the first failed call. The other
+   *                   calls are cancelled.
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> calls)
+      throws Exception {
+    Objects.requireNonNull(calls);
+    ExecutorService executor = _getExecutorService();
+    List<Future<T>> futures = new ArrayList<>(calls.size());
+    try {
+      for (Callable<T> call : calls)
+        futures.add(executor.submit(_withCallerToken(call)));
+      List<T> results = new ArrayList<>(calls.size());
+      for (Future<T> future : futures)
+        results.add(future.get());
+      return results;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      throw e;
+    } finally {
+      for (Future<T> future : futures)
+        future.cancel(true);
+    }
+  }
+
   // ============================================
   // Protected
   // ============================================
 
   protected static String _getBearerToken() {
-    return "Bearer " + _instance._accessToken;
+    String accessToken = _threadAccessToken.get();
+    return "Bearer "
+        + ((accessToken != null) ? accessToken : _instance._accessToken);
   }
 
   protected static boolean _isDebugEnabled() {
     return _instance._isDebugEnabled;
   }
 
+  protected static QuipTransport _getTransport() {
+    return _instance._transport;
+  }
+
+  protected static int _getBatchSize() {
+    return _instance._batchSize;
+  }
+
+  protected static int _getBatchParallelism() {
+    return _instance._batchParallelism;
+  }
+
+  protected static QuipCache _getCache() {
+    return _instance._cache;
+  }
+
+  protected static QuipRetryPolicy _getRetryPolicy() {
+    return _instance._retryPolicy;
+  }
+
+  protected static QuipRateLimiter _getRateLimiter() {
+    return _instance._rateLimiter;
+  }
+
+  /**
+   * Runs the call on the executor with the access token of the caller.
+   */
+  protected static <T> Future<T> _submit(Callable<T> call) {
+    return _getExecutorService().submit(_withCallerToken(call));
+  }
+
+  protected static ExecutorService _getExecutorService() {
+    ExecutorService executor = _instance._executorService;
+    if (executor != null)
+      return executor;
+    synchronized (_instance) {
+      if (_instance._executorService == null)
+        _instance._executorService = _instance._isVirtualThreadsEnabled
+            ? _newVirtualThreadExecutor()
+            : Executors.newCachedThreadPool(runnable -> {
+              Thread thread = new Thread(runnable, "quip-worker");
+              thread.setDaemon(true);
+              return thread;
+            });
+      return _instance._executorService;
+    }
+  }
+
   // ============================================
   // Private
   // ============================================
 
+  // binds the token of the submitting thread, if any, in the worker
+  private static <T> Callable<T> _withCallerToken(Callable<T> call) {
+    String accessToken = _threadAccessToken.get();
+    if (accessToken == null)
+      return call;
+    return () -> callWithAccessToken(accessToken, call);
+  }
+
+  private static ExecutorService _newVirtualThreadExecutor() {
+    // looked up reflectively so that the library still runs on Java 11
+    try {
+      return (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException(
+          "Virtual threads require Java 21 or later.", e);
+    }
+  }
+
   private static boolean _verifyToken() throws IOException {
     return (_getToStatusCode(
         QuipAccess.ENDPOINT + "/oauth/verify_token") == 200);
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Moves the handling of websocket events off the socket's I/O thread. Message
+ * events are spread over lanes by thread id, each lane a bounded queue with
+ * its own worker, so handlers for different threads run in parallel while the
+ * messages of one thread keep their order. Heartbeat, alive, error, close and
+ * failure events share a separate lane of their own.
+ *
+ * <p>A message that SPILL_TO_DISK cannot write to or read back from its file
+ * is printed as an error and counted by {@link #getFailedCount()}, and the
+ * socket and the lane go on with the next one.
+ *
+ * <pre>
+ * QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+ *     .setOverflowPolicy(QuipEventDispatcher.OverflowPolicy.DROP_OLDEST)
+ *     .build(handler);
+ * webSocket.open(dispatcher);
+ * </pre>
+ */
+public class QuipEventDispatcher implements QuipWebSocketEvent {
+
+  /**
+   * What a lane does with a message event when its queue is full. Events
+   * other than messages always block.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Wait for room, which in turn holds back the socket.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued message of the lane.
+     */
+    DROP_OLDEST,
+    /**
+     * Append to a file of the lane, read back in order once the queue has
+     * drained.
+     */
+    SPILL_TO_DISK
+  }
+
+  private static final long POLL_MILLIS = 100;
+
+  private final QuipWebSocketEvent _handler;
+  private final OverflowPolicy _overflowPolicy;
+  private final Path _spillDirectory;
+  // created by the dispatcher, so deleted by close
+  private final boolean _isSpillDirectoryOwned;
+  private final Lane[] _lanes;
+  private final Lane _controlLane;
+  private final AtomicLong _droppedCount = new AtomicLong();
+  private final AtomicLong _spilledCount = new AtomicLong();
+  private final AtomicLong _failedCount = new AtomicLong();
+  private volatile boolean _isClosed = false;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private int _laneCount = Runtime.getRuntime().availableProcessors();
+    private int _queueCapacity = 1024;
+    private OverflowPolicy _overflowPolicy = OverflowPolicy.BLOCK;
+    private Path _spillDirectory = null;
+
+    private Builder() {
+    }
+
+    /**
+     * @param laneCount - number of workers for message events.
+     */
+    public Builder setLaneCount(int laneCount) {
+      if (laneCount <= 0)
+        throw new IllegalArgumentException("laneCount must be positive.");
+      _laneCount = laneCount;
+      return this;
+    }
+
+    /**
+     * @param queueCapacity - events each lane holds in memory.
+     */
+    public Builder setQueueCapacity(int queueCapacity) {
+      if (queueCapacity <= 0)
+        throw new IllegalArgumentException("queueCapacity must be positive.");
+      _queueCapacity = queueCapacity;
+      return this;
+    }
+
+    public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+      _overflowPolicy = Objects.requireNonNull(overflowPolicy);
+      return this;
+    }
+
+    /**
+     * @param spillDirectory - where SPILL_TO_DISK writes its files. A new
+     *                       temporary directory by default.
+     */
+    public Builder setSpillDirectory(Path spillDirectory) {
+      _spillDirectory = Objects.requireNonNull(spillDirectory);
+      return this;
+    }
+
+    /**
+     * @param handler - receives the events on the worker threads.
+     */
+    public QuipEventDispatcher build(QuipWebSocketEvent handler)
+        throws IOException {
+      return new QuipEventDispatcher(this, handler);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipEventDispatcher(Builder builder, QuipWebSocketEvent handler)
+      throws IOException {
+    _handler = Objects.requireNonNull(handler);
+    _overflowPolicy = builder._overflowPolicy;
+    _isSpillDirectoryOwned = _overflowPolicy == OverflowPolicy.SPILL_TO_DISK
+        && builder._spillDirectory == null;
+    _spillDirectory = (_overflowPolicy != OverflowPolicy.SPILL_TO_DISK) ? null
+        : _isSpillDirectoryOwned ? Files.createTempDirectory("quip-events")
+            : builder._spillDirectory;
+    _lanes = new Lane[builder._laneCount];
+    for (int i = 0; i < _lanes.length; i++)
+      _lanes[i] = new Lane(i, builder._queueCapacity, _overflowPolicy);
+    _controlLane = new Lane(-1, builder._queueCapacity, OverflowPolicy.BLOCK);
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return - message events dropped by DROP_OLDEST.
+   */
+  public long getDroppedCount() {
+    return _droppedCount.get();
+  }
+
+  /**
+   * @return - message events written to disk by SPILL_TO_DISK.
+   */
+  public long getSpilledCount() {
+    return _spilledCount.get();
+  }
+
+  /**
+   * @return - message events lost because SPILL_TO_DISK could not write them
+   * or read them back.
+   */
+  public long getFailedCount() {
+    return _failedCount.get();
+  }
+
+  /**
+   * @return - where SPILL_TO_DISK writes its files, or null for the other
+   * policies.
+   */
+  public Path getSpillDirectory() {
+    return _spillDirectory;
+  }
+
+  /**
+   * Stops accepting events, and waits until the ones accepted so far have
+   * been handled. The spill directory is deleted if the dispatcher created
+   * it.
+   */
+  public void close() throws InterruptedException {
+    _isClosed = true;
+    for (Lane lane : _lanes)
+      lane._worker.join();
+    _controlLane._worker.join();
+    if (_isSpillDirectoryOwned) {
+      try (Stream<Path> paths = Files.walk(_spillDirectory)) {
+        for (Path path : (Iterable<Path>) paths
+            .sorted(Comparator.reverseOrder())::iterator)
+          Files.deleteIfExists(path);
+      } catch (IOException e) {
+        _reportError("Cannot delete " + _spillDirectory, e);
+      }
+    }
+  }
+
+  // ============================================
+  // QuipWebSocketEvent
+  // ============================================
+
+  @Override
+  public void onMessage(QuipMessage message, QuipUser user,
+      QuipThread thread) {
+    String threadId = thread.getId();
+    _lane(threadId)._offer(new Event(threadId, message, user, thread));
+  }
+
+  @Override
+  public void onMissedMessage(String threadId, QuipMessage message) {
+    _lane(threadId)._offer(new Event(threadId, message, null, null));
+  }
+
+  @Override
+  public void onHeartbeat() {
+    _controlLane._offer(new Event(QuipWebSocketEvent::onHeartbeat));
+  }
+
+  @Override
+  public void onAlive(String message) {
+    _controlLane._offer(new Event(handler -> handler.onAlive(message)));
+  }
+
+  @Override
+  public void onError(String debug) {
+    _controlLane._offer(new Event(handler -> handler.onError(debug)));
+  }
+
+  @Override
+  public void onClose(int statusCode, String reason) {
+    _controlLane
+        ._offer(new Event(handler -> handler.onClose(statusCode, reason)));
+  }
+
+  @Override
+  public void onFailure(Throwable error) {
+    _controlLane._offer(new Event(handler -> handler.onFailure(error)));
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private Lane _lane(String threadId) {
+    int hash = (threadId == null) ? 0 : threadId.hashCode();
+    return _lanes[Math.floorMod(hash, _lanes.length)];
+  }
+
+  private void _reportError(String what, Throwable e) {
+    System.out.println("Error> " + what + ": " + e);
+    if (QuipClient._isDebugEnabled())
+      e.printStackTrace();
+  }
+
+  private void _handle(Event event) {
+    try {
+      event._handling.accept(_handler);
+    } catch (Throwable e) {
+      // a failing handler must not stop the lane, not even with an Error
+      _reportError("The handler failed", e);
+    }
+  }
+
+  // ============================================
+  // Event
+  // ============================================
+
+  private static class Event {
+    private final Consumer<QuipWebSocketEvent> _handling;
+    private final String _threadId;
+    private final QuipMessage _message;
+    private final QuipUser _user;
+    private final QuipThread _thread;
+
+    Event(Consumer<QuipWebSocketEvent> handling) {
+      _handling = handling;
+      _threadId = null;
+      _message = null;
+      _user = null;
+      _thread = null;
+    }
+
+    Event(String threadId, QuipMessage message, QuipUser user,
+        QuipThread thread) {
+      _threadId = threadId;
+      _message = message;
+      _user = user;
+      _thread = thread;
+      _handling = (thread == null)
+          ? handler -> handler.onMissedMessage(threadId, message)
+          : handler -> handler.onMessage(message, user, thread);
+    }
+
+    // one line of json per event
+    String _toLine() {
+      return "{\"thread_id\":" + _quote(_threadId) + ",\"message\":"
+          + _message + ",\"user\":" + _user + ",\"thread\":" + _thread + "}";
+    }
+
+    static Event _fromLine(String line) {
+      JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+      JsonElement threadId = json.get("thread_id");
+      JsonElement user = json.get("user");
+      JsonElement thread = json.get("thread");
+      return new Event(threadId.isJsonNull() ? null : threadId.getAsString(),
+          new QuipMessage(json.getAsJsonObject("message")),
+          user.isJsonNull() ? null : new QuipUser(user.getAsJsonObject()),
+          thread.isJsonNull() ? null
+              : new QuipThread(thread.getAsJsonObject()));
+    }
+
+    private static String _quote(String value) {
+      if (value == null)
+        return "null";
+      JsonObject wrapper = new JsonObject();
+      wrapper.addProperty("v", value);
+      return wrapper.get("v").toString();
+    }
+  }
+
+  // ============================================
+  // Lane
+  // ============================================
+
+  private class Lane {
+    private final int _index;
+    private final BlockingQueue<Event> _queue;
+    private final OverflowPolicy _policy;
+    private final Thread _worker;
+    // guards the spill files; while any exist, new events go to disk too
+    private final ReentrantLock _spillLock = new ReentrantLock();
+    private final Deque<Path> _spillFiles = new ArrayDeque<>();
+    private BufferedWriter _spillWriter = null;
+
+    Lane(int index, int capacity, OverflowPolicy policy) {
+      _index = index;
+      _queue = new ArrayBlockingQueue<>(capacity);
+      _policy = policy;
+      _worker = new Thread(this::_run, (index < 0) ? "quip-event-control"
+          : "quip-event-lane-" + index);
+      _worker.setDaemon(true);
+      _worker.start();
+    }
+
+    void _offer(Event event) {
+      if (_isClosed)
+        return;
+      switch (_policy) {
+        case DROP_OLDEST :
+          while (!_queue.offer(event)) {
+            if (_queue.poll() != null)
+              _droppedCount.incrementAndGet();
+          }
+          break;
+        case SPILL_TO_DISK :
+          _spillLock.lock();
+          try {
+            if (_spillFiles.isEmpty() && _queue.offer(event))
+              return;
+            _spill(event);
+          } finally {
+            _spillLock.unlock();
+          }
+          break;
+        default :
+          try {
+            _queue.put(event);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+      }
+    }
+
+    // runs on the socket's I/O thread, so a failure is reported, not thrown
+    private void _spill(Event event) {
+      try {
+        if (_spillWriter == null) {
+          Path file = Files.createTempFile(_spillDirectory,
+              "lane-" + _index + "-", ".jsonl");
+          _spillFiles.add(file);
+          _spillWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+        _spillWriter.write(event._toLine());
+        _spillWriter.newLine();
+        _spilledCount.incrementAndGet();
+      } catch (IOException | RuntimeException e) {
+        _failedCount.incrementAndGet();
+        _reportError("Cannot spill a message of " + event._threadId, e);
+      }
+    }
+
+    private void _run() {
+      while (true) {
+        Event event;
+        try {
+          event = _queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (event != null) {
+          _handle(event);
+        } else if (!_drainSpill() && _isClosed && _queue.isEmpty()) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Hands the events of the oldest spill file to the handler. A line that
+     * cannot be read back is reported and skipped, and a file that cannot be
+     * read is reported and given up, so the worker keeps running either way.
+     *
+     * @return - true if a spill file was taken.
+     */
+    private boolean _drainSpill() {
+      Path file;
+      _spillLock.lock();
+      try {
+        file = _spillFiles.peek();
+        if (file == null)
+          return false;
+        // later events start a new file while this one is read
+        if (_spillWriter != null) {
+          BufferedWriter writer = _spillWriter;
+          _spillWriter = null;
+          try {
+            writer.close();
+          } catch (IOException e) {
+            _reportError("Cannot finish " + file, e);
+          }
+        }
+      } finally {
+        _spillLock.unlock();
+      }
+      try (BufferedReader reader = Files.newBufferedReader(file,
+          StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          Event event;
+          try {
+            event = Event._fromLine(line);
+          } catch (RuntimeException e) {
+            _failedCount.incrementAndGet();
+            _reportError("Cannot read back a message from " + file, e);
+            continue;
+          }
+          _handle(event);
+        }
+      } catch (IOException | UncheckedIOException e) {
+        _reportError("Cannot read " + file, e);
+      }
+      _spillLock.lock();
+      try {
+        _spillFiles.remove();
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        _reportError("Cannot delete " + file, e);
+      } finally {
+        _spillLock.unlock();
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Selects the websocket events passed to the handler by type, thread and
+ * author. An event is checked against its raw text with a streaming scan that
+ * skips the message body without decoding it, so a rejected event costs no
+ * JsonObject and no QuipMessage, QuipUser or QuipThread. The thread and
+ * author conditions only apply to message events.
+ *
+ * <pre>
+ * webSocket.setFilter(QuipEventFilter.builder()
+ *     .setTypes("message", "alive").setThreadIds(threadId).build());
+ * </pre>
+ */
+public class QuipEventFilter {
+
+  private final Set<String> _types;
+  private final Set<String> _threadIds;
+  private final Set<String> _authorIds;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private Set<String> _types = Collections.emptySet();
+    private Set<String> _threadIds = Collections.emptySet();
+    private Set<String> _authorIds = Collections.emptySet();
+
+    private Builder() {
+    }
+
+    /**
+     * @param types - "message", "heartbeat", "alive" or "error". All types
+     *              pass when none is given.
+     */
+    public Builder setTypes(String... types) {
+      _types = _toSet(types);
+      return this;
+    }
+
+    /**
+     * @param threadIds - threads whose messages pass. Messages of all threads
+     *                  pass when none is given.
+     */
+    public Builder setThreadIds(String... threadIds) {
+      _threadIds = _toSet(threadIds);
+      return this;
+    }
+
+    /**
+     * @param authorIds - users whose messages pass. Messages of all users
+     *                  pass when none is given.
+     */
+    public Builder setAuthorIds(String... authorIds) {
+      _authorIds = _toSet(authorIds);
+      return this;
+    }
+
+    public QuipEventFilter build() {
+      return new QuipEventFilter(this);
+    }
+
+    private static Set<String> _toSet(String[] values) {
+      return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(values)));
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipEventFilter(Builder builder) {
+    _types = builder._types;
+    _threadIds = builder._threadIds;
+    _authorIds = builder._authorIds;
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param json - raw text of a websocket event.
+   * @return - whether the event passes. Text that cannot be scanned passes,
+   *         so that its parse error is reported as usual.
+   */
+  public boolean accepts(String json) {
+    try (JsonReader reader = new JsonReader(new StringReader(json))) {
+      return _scan(reader);
+    } catch (IOException | IllegalStateException e) {
+      return true;
+    }
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private boolean _scan(JsonReader reader) throws IOException {
+    String type = null;
+    String threadId = null;
+    String authorId = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "type" :
+          type = reader.nextString();
+          if (!_types.isEmpty() && !_types.contains(type))
+            return false;
+          if (!type.equals("message"))
+            return true;
+          break;
+        case "thread" :
+          threadId = _scanId(reader, "thread");
+          if (!_threadIds.isEmpty() && !_threadIds.contains(threadId))
+            return false;
+          break;
+        case "user" :
+          authorId = _scanId(reader, null);
+          if (!_authorIds.isEmpty() && !_authorIds.contains(authorId))
+            return false;
+          break;
+        default :
+          // the message body and anything else are skipped undecoded
+          reader.skipValue();
+          break;
+      }
+      if (type != null && (_threadIds.isEmpty() || threadId != null)
+          && (_authorIds.isEmpty() || authorId != null))
+        return true;
+    }
+    // a message event missing a field a condition needs
+    return type == null || !type.equals("message")
+        || (_threadIds.isEmpty() && _authorIds.isEmpty());
+  }
+
+  // reads the "id" of an object, looking into a nested wrapper if given
+  private static String _scanId(JsonReader reader, String wrapper)
+      throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      return null;
+    }
+    String id = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (id == null && name.equals("id")
+          && reader.peek() == JsonToken.STRING) {
+        id = reader.nextString();
+      } else if (id == null && name.equals(wrapper)) {
+        id = _scanId(reader, null);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return id;
+  }
+}
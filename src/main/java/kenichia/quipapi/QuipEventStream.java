@@ -0,0 +1,415 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A websocket event stream that stays connected. When the connection closes,
+ * fails, or stops answering heartbeats, a fresh url is requested with
+ * {@link QuipWebSocket#create()} after a backoff taken from a
+ * {@link QuipRetryPolicy}. After each reconnect, the messages posted in the
+ * meantime to the threads seen so far are fetched with getRecentMessages and
+ * passed to {@link QuipWebSocketEvent#onMissedMessage}. Only the threads
+ * most recently active are backfilled, up to 1000 of them. Every message is
+ * delivered once, and the event handler is never called concurrently.
+ *
+ * <pre>
+ * QuipEventStream stream = QuipEventStream.builder().build();
+ * stream.open(event);
+ * ...
+ * stream.close();
+ * </pre>
+ */
+public class QuipEventStream {
+
+  private static final int RECENT_IDS = 10_000;
+  private static final int MAX_MARKS = 1_000;
+
+  private final QuipRetryPolicy _reconnectPolicy;
+  private final long _heartbeatMillis;
+  private final int _backfillCount;
+  private final ScheduledExecutorService _scheduler = Executors
+      .newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "quip-event-stream");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  // held while the handler runs, and while marks and ids are updated
+  private final ReentrantLock _deliveryLock = new ReentrantLock();
+  // per thread, the updated_usec of the newest message delivered, in access
+  // order so that the threads quiet for longest are forgotten first
+  private final Map<String, Instant> _marks = new LinkedHashMap<>(16, 0.75f,
+      true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Instant> eldest) {
+      return size() > MAX_MARKS;
+    }
+  };
+  private final Map<String, Boolean> _recentIds = new LinkedHashMap<>() {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > RECENT_IDS;
+    }
+  };
+
+  private volatile QuipWebSocketEvent _event = null;
+  private final AtomicReference<Connection> _connection =
+      new AtomicReference<>();
+  private volatile boolean _isClosed = false;
+  // state of the pending reconnect, reset once one has been backfilled
+  private final ReentrantLock _lock = new ReentrantLock();
+  private QuipRetryPolicy.Attempt _attempt = null;
+  // marks as of the dropped connection, so that live messages on the new
+  // one cannot move them past the missed ones
+  private Map<String, Instant> _backfillMarks = null;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private QuipRetryPolicy _reconnectPolicy = QuipRetryPolicy.builder()
+        .setMaxRetries(Integer.MAX_VALUE)
+        .setInitialBackoff(Duration.ofSeconds(1))
+        .setMaxBackoff(Duration.ofMinutes(1))
+        .setMaxElapsedTime(Duration.ofDays(1)).build();
+    private Duration _heartbeatInterval = Duration.ofSeconds(30);
+    private int _backfillCount = 100;
+
+    private Builder() {
+    }
+
+    /**
+     * @param reconnectPolicy - backoff between reconnect attempts. The
+     *                        stream gives up, and calls onFailure, when the
+     *                        policy runs out of retries.
+     */
+    public Builder setReconnectPolicy(QuipRetryPolicy reconnectPolicy) {
+      _reconnectPolicy = Objects.requireNonNull(reconnectPolicy);
+      return this;
+    }
+
+    /**
+     * @param heartbeatInterval - time between heartbeats. A connection that
+     *                          has been silent for two intervals is dropped
+     *                          and reconnected. Zero disables heartbeats.
+     */
+    public Builder setHeartbeatInterval(Duration heartbeatInterval) {
+      if (heartbeatInterval.isNegative())
+        throw new IllegalArgumentException(
+            "heartbeatInterval must not be negative.");
+      _heartbeatInterval = heartbeatInterval;
+      return this;
+    }
+
+    /**
+     * @param backfillCount - number of messages to fetch per request when
+     *                      backfilling a thread.
+     */
+    public Builder setBackfillCount(int backfillCount) {
+      if (backfillCount <= 0)
+        throw new IllegalArgumentException("backfillCount must be positive.");
+      _backfillCount = backfillCount;
+      return this;
+    }
+
+    public QuipEventStream build() {
+      return new QuipEventStream(this);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipEventStream(Builder builder) {
+    _reconnectPolicy = builder._reconnectPolicy;
+    _heartbeatMillis = builder._heartbeatInterval.toMillis();
+    _backfillCount = builder._backfillCount;
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Connects and starts delivering events. A failure of the first connect is
+   * thrown, and open may be called again; later failures are retried.
+   */
+  public void open(QuipWebSocketEvent event) throws Exception {
+    Objects.requireNonNull(event);
+    if (_event != null)
+      throw new IllegalStateException("The stream is already open.");
+    // set first, as events may arrive before _open returns
+    _event = event;
+    try {
+      _open();
+    } catch (Exception e) {
+      _event = null;
+      throw e;
+    }
+    if (_heartbeatMillis > 0)
+      _scheduler.scheduleWithFixedDelay(this::_checkAlive, _heartbeatMillis,
+          _heartbeatMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Backfills the thread after a reconnect from now on, even before a
+   * message of it has been seen.
+   */
+  public void watchThread(String threadId) {
+    _deliveryLock.lock();
+    try {
+      _marks.putIfAbsent(threadId, Instant.now());
+    } finally {
+      _deliveryLock.unlock();
+    }
+  }
+
+  public boolean isConnected() {
+    return _connection.get() != null;
+  }
+
+  public void close() throws Exception {
+    _isClosed = true;
+    _scheduler.shutdownNow();
+    Connection connection = _connection.getAndSet(null);
+    if (connection != null)
+      connection._webSocket.close();
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private Connection _open() throws Exception {
+    Connection connection = new Connection(QuipWebSocket.create());
+    connection._webSocket.open(connection);
+    _connection.set(connection);
+    return connection;
+  }
+
+  private void _reconnect(Connection from, Throwable error) {
+    // only the first report of a dropped connection reconnects
+    if (_isClosed || !_connection.compareAndSet(from, null))
+      return;
+    from._webSocket._abort();
+    _scheduleReconnect(error);
+  }
+
+  private void _scheduleReconnect(Throwable error) {
+    long backoff;
+    _lock.lock();
+    try {
+      if (_attempt == null)
+        _attempt = _reconnectPolicy._newAttempt();
+      backoff = _attempt.nextBackoffMillis(0);
+    } finally {
+      _lock.unlock();
+    }
+    if (backoff < 0) {
+      _call(event -> event.onFailure(error));
+      return;
+    }
+    _scheduler.schedule(this::_reopen, backoff, TimeUnit.MILLISECONDS);
+  }
+
+  private void _reopen() {
+    if (_isClosed)
+      return;
+    Map<String, Instant> marks;
+    _lock.lock();
+    try {
+      if (_backfillMarks == null)
+        _backfillMarks = _copyMarks();
+      marks = _backfillMarks;
+    } finally {
+      _lock.unlock();
+    }
+    Connection connection;
+    try {
+      connection = _open();
+    } catch (Exception e) {
+      _scheduleReconnect(e);
+      return;
+    }
+    try {
+      for (Map.Entry<String, Instant> mark : marks.entrySet())
+        _backfill(mark.getKey(), mark.getValue());
+      _lock.lock();
+      try {
+        _attempt = null;
+        _backfillMarks = null;
+      } finally {
+        _lock.unlock();
+      }
+    } catch (Exception e) {
+      _reconnect(connection, e);
+    }
+  }
+
+  private void _checkAlive() {
+    Connection connection = _connection.get();
+    if (connection == null)
+      return;
+    if (System.currentTimeMillis() - connection._lastSeenMillis > 2
+        * _heartbeatMillis)
+      _reconnect(connection, new IllegalStateException(
+          "No answer to heartbeats, reconnecting."));
+    else
+      connection._webSocket.checkAlive();
+  }
+
+  private Map<String, Instant> _copyMarks() {
+    _deliveryLock.lock();
+    try {
+      return new HashMap<>(_marks);
+    } finally {
+      _deliveryLock.unlock();
+    }
+  }
+
+  private void _backfill(String threadId, Instant since) throws Exception {
+    while (true) {
+      QuipMessage[] page = QuipMessage.getRecentMessages(threadId,
+          _backfillCount, null, since, null, QuipThread.SortedBy.ASC, null);
+      Arrays.sort(page, Comparator.comparing(QuipEventStream::_updatedUsec));
+      boolean isFresh = false;
+      for (QuipMessage message : page)
+        isFresh |= _deliver(threadId, message, null, null);
+      if (page.length < _backfillCount)
+        return;
+      Instant newest = _updatedUsec(page[page.length - 1]);
+      // more than a page of messages share one timestamp, step past it
+      since = (!isFresh && newest.equals(since))
+          ? newest.plus(1, ChronoUnit.MICROS)
+          : newest;
+    }
+  }
+
+  /**
+   * @return - false if the message had already been delivered.
+   */
+  private boolean _deliver(String threadId, QuipMessage message, QuipUser user,
+      QuipThread thread) {
+    _deliveryLock.lock();
+    try {
+      if (_recentIds.put(message.getId(), Boolean.TRUE) != null)
+        return false;
+      _marks.merge(threadId, _updatedUsec(message),
+          (a, b) -> a.isAfter(b) ? a : b);
+      if (thread == null)
+        _event.onMissedMessage(threadId, message);
+      else
+        _event.onMessage(message, user, thread);
+      return true;
+    } finally {
+      _deliveryLock.unlock();
+    }
+  }
+
+  // every other handler call, serialized with the deliveries
+  private void _call(Consumer<QuipWebSocketEvent> call) {
+    _deliveryLock.lock();
+    try {
+      call.accept(_event);
+    } finally {
+      _deliveryLock.unlock();
+    }
+  }
+
+  private static Instant _updatedUsec(QuipMessage message) {
+    Instant updatedUsec = message.getUpdatedUsec();
+    if (updatedUsec == null)
+      updatedUsec = message.getCreatedUsec();
+    return (updatedUsec == null) ? Instant.EPOCH : updatedUsec;
+  }
+
+  // ============================================
+  // Connection
+  // ============================================
+
+  // relays the events of one socket, and stops reacting once replaced
+  private class Connection implements QuipWebSocketEvent {
+    private final QuipWebSocket _webSocket;
+    private volatile long _lastSeenMillis = System.currentTimeMillis();
+
+    Connection(QuipWebSocket webSocket) {
+      _webSocket = webSocket;
+    }
+
+    @Override
+    public void onMessage(QuipMessage message, QuipUser user,
+        QuipThread thread) {
+      _lastSeenMillis = System.currentTimeMillis();
+      _deliver(thread.getId(), message, user, thread);
+    }
+
+    @Override
+    public void onHeartbeat() {
+      _lastSeenMillis = System.currentTimeMillis();
+      _call(event -> event.onHeartbeat());
+    }
+
+    @Override
+    public void onAlive(String message) {
+      _lastSeenMillis = System.currentTimeMillis();
+      _call(event -> event.onAlive(message));
+    }
+
+    @Override
+    public void onError(String debug) {
+      _lastSeenMillis = System.currentTimeMillis();
+      _call(event -> event.onError(debug));
+    }
+
+    @Override
+    public void onClose(int statusCode, String reason) {
+      _call(event -> event.onClose(statusCode, reason));
+      _reconnect(this, new IllegalStateException(
+          "Closed by the server: " + statusCode + " " + reason));
+    }
+
+    @Override
+    public void onFailure(Throwable error) {
+      _reconnect(this, error);
+    }
+  }
+}
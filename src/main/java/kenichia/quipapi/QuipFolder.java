@@ -20,7 +20,10 @@ import com.google.gson.JsonObject;
 import org.apache.http.client.fluent.Form;
 import org.apache.http.client.utils.URIBuilder;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -94,6 +97,20 @@ public class QuipFolder extends QuipJsonObject {
         super(json);
     }
 
+    private QuipFolder(Fetched fetched) {
+        super(fetched);
+    }
+
+    @Override
+    protected String[] _versionPath() {
+        return new String[]{"folder", "updated_usec"};
+    }
+
+    @Override
+    protected String[] _cacheKeys() {
+        return _cacheKeys(getId());
+    }
+
     // ============================================
     // Properties
     // ============================================
@@ -141,34 +158,67 @@ public class QuipFolder extends QuipJsonObject {
     // Read
     // ============================================
 
+    /**
+     * Served from {@link QuipClient#getCache()} when a cache is set.
+     */
     public static QuipFolder getFolder(String folderId, boolean includeChats)
             throws Exception {
-        return new QuipFolder(_getToJsonObject(
-                new URIBuilder(QuipAccess.ENDPOINT + "/folders/" + folderId)
-                        .addParameter("include_chats",
-                                String.valueOf(includeChats))
-                        .build()));
+        return new QuipFolder(_getCached(
+                _cacheKeys(folderId)[includeChats ? 1 : 0],
+                () -> _fetchJsonObject(
+                        _folderUri(folderId, includeChats).toString())));
     }
 
     public static QuipFolder[] getFolders(String[] folderIds, boolean includeChats) throws Exception {
-        JsonObject json = _getToJsonObject(
-                new URIBuilder(QuipAccess.ENDPOINT + "/folders/")
-                        .addParameter("ids", String.join(",", folderIds))
-                        .addParameter("include_chats",
-                                String.valueOf(includeChats))
-                        .build());
-        return json.keySet().stream()
-                .map(id -> new QuipFolder(json.get(id).getAsJsonObject()))
-                .toArray(QuipFolder[]::new);
+        return _toFolderArray(_getToJsonObject(_foldersUri(folderIds, includeChats)));
     }
 
+    /**
+     * Batch version of {@link #getFolders(String[], boolean)} for any number
+     * of ids.
+     *
+     * @see QuipThread#getThreadsBatch(String[])
+     */
+    public static QuipBatchResult<QuipFolder> getFoldersBatch(String[] folderIds, boolean includeChats) throws Exception {
+        return QuipBatch._fetch(folderIds,
+                ids -> _getToJsonObject(_foldersUri(ids, includeChats)), QuipFolder::new);
+    }
+
+    /**
+     * Skips the download when the server answers 304, and the parse when
+     * updated_usec has not changed.
+     */
     public boolean reload() throws Exception {
-        JsonObject object = _getToJsonObject(
-                QuipAccess.ENDPOINT + "/folders/" + getId());
-        if (object == null)
-            return false;
-        _replace(object);
-        return true;
+        return _reloadIfModified(QuipAccess.ENDPOINT + "/folders/" + getId());
+    }
+
+    // ============================================
+    // Read (Async)
+    // ============================================
+
+    public static CompletableFuture<QuipFolder> getFolderAsync(String folderId, boolean includeChats) {
+        URI uri;
+        try {
+            uri = _folderUri(folderId, includeChats);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _getToJsonObjectAsync(uri).thenApply(QuipFolder::new);
+    }
+
+    public static CompletableFuture<QuipFolder[]> getFoldersAsync(String[] folderIds, boolean includeChats) {
+        URI uri;
+        try {
+            uri = _foldersUri(folderIds, includeChats);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _getToJsonObjectAsync(uri).thenApply(QuipFolder::_toFolderArray);
+    }
+
+    public CompletableFuture<Boolean> reloadAsync() {
+        return _getToJsonObjectAsync(QuipAccess.ENDPOINT + "/folders/" + getId())
+                .thenApply(this::_replaceIfPresent);
     }
 
     // ============================================
@@ -177,44 +227,52 @@ public class QuipFolder extends QuipJsonObject {
 
     public static QuipFolder create(String title, Color color, String parentId,
                                     String[] memberIds, boolean includeChats) throws Exception {
-        Form form = Form.form();
-        if (title != null)
-            form.add("title", title);
-        if (color != null)
-            form.add("color", color._value);
+        QuipFolder folder = new QuipFolder(_postToJsonObject(
+                _includeChatsUri("/folders/new", includeChats),
+                _createForm(title, color, parentId, memberIds)));
         if (parentId != null)
-            form.add("parent_id", parentId);
-        if (memberIds != null)
-            form.add("member_ids",
-                    String.join(",", memberIds));
-        return new QuipFolder(
-                _postToJsonObject(
-                        new URIBuilder(QuipAccess.ENDPOINT + "/folders/new")
-                                .addParameter("include_chats",
-                                        String.valueOf(includeChats))
-                                .build(),
-                        form));
+            _invalidateCache(_cacheKeys(parentId));
+        return folder;
+    }
+
+    public static CompletableFuture<QuipFolder> createAsync(String title, Color color, String parentId,
+                                                            String[] memberIds, boolean includeChats) {
+        URI uri;
+        try {
+            uri = _includeChatsUri("/folders/new", includeChats);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _postToJsonObjectAsync(uri, _createForm(title, color, parentId, memberIds))
+                .thenApply(json -> {
+                    if (parentId != null)
+                        _invalidateCache(_cacheKeys(parentId));
+                    return new QuipFolder(json);
+                });
     }
 
     public boolean update(String title, Color color, boolean includeChats)
             throws Exception {
-        Form form = Form.form().add("folder_id", getId());
-        if (title != null)
-            form.add("title", title);
-        if (color != null)
-            form.add("color", color._value);
         JsonObject object = _postToJsonObject(
-                new URIBuilder(QuipAccess.ENDPOINT + "/folders/update")
-                        .addParameter("include_chats",
-                                String.valueOf(includeChats))
-                        .build(),
-                form);
+                _includeChatsUri("/folders/update", includeChats),
+                _updateForm(title, color));
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
 
+    public CompletableFuture<Boolean> updateAsync(String title, Color color, boolean includeChats) {
+        URI uri;
+        try {
+            uri = _includeChatsUri("/folders/update", includeChats);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _postToJsonObjectAsync(uri, _updateForm(title, color))
+                .thenApply(this::_replaceIfPresent);
+    }
+
     // ============================================
     // Members
     // ============================================
@@ -226,14 +284,24 @@ public class QuipFolder extends QuipJsonObject {
     public boolean addMembers(String[] userIds) throws Exception {
         JsonObject object = _postToJsonObject(
                 QuipAccess.ENDPOINT + "/folders/add-members",
-                Form.form().add("folder_id", getId()).add("member_ids",
-                        String.join(",", userIds)));
+                _membersForm(userIds));
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
 
+    public CompletableFuture<Boolean> addMemberAsync(String userId) {
+        return addMembersAsync(new String[]{userId});
+    }
+
+    public CompletableFuture<Boolean> addMembersAsync(String[] userIds) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/folders/add-members",
+                _membersForm(userIds))
+                .thenApply(this::_replaceIfPresent);
+    }
+
     public boolean removeMember(String userId) throws Exception {
         return removeMembers(new String[]{userId});
     }
@@ -241,11 +309,90 @@ public class QuipFolder extends QuipJsonObject {
     public boolean removeMembers(String[] userIds) throws Exception {
         JsonObject object = _postToJsonObject(
                 QuipAccess.ENDPOINT + "/folders/remove-members",
-                Form.form().add("folder_id", getId()).add("member_ids",
-                        String.join(",", userIds)));
+                _membersForm(userIds));
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
-}
\ No newline at end of file
+
+    public CompletableFuture<Boolean> removeMemberAsync(String userId) {
+        return removeMembersAsync(new String[]{userId});
+    }
+
+    public CompletableFuture<Boolean> removeMembersAsync(String[] userIds) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/folders/remove-members",
+                _membersForm(userIds))
+                .thenApply(this::_replaceIfPresent);
+    }
+
+    // ============================================
+    // Private
+    // ============================================
+
+    // the children differ with include_chats, so each variant has an entry
+    static String[] _cacheKeys(String folderId) {
+        return new String[]{"folder:" + folderId, "folder:" + folderId + ":chats"};
+    }
+
+    private static Form _createForm(String title, Color color, String parentId,
+                                    String[] memberIds) {
+        Form form = Form.form();
+        if (title != null)
+            form.add("title", title);
+        if (color != null)
+            form.add("color", color._value);
+        if (parentId != null)
+            form.add("parent_id", parentId);
+        if (memberIds != null)
+            form.add("member_ids",
+                    String.join(",", memberIds));
+        return form;
+    }
+
+    private Form _updateForm(String title, Color color) {
+        Form form = Form.form().add("folder_id", getId());
+        if (title != null)
+            form.add("title", title);
+        if (color != null)
+            form.add("color", color._value);
+        return form;
+    }
+
+    private Form _membersForm(String[] userIds) {
+        return Form.form().add("folder_id", getId()).add("member_ids",
+                String.join(",", userIds));
+    }
+
+    private static URI _includeChatsUri(String path, boolean includeChats)
+            throws URISyntaxException {
+        return new URIBuilder(QuipAccess.ENDPOINT + path)
+                .addParameter("include_chats",
+                        String.valueOf(includeChats))
+                .build();
+    }
+
+    private static URI _folderUri(String folderId, boolean includeChats)
+            throws URISyntaxException {
+        return new URIBuilder(QuipAccess.ENDPOINT + "/folders/" + folderId)
+                .addParameter("include_chats",
+                        String.valueOf(includeChats))
+                .build();
+    }
+
+    private static URI _foldersUri(String[] folderIds, boolean includeChats)
+            throws URISyntaxException {
+        return new URIBuilder(QuipAccess.ENDPOINT + "/folders/")
+                .addParameter("ids", String.join(",", folderIds))
+                .addParameter("include_chats",
+                        String.valueOf(includeChats))
+                .build();
+    }
+
+    private static QuipFolder[] _toFolderArray(JsonObject json) {
+        return json.keySet().stream()
+                .map(id -> new QuipFolder(json.get(id).getAsJsonObject()))
+                .toArray(QuipFolder[]::new);
+    }
+}
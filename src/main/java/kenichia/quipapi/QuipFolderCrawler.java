@@ -0,0 +1,255 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Walks folder trees breadth first. Each level is fetched with the batch
+ * folders endpoint, whose chunks run concurrently through the rate limiter
+ * and retry policy of QuipClient. A folder reached again is not descended
+ * into twice: it is reported as shared when it has more than one parent, and
+ * as a cycle when it is an ancestor of the folder pointing at it. The threads
+ * found on a level can be fetched with the batch threads endpoint while the
+ * next level of folders is being fetched.
+ *
+ * <pre>
+ * QuipFolderCrawler.Summary summary = QuipFolderCrawler.builder().build()
+ *     .crawl(new String[] { user.getDesktopFolderId() },
+ *         (folderId, node) -&gt; index(folderId, node));
+ * </pre>
+ */
+public class QuipFolderCrawler {
+
+  private final boolean _includeChats;
+  private final int _maxDepth;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private boolean _includeChats = false;
+    private int _maxDepth = Integer.MAX_VALUE;
+
+    private Builder() {
+    }
+
+    public Builder setIncludeChats(boolean includeChats) {
+      _includeChats = includeChats;
+      return this;
+    }
+
+    /**
+     * @param maxDepth - levels below the roots to descend into, 0 for the
+     *                 roots only.
+     */
+    public Builder setMaxDepth(int maxDepth) {
+      if (maxDepth < 0)
+        throw new IllegalArgumentException("maxDepth must not be negative.");
+      _maxDepth = maxDepth;
+      return this;
+    }
+
+    public QuipFolderCrawler build() {
+      return new QuipFolderCrawler(this);
+    }
+  }
+
+  // ============================================
+  // Summary
+  // ============================================
+
+  public static class Summary {
+    private final Set<String> _folderIds = new LinkedHashSet<>();
+    private final Set<String> _threadIds = new LinkedHashSet<>();
+    private final Set<String> _sharedFolderIds = new LinkedHashSet<>();
+    private final Set<String> _cycleFolderIds = new LinkedHashSet<>();
+    private final Map<String, Exception> _failures = new LinkedHashMap<>();
+
+    private Summary() {
+    }
+
+    /**
+     * @return - every folder reached, in the order it was found.
+     */
+    public Set<String> getFolderIds() {
+      return Collections.unmodifiableSet(_folderIds);
+    }
+
+    /**
+     * @return - every thread found in the folders, without duplicates.
+     */
+    public Set<String> getThreadIds() {
+      return Collections.unmodifiableSet(_threadIds);
+    }
+
+    /**
+     * @return - folders reached from more than one parent.
+     */
+    public Set<String> getSharedFolderIds() {
+      return Collections.unmodifiableSet(_sharedFolderIds);
+    }
+
+    /**
+     * @return - folders reached again from one of their own descendants.
+     */
+    public Set<String> getCycleFolderIds() {
+      return Collections.unmodifiableSet(_cycleFolderIds);
+    }
+
+    /**
+     * @return - folders and threads that could not be fetched.
+     */
+    public Map<String, Exception> getFailures() {
+      return Collections.unmodifiableMap(_failures);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipFolderCrawler(Builder builder) {
+    _includeChats = builder._includeChats;
+    _maxDepth = builder._maxDepth;
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param rootFolderIds - folders to start from.
+   * @param nodes         - receives every child of every folder visited,
+   *                      with the id of the folder holding it. A shared
+   *                      folder is reported under each of its parents.
+   */
+  public Summary crawl(String[] rootFolderIds,
+      BiConsumer<String, QuipFolder.Node> nodes) throws Exception {
+    return crawl(rootFolderIds, nodes, null);
+  }
+
+  /**
+   * @param threads - receives each thread found once, fetched in bulk. Null
+   *                to skip fetching the threads.
+   */
+  public Summary crawl(String[] rootFolderIds,
+      BiConsumer<String, QuipFolder.Node> nodes, Consumer<QuipThread> threads)
+      throws Exception {
+    Objects.requireNonNull(rootFolderIds);
+    Objects.requireNonNull(nodes);
+    Summary summary = new Summary();
+    // first parent of each folder, to tell cycles from shared folders
+    Map<String, String> parents = new HashMap<>();
+    List<String> level = new ArrayList<>();
+    for (String id : rootFolderIds)
+      if (summary._folderIds.add(id))
+        level.add(id);
+
+    QuipBatchResult<QuipFolder> folders = _fetchFolders(level);
+    for (int depth = 0; folders != null; depth++) {
+      List<String> nextLevel = new ArrayList<>();
+      List<String> levelThreads = new ArrayList<>();
+      for (String folderId : folders.getIds()) {
+        QuipFolder folder = folders.get(folderId);
+        if (folder == null) {
+          summary._failures.put(folderId, folders.getFailures().get(folderId));
+          continue;
+        }
+        for (QuipFolder.Node node : folder.getChildren()) {
+          nodes.accept(folderId, node);
+          String childId = node.getId();
+          if (!node.isFolder()) {
+            if (summary._threadIds.add(childId))
+              levelThreads.add(childId);
+          } else if (summary._folderIds.add(childId)) {
+            parents.put(childId, folderId);
+            if (depth < _maxDepth)
+              nextLevel.add(childId);
+          } else if (_isAncestor(childId, folderId, parents)) {
+            summary._cycleFolderIds.add(childId);
+          } else {
+            summary._sharedFolderIds.add(childId);
+          }
+        }
+      }
+
+      // the threads of this level are fetched along with the next level
+      List<Callable<Object>> calls = new ArrayList<>();
+      calls.add(() -> nextLevel.isEmpty() ? null : _fetchFolders(nextLevel));
+      if (threads != null && !levelThreads.isEmpty())
+        calls.add(() -> QuipThread
+            .getThreadsBatch(levelThreads.toArray(new String[0])));
+      List<Object> results = QuipClient.invokeAll(calls);
+      if (calls.size() > 1)
+        _deliver(summary, threads, _castThreads(results.get(1)));
+      folders = _castFolders(results.get(0));
+    }
+    return summary;
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private QuipBatchResult<QuipFolder> _fetchFolders(List<String> ids)
+      throws Exception {
+    return QuipFolder.getFoldersBatch(ids.toArray(new String[0]),
+        _includeChats);
+  }
+
+  private static boolean _isAncestor(String folderId, String of,
+      Map<String, String> parents) {
+    for (String id = of; id != null; id = parents.get(id))
+      if (id.equals(folderId))
+        return true;
+    return false;
+  }
+
+  private static void _deliver(Summary summary, Consumer<QuipThread> threads,
+      QuipBatchResult<QuipThread> batch) {
+    for (QuipThread thread : batch.getResults())
+      if (thread != null)
+        threads.accept(thread);
+    summary._failures.putAll(batch.getFailures());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static QuipBatchResult<QuipFolder> _castFolders(Object result) {
+    return (QuipBatchResult<QuipFolder>) result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static QuipBatchResult<QuipThread> _castThreads(Object result) {
+    return (QuipBatchResult<QuipThread>) result;
+  }
+}
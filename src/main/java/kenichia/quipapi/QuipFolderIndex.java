@@ -0,0 +1,403 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Keeps the folder tree below a set of root folders in a local file, so that
+ * questions such as "which threads are under this folder, transitively" are
+ * answered without going to the network. Queries never block on a refresh;
+ * they see the tree as of the last completed one.
+ *
+ * <p>{@link #refresh(String...)} is a full re-crawl: it fetches every folder
+ * of the tree again, level by level with the batch folders endpoint. The
+ * updated_usec of a folder does not cover its subfolders, so an unchanged
+ * parent says nothing about the subtree below it. updated_usec only decides
+ * whether the children of a folder are rebuilt and counted as changed.
+ *
+ * <p>Folders no longer reachable from a root are dropped, and so are folders
+ * the server reports as gone: 403, 404, or missing from the response. A
+ * folder that fails for any other reason, such as a network error, keeps
+ * the children it had.
+ *
+ * <pre>
+ * QuipFolderIndex index = new QuipFolderIndex(Paths.get("folders.index"));
+ * index.refresh(user.getDesktopFolderId());
+ * Set&lt;String&gt; threadIds = index.getThreadIds(folderId);
+ * </pre>
+ */
+public class QuipFolderIndex {
+
+  private static final int MAGIC = 0x51464931; // "QFI1"
+  private static final long UNKNOWN = Long.MIN_VALUE;
+
+  private final Path _path;
+  private final ReentrantLock _lock = new ReentrantLock();
+  private volatile Graph _graph = new Graph(new LinkedHashSet<>(),
+      new HashMap<>());
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  /**
+   * @param path - file holding the index. It is read if it exists, and
+   *             written after each refresh.
+   */
+  public QuipFolderIndex(Path path) throws IOException {
+    Objects.requireNonNull(path);
+    _path = path;
+    if (Files.exists(path))
+      _graph = _load(path);
+  }
+
+  // ============================================
+  // Refresh
+  // ============================================
+
+  /**
+   * Adds the folders to the roots of the index and refreshes it.
+   *
+   * @return - number of folders that were added or whose children changed.
+   */
+  public int refresh(String... rootFolderIds) throws Exception {
+    Objects.requireNonNull(rootFolderIds);
+    _lock.lock();
+    try {
+      Set<String> roots = new LinkedHashSet<>(_graph._roots);
+      Collections.addAll(roots, rootFolderIds);
+      return _refresh(roots);
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the folder from the roots of the index. Its tree is dropped
+   * unless it is also reachable from another root.
+   */
+  public void removeRoot(String rootFolderId) throws Exception {
+    _lock.lock();
+    try {
+      Set<String> roots = new LinkedHashSet<>(_graph._roots);
+      if (roots.remove(rootFolderId)) {
+        Map<String, Entry> folders = new HashMap<>(_graph._folders);
+        folders.keySet().retainAll(_reachable(roots, folders));
+        _commit(new Graph(roots, folders));
+      }
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  // ============================================
+  // Queries
+  // ============================================
+
+  public Set<String> getRootFolderIds() {
+    return Collections.unmodifiableSet(_graph._roots);
+  }
+
+  public boolean containsFolder(String folderId) {
+    return _graph._folders.containsKey(folderId);
+  }
+
+  public boolean containsThread(String threadId) {
+    return _graph._threadParents.containsKey(threadId);
+  }
+
+  /**
+   * @return - updated_usec of the folder as of the last refresh, or null.
+   */
+  public Instant getUpdatedUsec(String folderId) {
+    Entry entry = _graph._folders.get(folderId);
+    if (entry == null || entry._updatedUsec == UNKNOWN)
+      return null;
+    return Instant.EPOCH.plus(entry._updatedUsec, ChronoUnit.MICROS);
+  }
+
+  /**
+   * @return - the direct subfolders, or an empty set for an unknown folder.
+   */
+  public Set<String> getChildFolderIds(String folderId) {
+    Entry entry = _graph._folders.get(folderId);
+    return (entry == null) ? Collections.emptySet()
+        : new LinkedHashSet<>(List.of(entry._folderIds));
+  }
+
+  /**
+   * @return - the threads directly in the folder, or an empty set for an
+   * unknown folder.
+   */
+  public Set<String> getChildThreadIds(String folderId) {
+    Entry entry = _graph._folders.get(folderId);
+    return (entry == null) ? Collections.emptySet()
+        : new LinkedHashSet<>(List.of(entry._threadIds));
+  }
+
+  /**
+   * @return - every folder below the folder, transitively, without the
+   * folder itself.
+   */
+  public Set<String> getFolderIds(String folderId) {
+    Set<String> folderIds = new LinkedHashSet<>();
+    _walk(_graph._folders, folderId, folderIds, null);
+    folderIds.remove(folderId);
+    return folderIds;
+  }
+
+  /**
+   * @return - every thread in the folder or below it, transitively.
+   */
+  public Set<String> getThreadIds(String folderId) {
+    Set<String> threadIds = new LinkedHashSet<>();
+    _walk(_graph._folders, folderId, new LinkedHashSet<>(), threadIds);
+    return threadIds;
+  }
+
+  /**
+   * @return - the folders directly holding the folder or thread.
+   */
+  public Set<String> getParentFolderIds(String folderOrThreadId) {
+    Set<String> parents = _graph._folderParents.get(folderOrThreadId);
+    if (parents == null)
+      parents = _graph._threadParents.get(folderOrThreadId);
+    return (parents == null) ? Collections.emptySet()
+        : Collections.unmodifiableSet(parents);
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private int _refresh(Set<String> roots) throws Exception {
+    Map<String, Entry> previous = _graph._folders;
+    Map<String, Entry> folders = new HashMap<>();
+    int changed = 0;
+    List<String> level = new ArrayList<>(roots);
+    Set<String> seen = new LinkedHashSet<>(roots);
+    while (!level.isEmpty()) {
+      QuipBatchResult<QuipFolder> batch = QuipFolder
+          .getFoldersBatch(level.toArray(new String[0]), false);
+      List<String> nextLevel = new ArrayList<>();
+      for (String folderId : level) {
+        QuipFolder folder = batch.get(folderId);
+        Entry old = previous.get(folderId);
+        Entry entry;
+        if (folder == null) {
+          // keep what we knew unless the folder is gone for good, it may be
+          // briefly unavailable
+          if (old == null || _isGone(batch.getFailure(folderId)))
+            continue;
+          entry = old;
+        } else {
+          long updatedUsec = _toUsec(folder.getUpdatedUsec());
+          if (old != null && old._updatedUsec != UNKNOWN
+              && old._updatedUsec == updatedUsec) {
+            entry = old;
+          } else {
+            entry = _toEntry(folder, updatedUsec);
+            if (old == null || !old._hasSameChildren(entry))
+              changed++;
+          }
+        }
+        folders.put(folderId, entry);
+        for (String childId : entry._folderIds)
+          if (seen.add(childId))
+            nextLevel.add(childId);
+      }
+      level = nextLevel;
+    }
+    _commit(new Graph(roots, folders));
+    return changed;
+  }
+
+  private static boolean _isGone(Exception failure) {
+    if (failure instanceof NoSuchElementException)
+      return true;
+    if (!(failure instanceof HttpResponseException))
+      return false;
+    int statusCode = ((HttpResponseException) failure).getStatusCode();
+    return statusCode == HttpStatus.SC_FORBIDDEN
+        || statusCode == HttpStatus.SC_NOT_FOUND;
+  }
+
+  private static Entry _toEntry(QuipFolder folder, long updatedUsec) {
+    List<String> folderIds = new ArrayList<>();
+    List<String> threadIds = new ArrayList<>();
+    for (QuipFolder.Node node : folder.getChildren())
+      (node.isFolder() ? folderIds : threadIds).add(node.getId());
+    return new Entry(updatedUsec, folderIds.toArray(new String[0]),
+        threadIds.toArray(new String[0]));
+  }
+
+  private static long _toUsec(Instant instant) {
+    return (instant == null) ? UNKNOWN
+        : ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+  }
+
+  private static Set<String> _reachable(Set<String> roots,
+      Map<String, Entry> folders) {
+    Set<String> reachable = new LinkedHashSet<>();
+    for (String root : roots)
+      _walk(folders, root, reachable, null);
+    return reachable;
+  }
+
+  // breadth first, each folder once, so cycles end the walk
+  private static void _walk(Map<String, Entry> folders, String folderId,
+      Set<String> folderIds, Set<String> threadIds) {
+    Deque<String> queue = new ArrayDeque<>();
+    if (folders.containsKey(folderId) && folderIds.add(folderId))
+      queue.add(folderId);
+    while (!queue.isEmpty()) {
+      Entry entry = folders.get(queue.poll());
+      if (threadIds != null)
+        Collections.addAll(threadIds, entry._threadIds);
+      for (String childId : entry._folderIds)
+        if (folders.containsKey(childId) && folderIds.add(childId))
+          queue.add(childId);
+    }
+  }
+
+  private void _commit(Graph graph) throws IOException {
+    _save(graph);
+    _graph = graph;
+  }
+
+  private void _save(Graph graph) throws IOException {
+    // write aside and rename, so a crash never leaves half a file
+    Path temp = _path.resolveSibling(_path.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(graph._roots.size());
+      for (String root : graph._roots)
+        out.writeUTF(root);
+      out.writeInt(graph._folders.size());
+      for (Map.Entry<String, Entry> folder : graph._folders.entrySet()) {
+        Entry entry = folder.getValue();
+        out.writeUTF(folder.getKey());
+        out.writeLong(entry._updatedUsec);
+        _writeIds(out, entry._folderIds);
+        _writeIds(out, entry._threadIds);
+      }
+    }
+    Files.move(temp, _path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Graph _load(Path path) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC)
+        throw new IOException("Not a folder index: " + path);
+      Set<String> roots = new LinkedHashSet<>();
+      for (int i = in.readInt(); i > 0; i--)
+        roots.add(in.readUTF());
+      Map<String, Entry> folders = new HashMap<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        String folderId = in.readUTF();
+        long updatedUsec = in.readLong();
+        folders.put(folderId,
+            new Entry(updatedUsec, _readIds(in), _readIds(in)));
+      }
+      return new Graph(roots, folders);
+    }
+  }
+
+  private static void _writeIds(DataOutputStream out, String[] ids)
+      throws IOException {
+    out.writeInt(ids.length);
+    for (String id : ids)
+      out.writeUTF(id);
+  }
+
+  private static String[] _readIds(DataInputStream in) throws IOException {
+    String[] ids = new String[in.readInt()];
+    for (int i = 0; i < ids.length; i++)
+      ids[i] = in.readUTF();
+    return ids;
+  }
+
+  // ============================================
+  // Graph
+  // ============================================
+
+  // immutable once built, replaced as a whole after each refresh
+  private static class Graph {
+    private final Set<String> _roots;
+    private final Map<String, Entry> _folders;
+    private final Map<String, Set<String>> _folderParents = new HashMap<>();
+    private final Map<String, Set<String>> _threadParents = new HashMap<>();
+
+    Graph(Set<String> roots, Map<String, Entry> folders) {
+      _roots = roots;
+      _folders = folders;
+      for (Map.Entry<String, Entry> folder : folders.entrySet()) {
+        for (String childId : folder.getValue()._folderIds)
+          _folderParents.computeIfAbsent(childId, k -> new LinkedHashSet<>())
+              .add(folder.getKey());
+        for (String threadId : folder.getValue()._threadIds)
+          _threadParents.computeIfAbsent(threadId, k -> new LinkedHashSet<>())
+              .add(folder.getKey());
+      }
+    }
+  }
+
+  private static class Entry {
+    private final long _updatedUsec;
+    private final String[] _folderIds;
+    private final String[] _threadIds;
+
+    Entry(long updatedUsec, String[] folderIds, String[] threadIds) {
+      _updatedUsec = updatedUsec;
+      _folderIds = folderIds;
+      _threadIds = threadIds;
+    }
+
+    boolean _hasSameChildren(Entry other) {
+      return Arrays.equals(_folderIds, other._folderIds)
+          && Arrays.equals(_threadIds, other._threadIds);
+    }
+  }
+}
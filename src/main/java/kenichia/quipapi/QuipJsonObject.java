@@ -19,13 +19,16 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.stream.StreamSupport;
 
 class QuipJsonObject extends QuipAccess {
 
   private JsonObject _jsonObject;
+  private final Validators _validators = new Validators();
 
   // ============================================
   // Constructor
@@ -36,6 +39,15 @@ class QuipJsonObject extends QuipAccess {
     _jsonObject = object;
   }
 
+  /**
+   * Keeps the ETag and Last-Modified of the response, so that the first
+   * reload can already be conditional.
+   */
+  protected QuipJsonObject(Fetched fetched) {
+    this(fetched._json);
+    _validators._update(fetched);
+  }
+
   // ============================================
   // Public
   // ============================================
@@ -52,6 +64,82 @@ class QuipJsonObject extends QuipAccess {
   protected void _replace(JsonObject object) {
     Objects.requireNonNull(object);
     _jsonObject = object;
+    _invalidateCache();
+  }
+
+  /**
+   * @return - path to the member that changes whenever the object does, such
+   * as updated_usec, or null if there is none.
+   */
+  protected String[] _versionPath() {
+    return null;
+  }
+
+  /**
+   * Reloads the object from the uri unless the server reports it unchanged,
+   * see {@link QuipAccess#_getToJsonObjectIfModified}.
+   *
+   * @return - false if the server answered with an error object.
+   */
+  protected boolean _reloadIfModified(String uri) throws IOException {
+    JsonObject current = _jsonObject;
+    JsonObject object = _getToJsonObjectIfModified(uri, _validators,
+        _versionPath(), current);
+    if (object == null)
+      return false;
+    if (object != current)
+      _replace(object);
+    return true;
+  }
+
+  /**
+   * @return - keys of the cache entries that hold this object, or null if it
+   * is never cached.
+   */
+  protected String[] _cacheKeys() {
+    return null;
+  }
+
+  protected void _invalidateCache() {
+    String[] keys = _cacheKeys();
+    if (keys != null)
+      _invalidateCache(keys);
+  }
+
+  protected static void _invalidateCache(String... keys) {
+    QuipCache cache = QuipClient._getCache();
+    if (cache != null)
+      cache._invalidate(keys);
+  }
+
+  /**
+   * Serves the response from the cache when one is set, otherwise loads it
+   * and caches the result under the current access token. A load that races
+   * an invalidation of the key is returned but not cached.
+   */
+  protected static Fetched _getCached(String key, Callable<Fetched> loader)
+      throws Exception {
+    QuipCache cache = QuipClient._getCache();
+    if (cache == null)
+      return loader.call();
+    String token = QuipClient._getBearerToken();
+    Fetched fetched = cache._get(key, token);
+    if (fetched != null)
+      return fetched;
+    long generation = cache._beginLoad(key);
+    try {
+      fetched = loader.call();
+      return fetched;
+    } finally {
+      cache._put(key, token, generation, fetched);
+    }
+  }
+
+  protected boolean _replaceIfPresent(JsonObject object) {
+    if (object == null)
+      return false;
+    _replace(object);
+    return true;
   }
 
   protected String _getString(String key) {
@@ -139,7 +227,10 @@ class QuipJsonObject extends QuipAccess {
   }
 
   private Instant _toInstant(JsonObject object, String key) {
-    long usec = object.get(key).getAsLong();
+    JsonElement element = object.get(key);
+    if (element == null || element.isJsonNull())
+      return null;
+    long usec = element.getAsLong();
     return Instant.ofEpochSecond(usec / 1000000, (usec % 1000000) * 1000);
   }
 }
\ No newline at end of file
@@ -21,11 +21,15 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.message.BasicNameValuePair;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.StreamSupport;
 
 public class QuipMessage extends QuipJsonObject {
@@ -149,6 +153,54 @@ public class QuipMessage extends QuipJsonObject {
   public static QuipMessage[] getRecentMessages(String threadId, Integer count, Instant maxCreatedUsec, Instant updatedSinceUsec,
                                                 Instant lastUpdatedSinceUsec, QuipThread.SortedBy sortedBy,
                                                 QuipThread.MessageType messageType) throws Exception {
+    JsonArray arr = _getToJsonArray(_recentMessagesUri(threadId, count,
+        maxCreatedUsec, updatedSinceUsec, lastUpdatedSinceUsec, sortedBy,
+        messageType));
+    return _toMessageArray(arr);
+  }
+
+  /**
+   * Streaming version of
+   * {@link #getRecentMessages(String, Integer, Instant, Instant, Instant, QuipThread.SortedBy, QuipThread.MessageType)}.
+   * Each message is passed to the consumer as soon as it has been read from
+   * the response.
+   */
+  public static void getRecentMessages(String threadId, Integer count,
+      Instant maxCreatedUsec, Instant updatedSinceUsec,
+      Instant lastUpdatedSinceUsec, QuipThread.SortedBy sortedBy,
+      QuipThread.MessageType messageType, Consumer<QuipMessage> consumer)
+      throws Exception {
+    _getToJsonArrayElements(_recentMessagesUri(threadId, count,
+        maxCreatedUsec, updatedSinceUsec, lastUpdatedSinceUsec, sortedBy,
+        messageType), json -> consumer.accept(new QuipMessage(json)));
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #getRecentMessages(String, Integer, Instant, Instant, Instant, QuipThread.SortedBy, QuipThread.MessageType)}.
+   */
+  public static CompletableFuture<QuipMessage[]> getRecentMessagesAsync(
+      String threadId, Integer count, Instant maxCreatedUsec,
+      Instant updatedSinceUsec, Instant lastUpdatedSinceUsec,
+      QuipThread.SortedBy sortedBy, QuipThread.MessageType messageType) {
+    URI uri;
+    try {
+      uri = _recentMessagesUri(threadId, count, maxCreatedUsec,
+          updatedSinceUsec, lastUpdatedSinceUsec, sortedBy, messageType);
+    } catch (URISyntaxException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return _getToJsonArrayAsync(uri).thenApply(QuipMessage::_toMessageArray);
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static URI _recentMessagesUri(String threadId, Integer count,
+      Instant maxCreatedUsec, Instant updatedSinceUsec,
+      Instant lastUpdatedSinceUsec, QuipThread.SortedBy sortedBy,
+      QuipThread.MessageType messageType) throws URISyntaxException {
     List<NameValuePair> params = new ArrayList<>();
     if (Objects.nonNull(count)) {
       params.add(new BasicNameValuePair("count", String.valueOf(count)));
@@ -179,11 +231,13 @@ public class QuipMessage extends QuipJsonObject {
     if (messageType != null) {
       params.add(new BasicNameValuePair("message_type", messageType.name().toLowerCase()));
     }
-    JsonArray arr = _getToJsonArray(
-            new URIBuilder(QuipAccess.ENDPOINT + "/messages/" + threadId)
-                    .addParameters(params).build());
+    return new URIBuilder(QuipAccess.ENDPOINT + "/messages/" + threadId)
+        .addParameters(params).build();
+  }
+
+  private static QuipMessage[] _toMessageArray(JsonArray arr) {
     return StreamSupport.stream(arr.spliterator(), false)
             .map(obj -> new QuipMessage(obj.getAsJsonObject()))
             .toArray(QuipMessage[]::new);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Pulls only the messages of a thread that were created or edited since the
+ * previous run. For every thread the updated_usec of the newest message seen
+ * so far (the high-water mark) is kept in a properties file, and each run
+ * pages forward from it in ascending order with updated_since_usec. The mark
+ * is saved after each page has been handed to the consumer, so a failed run
+ * repeats at most one page.
+ *
+ * <p>The API pages by timestamp only. When more than a page of messages share
+ * one updated_usec, the run steps 1 microsecond past it, and the messages
+ * beyond the first page at that timestamp are never delivered. Each such step
+ * is printed as a warning and counted by {@link #getSkippedTimestampCount()};
+ * a larger page size avoids it.
+ *
+ * <pre>
+ * QuipMessageSync sync = new QuipMessageSync(Paths.get("message-sync.properties"));
+ * sync.sync(threadId, message -&gt; index(message));
+ * </pre>
+ */
+public class QuipMessageSync {
+
+  private static final Comparator<QuipMessage> OLDEST_FIRST = Comparator
+      .comparing(QuipMessageSync::_updatedUsec);
+
+  private final Path _path;
+  private final int _pageSize;
+  private final ReentrantLock _lock = new ReentrantLock();
+  private final Properties _marks = new Properties();
+  private final AtomicLong _skippedTimestamps = new AtomicLong();
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  public QuipMessageSync(Path path) throws IOException {
+    this(path, 100);
+  }
+
+  /**
+   * @param path     - properties file for the marks. It is created on the
+   *                 first save.
+   * @param pageSize - number of messages to fetch per request.
+   */
+  public QuipMessageSync(Path path, int pageSize) throws IOException {
+    Objects.requireNonNull(path);
+    if (pageSize <= 0)
+      throw new IllegalArgumentException("pageSize must be positive.");
+    _path = path;
+    _pageSize = pageSize;
+    if (Files.exists(path)) {
+      try (InputStream in = Files.newInputStream(path)) {
+        _marks.load(in);
+      }
+    }
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  /**
+   * Hands every message created or edited since the previous run to the
+   * consumer, oldest first. The first run for a thread returns its whole
+   * history.
+   *
+   * @param threadId - thread to sync.
+   * @param consumer - receives each new or changed message once.
+   * @return - number of messages handed to the consumer.
+   */
+  public long sync(String threadId, Consumer<QuipMessage> consumer)
+      throws Exception {
+    Objects.requireNonNull(threadId);
+    Objects.requireNonNull(consumer);
+    Mark mark = _getMark(threadId);
+    long count = 0;
+    while (true) {
+      QuipMessage[] page = QuipMessage.getRecentMessages(threadId, _pageSize,
+          null, mark._updatedUsec, null, QuipThread.SortedBy.ASC, null);
+      if (page.length == 0)
+        break;
+      Arrays.sort(page, OLDEST_FIRST);
+      boolean isFresh = false;
+      for (QuipMessage message : page) {
+        // updated_since_usec is inclusive, so the mark comes back again
+        if (_updatedUsec(message).equals(mark._updatedUsec)
+            && mark._ids.contains(message.getId()))
+          continue;
+        consumer.accept(message);
+        isFresh = true;
+        count++;
+      }
+
+      Instant newest = _updatedUsec(page[page.length - 1]);
+      Set<String> ids = newest.equals(mark._updatedUsec)
+          ? mark._ids
+          : new LinkedHashSet<>();
+      for (QuipMessage message : page) {
+        if (_updatedUsec(message).equals(newest))
+          ids.add(message.getId());
+      }
+      if (!isFresh && page.length >= _pageSize) {
+        // more than a page of messages share one timestamp, step past it
+        _skippedTimestamps.incrementAndGet();
+        System.out.println("Warning> More than " + _pageSize
+            + " messages of " + threadId + " share updated_usec " + newest
+            + ", the rest of them are skipped");
+        mark = new Mark(newest.plus(1, ChronoUnit.MICROS),
+            new LinkedHashSet<>());
+      } else {
+        mark = new Mark(newest, ids);
+      }
+      _saveMark(threadId, mark);
+      if (page.length < _pageSize)
+        break;
+    }
+    return count;
+  }
+
+  /**
+   * @return - updated_usec of the newest message synced for the thread, or
+   * null if the thread has never been synced.
+   */
+  public Instant getHighWaterMark(String threadId) {
+    Mark mark = _getMark(threadId);
+    return Instant.EPOCH.equals(mark._updatedUsec) ? null : mark._updatedUsec;
+  }
+
+  /**
+   * @return - number of times a sync stepped past a timestamp shared by more
+   * than a page of messages, leaving some of them undelivered.
+   */
+  public long getSkippedTimestampCount() {
+    return _skippedTimestamps.get();
+  }
+
+  /**
+   * Forgets the mark of the thread, so that the next sync returns its whole
+   * history again.
+   */
+  public void reset(String threadId) throws IOException {
+    _lock.lock();
+    try {
+      _marks.remove(threadId);
+      _save();
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static Instant _updatedUsec(QuipMessage message) {
+    Instant updatedUsec = message.getUpdatedUsec();
+    if (updatedUsec == null)
+      updatedUsec = message.getCreatedUsec();
+    return (updatedUsec == null) ? Instant.EPOCH : updatedUsec;
+  }
+
+  // saved as "<updated_usec>:<id>,<id>"
+  private Mark _getMark(String threadId) {
+    String value;
+    _lock.lock();
+    try {
+      value = _marks.getProperty(threadId);
+    } finally {
+      _lock.unlock();
+    }
+    Set<String> ids = new LinkedHashSet<>();
+    if (value == null)
+      return new Mark(Instant.EPOCH, ids);
+    int colon = value.indexOf(':');
+    long usec = Long.parseLong(value.substring(0, colon));
+    for (String id : value.substring(colon + 1).split(","))
+      if (!id.isEmpty())
+        ids.add(id);
+    return new Mark(Instant.EPOCH.plus(usec, ChronoUnit.MICROS), ids);
+  }
+
+  private void _saveMark(String threadId, Mark mark) throws IOException {
+    _lock.lock();
+    try {
+      _marks.setProperty(threadId,
+          ChronoUnit.MICROS.between(Instant.EPOCH, mark._updatedUsec) + ":"
+              + String.join(",", mark._ids));
+      _save();
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  private void _save() throws IOException {
+    // write aside and rename, so a crash never leaves half a file
+    Path temp = _path.resolveSibling(_path.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(temp)) {
+      _marks.store(out, null);
+    }
+    Files.move(temp, _path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static class Mark {
+    private final Instant _updatedUsec;
+    // messages already synced that have exactly this updated_usec
+    private final Set<String> _ids;
+
+    Mark(Instant updatedUsec, Set<String> ids) {
+      _updatedUsec = updatedUsec;
+      _ids = ids;
+    }
+  }
+}
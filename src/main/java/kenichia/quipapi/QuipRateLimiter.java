@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side rate limiter that keeps requests under the budgets announced by
+ * the X-Ratelimit-* and X-Company-RateLimit-* response headers.
+ * <p>
+ * There is one bucket per access token and one for the company, shared by
+ * every thread. Each response refills the buckets from the remaining budget
+ * and the Reset timestamp, and the budget is handed out evenly until the
+ * reset instead of in a burst. After a 429 or 503 every thread waits for the
+ * Retry-After period. Before any header has been seen, requests are not
+ * limited.
+ *
+ * <pre>
+ * QuipClient.setRateLimiter(new QuipRateLimiter());
+ * </pre>
+ */
+public class QuipRateLimiter {
+
+  private final Map<String, Bucket> _userBuckets = new ConcurrentHashMap<>();
+  private final double _burstFraction;
+  private final long _defaultWindowMillis;
+  private final Bucket _companyBucket;
+  private final AtomicLong _delayedRequests = new AtomicLong();
+  private final AtomicLong _delayedMillis = new AtomicLong();
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  public QuipRateLimiter() {
+    this(0.1, Duration.ofMinutes(1));
+  }
+
+  /**
+   * @param burstFraction - fraction of the limit that may be sent at once
+   *                      without spacing, from 0.0 to 1.0.
+   * @param window        - length of a rate limit window, used until two
+   *                      different Reset timestamps have been observed.
+   */
+  public QuipRateLimiter(double burstFraction, Duration window) {
+    if (burstFraction < 0.0 || burstFraction > 1.0)
+      throw new IllegalArgumentException(
+          "burstFraction must be between 0.0 and 1.0.");
+    if (window.isNegative() || window.isZero())
+      throw new IllegalArgumentException("window must be positive.");
+    _burstFraction = burstFraction;
+    _defaultWindowMillis = window.toMillis();
+    _companyBucket = new Bucket();
+  }
+
+  // ============================================
+  // Statistics
+  // ============================================
+
+  /**
+   * @return - number of requests that were held back by this limiter.
+   */
+  public long getDelayedRequests() {
+    return _delayedRequests.get();
+  }
+
+  /**
+   * @return - total time in milliseconds the requests were held back.
+   */
+  public long getDelayedMillis() {
+    return _delayedMillis.get();
+  }
+
+  // ============================================
+  // Package private
+  // ============================================
+
+  /**
+   * Blocks until a request may be sent with the access token.
+   */
+  void _acquire(String accessToken) throws InterruptedIOException {
+    long wait = _reserve(accessToken);
+    if (wait <= 0)
+      return;
+    try {
+      Thread.sleep(wait);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException ex = new InterruptedIOException(
+          "Interrupted while waiting for the rate limit");
+      ex.initCause(e);
+      throw ex;
+    }
+  }
+
+  /**
+   * Takes a token for a request and returns how long the caller has to wait
+   * before sending it. Asynchronous callers schedule the request instead of
+   * sleeping.
+   *
+   * @return - milliseconds to wait, 0 if the request may be sent now.
+   */
+  long _reserve(String accessToken) {
+    long now = System.currentTimeMillis();
+    long wait = Math.max(_userBucket(accessToken)._reserve(now),
+        _companyBucket._reserve(now));
+    if (wait > 0) {
+      _delayedRequests.incrementAndGet();
+      _delayedMillis.addAndGet(wait);
+    }
+    return wait;
+  }
+
+  void _update(String accessToken, int userLimit, int userRemaining,
+      long userResetSeconds, int companyLimit, int companyRemaining,
+      long companyResetSeconds) {
+    long now = System.currentTimeMillis();
+    _userBucket(accessToken)._update(userLimit, userRemaining,
+        userResetSeconds, now);
+    _companyBucket._update(companyLimit, companyRemaining,
+        companyResetSeconds, now);
+  }
+
+  /**
+   * Holds back every request of the access token after the server answered
+   * with 429 or 503.
+   */
+  void _pause(String accessToken, long userRetryAfterSeconds,
+      long companyRetryAfterSeconds) {
+    long now = System.currentTimeMillis();
+    if (userRetryAfterSeconds > 0)
+      _userBucket(accessToken)
+          ._pause(now + TimeUnit.SECONDS.toMillis(userRetryAfterSeconds));
+    if (companyRetryAfterSeconds > 0)
+      _companyBucket
+          ._pause(now + TimeUnit.SECONDS.toMillis(companyRetryAfterSeconds));
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private Bucket _userBucket(String accessToken) {
+    return _userBuckets.computeIfAbsent(String.valueOf(accessToken),
+        k -> new Bucket());
+  }
+
+  /**
+   * Hands out send times (slots) for one budget. Within a window the budget
+   * left is spread evenly over the time left, except for a small burst at
+   * the start of the window. Once the budget of a window is used up, slots
+   * move on to the next window.
+   */
+  private class Bucket {
+    private final ReentrantLock _lock = new ReentrantLock();
+    private int _limit = 0;
+    private int _budget = 0;
+    private long _resetAtMillis = 0L;
+    private long _serverResetAtMillis = 0L;
+    private long _windowMillis = _defaultWindowMillis;
+    private long _nextSlotMillis = 0L;
+
+    long _reserve(long now) {
+      _lock.lock();
+      try {
+        if (_limit <= 0)
+          return Math.max(0L, _nextSlotMillis - now);
+        long slot = Math.max(_nextSlotMillis, now);
+        if (slot >= _resetAtMillis || _budget <= 0) {
+          long windows = Math.max(0L, slot - _resetAtMillis) / _windowMillis;
+          slot = Math.max(slot, _resetAtMillis);
+          _resetAtMillis += (windows + 1) * _windowMillis;
+          _budget = _limit;
+        }
+        int burst = (int) Math.ceil(_limit * _burstFraction);
+        long spacing = (_limit - _budget < burst)
+            ? 0L
+            : (_resetAtMillis - slot) / _budget;
+        _budget--;
+        _nextSlotMillis = slot + spacing;
+        return slot - now;
+      } finally {
+        _lock.unlock();
+      }
+    }
+
+    void _update(int limit, int remaining, long resetSeconds, long now) {
+      if (limit <= 0 || resetSeconds <= 0)
+        return;
+      _lock.lock();
+      try {
+        long resetAtMillis = TimeUnit.SECONDS.toMillis(resetSeconds);
+        if (_serverResetAtMillis > 0 && resetAtMillis > _serverResetAtMillis)
+          _windowMillis = resetAtMillis - _serverResetAtMillis;
+        _serverResetAtMillis = resetAtMillis;
+        _limit = limit;
+        if (resetAtMillis == _resetAtMillis) {
+          // the server is authoritative, but requests still in flight are
+          // not counted in its remaining budget yet
+          _budget = Math.min(_budget, remaining);
+        } else if (resetAtMillis > _resetAtMillis) {
+          _resetAtMillis = resetAtMillis;
+          _budget = remaining;
+          _nextSlotMillis = Math.max(_nextSlotMillis, now);
+        }
+        // otherwise slots are already handed out for a later window
+      } finally {
+        _lock.unlock();
+      }
+    }
+
+    void _pause(long untilMillis) {
+      _lock.lock();
+      try {
+        _nextSlotMillis = Math.max(_nextSlotMillis, untilMillis);
+      } finally {
+        _lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Walks /threads/recent page by page, from the most recently updated thread
+ * back. Each page asks for threads updated at or before the oldest thread of
+ * the previous page, so threads sharing that timestamp come back again and
+ * are skipped. The next page is fetched in the background while the caller
+ * works through the current one, and only one page is held at a time.
+ *
+ * <p>When more than a page of threads share one updated_usec, the walk steps
+ * 1 microsecond past it, since the API cannot page within a timestamp. The
+ * threads beyond the first page at that timestamp are skipped, and a warning
+ * is printed for each such step.
+ */
+final class QuipRecentThreadIterator implements Iterator<QuipThread>,
+    AutoCloseable {
+
+  private static final Comparator<QuipThread> NEWEST_FIRST = Comparator
+      .comparing(QuipRecentThreadIterator::_updatedUsec).reversed();
+
+  private final int _pageSize;
+  private final boolean _includeHidden;
+  private Iterator<QuipThread> _page = Collections.emptyIterator();
+  private Future<QuipThread[]> _nextPage;
+  // oldest updated_usec seen so far and the threads seen with it
+  private Instant _boundary = null;
+  private Set<String> _boundaryIds = new HashSet<>();
+
+  QuipRecentThreadIterator(int pageSize, boolean includeHidden) {
+    if (pageSize <= 0)
+      throw new IllegalArgumentException("pageSize must be positive.");
+    _pageSize = pageSize;
+    _includeHidden = includeHidden;
+    _nextPage = _fetch(null);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!_page.hasNext()) {
+      if (_nextPage == null)
+        return false;
+      _advance(_await(_nextPage));
+    }
+    return true;
+  }
+
+  @Override
+  public QuipThread next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    return _page.next();
+  }
+
+  @Override
+  public void close() {
+    if (_nextPage != null)
+      _nextPage.cancel(true);
+    _nextPage = null;
+    _page = Collections.emptyIterator();
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private Future<QuipThread[]> _fetch(Instant maxUpdatedUsec) {
+    return QuipClient._submit(() -> QuipThread
+        .getRecentThreads(_pageSize, maxUpdatedUsec, _includeHidden));
+  }
+
+  private void _advance(QuipThread[] threads) {
+    _nextPage = null;
+    if (threads.length == 0) {
+      _page = Collections.emptyIterator();
+      return;
+    }
+    Arrays.sort(threads, NEWEST_FIRST);
+    List<QuipThread> fresh = new ArrayList<>(threads.length);
+    for (QuipThread thread : threads) {
+      if (!_updatedUsec(thread).equals(_boundary)
+          || !_boundaryIds.contains(thread.getId()))
+        fresh.add(thread);
+    }
+
+    Instant oldest = _updatedUsec(threads[threads.length - 1]);
+    if (!oldest.equals(_boundary))
+      _boundaryIds = new HashSet<>();
+    for (QuipThread thread : threads) {
+      if (_updatedUsec(thread).equals(oldest))
+        _boundaryIds.add(thread.getId());
+    }
+    _boundary = oldest;
+
+    if (threads.length >= _pageSize) {
+      // a full page with nothing new means more than a page of threads
+      // share one timestamp, step past it instead of asking again
+      if (fresh.isEmpty())
+        System.out.println("Warning> More than " + _pageSize
+            + " threads share updated_usec " + oldest
+            + ", the rest of them are skipped");
+      _nextPage = _fetch(fresh.isEmpty()
+          ? oldest.minus(1, ChronoUnit.MICROS)
+          : oldest);
+    }
+    _page = fresh.iterator();
+  }
+
+  private static Instant _updatedUsec(QuipThread thread) {
+    Instant updatedUsec = thread.getUpdatedUsec();
+    return (updatedUsec == null) ? Instant.EPOCH : updatedUsec;
+  }
+
+  private static QuipThread[] _await(Future<QuipThread[]> page) {
+    try {
+      return page.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      page.cancel(true);
+      throw new UncheckedIOException(
+          new InterruptedIOException("Interrupted while fetching threads"));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof IOException)
+        throw new UncheckedIOException((IOException) cause);
+      throw new CompletionException(cause);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a request answered with 429 or 503 is sent again.
+ * The wait grows exponentially with random jitter, but is never shorter than
+ * the Retry-After or X-Company-Retry-After period sent by the server. A
+ * request gives up when it runs out of retries or when the next wait would
+ * exceed the max elapsed time.
+ *
+ * <pre>
+ * QuipClient.setRetryPolicy(QuipRetryPolicy.builder()
+ *     .setMaxRetries(10).setMaxElapsedTime(Duration.ofSeconds(30)).build());
+ * </pre>
+ */
+public class QuipRetryPolicy {
+
+  private final int _maxRetries;
+  private final long _initialBackoffMillis;
+  private final long _maxBackoffMillis;
+  private final double _multiplier;
+  private final double _jitter;
+  private final long _maxElapsedMillis;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private int _maxRetries = 50;
+    private Duration _initialBackoff = Duration.ofMillis(500);
+    private Duration _maxBackoff = Duration.ofSeconds(30);
+    private double _multiplier = 2.0;
+    private double _jitter = 0.5;
+    private Duration _maxElapsedTime = Duration.ofMinutes(2);
+
+    private Builder() {
+    }
+
+    private Builder(QuipRetryPolicy policy) {
+      _maxRetries = policy._maxRetries;
+      _initialBackoff = Duration.ofMillis(policy._initialBackoffMillis);
+      _maxBackoff = Duration.ofMillis(policy._maxBackoffMillis);
+      _multiplier = policy._multiplier;
+      _jitter = policy._jitter;
+      _maxElapsedTime = Duration.ofMillis(policy._maxElapsedMillis);
+    }
+
+    /**
+     * @param maxRetries - number of retries after the first attempt. 0
+     *                   disables retrying.
+     */
+    public Builder setMaxRetries(int maxRetries) {
+      if (maxRetries < 0)
+        throw new IllegalArgumentException("maxRetries must not be negative.");
+      _maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * @param initialBackoff - wait before the first retry, before jitter.
+     */
+    public Builder setInitialBackoff(Duration initialBackoff) {
+      _initialBackoff = Objects.requireNonNull(initialBackoff);
+      return this;
+    }
+
+    /**
+     * @param maxBackoff - upper bound of the exponential wait. A longer
+     *                   Retry-After sent by the server is still honored.
+     */
+    public Builder setMaxBackoff(Duration maxBackoff) {
+      _maxBackoff = Objects.requireNonNull(maxBackoff);
+      return this;
+    }
+
+    public Builder setMultiplier(double multiplier) {
+      if (multiplier < 1.0)
+        throw new IllegalArgumentException("multiplier must be 1.0 or more.");
+      _multiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * @param jitter - fraction of each wait that is randomized, from 0.0 (no
+     *               jitter) to 1.0 (anything between 0 and the wait).
+     */
+    public Builder setJitter(double jitter) {
+      if (jitter < 0.0 || jitter > 1.0)
+        throw new IllegalArgumentException(
+            "jitter must be between 0.0 and 1.0.");
+      _jitter = jitter;
+      return this;
+    }
+
+    /**
+     * @param maxElapsedTime - total time a request may spend waiting for
+     *                       retries. The request fails with the last
+     *                       response when the next wait would exceed it.
+     */
+    public Builder setMaxElapsedTime(Duration maxElapsedTime) {
+      _maxElapsedTime = Objects.requireNonNull(maxElapsedTime);
+      return this;
+    }
+
+    public QuipRetryPolicy build() {
+      return new QuipRetryPolicy(this);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipRetryPolicy(Builder builder) {
+    _maxRetries = builder._maxRetries;
+    _initialBackoffMillis = builder._initialBackoff.toMillis();
+    _maxBackoffMillis = builder._maxBackoff.toMillis();
+    _multiplier = builder._multiplier;
+    _jitter = builder._jitter;
+    _maxElapsedMillis = builder._maxElapsedTime.toMillis();
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return - a builder initialized with the settings of this policy.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public int getMaxRetries() {
+    return _maxRetries;
+  }
+
+  // ============================================
+  // Package private
+  // ============================================
+
+  static boolean _isRetryable(int statusCode) {
+    return statusCode == 429 || statusCode == 503;
+  }
+
+  Attempt _newAttempt() {
+    return new Attempt();
+  }
+
+  /**
+   * Retry state of a single request. It is never shared between requests, so
+   * concurrent callers cannot reset or use up each other's retries.
+   */
+  class Attempt {
+    private final long _startMillis = System.currentTimeMillis();
+    private int _retryCount = 0;
+
+    int getRetryCount() {
+      return _retryCount;
+    }
+
+    /**
+     * @param retryAfterSeconds - longest of Retry-After and
+     *                          X-Company-Retry-After, 0 if absent.
+     * @return - milliseconds to wait before the next retry, or -1 to give up.
+     */
+    long nextBackoffMillis(long retryAfterSeconds) {
+      if (_retryCount >= _maxRetries)
+        return -1L;
+      double exponential = _initialBackoffMillis
+          * Math.pow(_multiplier, _retryCount);
+      long backoff = (long) Math.min(exponential, _maxBackoffMillis);
+      if (_jitter > 0.0 && backoff > 0)
+        backoff -= (long) (ThreadLocalRandom.current().nextDouble(_jitter)
+            * backoff);
+      backoff = Math.max(backoff, retryAfterSeconds * 1000L);
+      long elapsed = System.currentTimeMillis() - _startMillis;
+      if (elapsed + backoff > _maxElapsedMillis)
+        return -1L;
+      _retryCount++;
+      return backoff;
+    }
+  }
+}
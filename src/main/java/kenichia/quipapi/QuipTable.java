@@ -15,11 +15,21 @@
  */
 package kenichia.quipapi;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
 public class QuipTable {
 
   private final QuipThread _parentThread;
@@ -42,13 +52,53 @@ public class QuipTable {
   }
 
   public void refresh() {
-    Document document = Jsoup.parse(_parentThread.getHtml());
-    Elements elements = document.getElementsByAttributeValue("id", _id);
-    if (elements.size() > 0) {
-      _construct(this, elements.first());
+    Element element = _parentThread.getTableElementById_(_id);
+    if (element != null) {
+      _construct(this, element);
     }
   }
 
+  /**
+   * @return - a columnar copy of the table as it is in the thread now, or
+   * null if the table is gone.
+   */
+  public QuipTableSnapshot snapshot() {
+    Element element = _parentThread.getTableElementById_(_id);
+    if (element == null)
+      return null;
+    return QuipTableSnapshot._of(element);
+  }
+
+  /**
+   * Streams the table as CSV, header row first when there is one.
+   *
+   * @return - number of rows written, not counting the header.
+   */
+  public long exportAsCsv(Writer out) throws IOException {
+    return QuipTableExport._writeCsv(_element(), out);
+  }
+
+  /**
+   * @see #exportAsCsv(Writer)
+   */
+  public long exportAsTsv(Writer out) throws IOException {
+    return QuipTableExport._writeTsv(_element(), out);
+  }
+
+  /**
+   * Streams the table in the columnar format described on
+   * {@link QuipTableSnapshot#readColumnar(java.io.InputStream)}. The rows are
+   * read twice, once to fix the type of each column and once to write them,
+   * and the text of one row group of 8192 rows is held at a time. Unless
+   * the thread already holds its parsed html, the export parses a copy of
+   * the whole document that is released when it returns.
+   *
+   * @return - number of rows written.
+   */
+  public long exportAsColumnar(OutputStream out) throws IOException {
+    return QuipTableExport._writeColumnar(_element(), out);
+  }
+
   public String getCellValue(int column, int row) {
     QuipCell cell = _getCell(column, row);
     if (cell == null)
@@ -115,6 +165,209 @@ public class QuipTable {
     return true;
   }
 
+  /**
+   * Starts collecting cell writes, row inserts and row removals that are sent
+   * together by {@link Batch#commit()}.
+   */
+  public Batch batch() {
+    return new Batch(this);
+  }
+
+  /**
+   * Table writes collected for one commit. Row and column indices refer to
+   * the table as it was when {@link QuipTable#batch()} was called. On commit
+   * the writes are merged into as few edit-document calls as possible, and
+   * the table is refreshed once at the end:
+   * <ul>
+   * <li>inserts at the same position are sent as one call,</li>
+   * <li>two or more cells written in one row replace that row in one call,
+   * keeping the inner html of the other cells,</li>
+   * <li>a single cell written in a row replaces just that cell,</li>
+   * <li>each removed row takes one call, and writes to it are dropped.</li>
+   * </ul>
+   * The inner html of the cells kept in replaced rows is read once, from the
+   * document as it is when commit starts.
+   *
+   * <p>A replaced row is sent as plain {@code <tr><td>} markup, so the server
+   * gives the row and all its cells new section ids, and attributes of the
+   * {@code <td>} elements, such as styling, are lost. Write cells with
+   * {@link QuipTable#updateCellValue} instead when that matters.
+   *
+   * <pre>
+   * QuipTable.Batch batch = table.batch();
+   * for (int row = 0; row &lt; table.getRowSize(); row++)
+   *   batch.updateCellValue(1, row, values[row]);
+   * batch.addRow(new String[] { "total", sum }).commit();
+   * </pre>
+   */
+  public static final class Batch {
+    private final QuipTable _table;
+    private final QuipRow[] _rows;
+    // row index to column index to value
+    private final TreeMap<Integer, TreeMap<Integer, String>> _cells =
+        new TreeMap<>();
+    // insert position (a row index, or the row count to append) to new rows
+    private final TreeMap<Integer, List<String[]>> _inserts = new TreeMap<>();
+    private final TreeSet<Integer> _removals = new TreeSet<>();
+
+    private Batch(QuipTable table) {
+      _table = table;
+      _rows = table._rows;
+    }
+
+    public Batch updateCellValue(int column, int row, String value) {
+      if (_getCell(column, row) == null)
+        throw new IndexOutOfBoundsException(
+            "No cell at column " + column + ", row " + row);
+      _cells.computeIfAbsent(row, k -> new TreeMap<>()).put(column, value);
+      return this;
+    }
+
+    public Batch addRow(String[] values) {
+      return _insert(_rows.length, values);
+    }
+
+    /**
+     * Inserts a row before the given row.
+     */
+    public Batch addRow(int row, String[] values) {
+      _checkRow(row);
+      return _insert(row, values);
+    }
+
+    public Batch removeRow(int row) {
+      _checkRow(row);
+      _removals.add(row);
+      return this;
+    }
+
+    /**
+     * @return - number of pending edit-document calls. A row with two or
+     * more written cells counts once, as it is replaced whole with new
+     * section ids.
+     */
+    public int size() {
+      int size = _inserts.size() + _removals.size();
+      for (Integer row : _cells.keySet())
+        if (!_removals.contains(row))
+          size++;
+      return size;
+    }
+
+    /**
+     * Sends the collected writes and refreshes the table. The batch is empty
+     * afterwards and can be reused.
+     *
+     * @return - false if the server rejected one of the calls. The calls
+     * before it have been applied, and the table is refreshed either way.
+     */
+    public boolean commit() throws Exception {
+      int inserted = _inserts.values().stream().mapToInt(List::size).sum();
+      if (_removals.size() >= _rows.length + inserted)
+        throw new IllegalStateException("A table needs at least one row.");
+      if (size() == 0)
+        return true;
+      QuipThread thread = _table._parentThread;
+      // every edit replaces the document and drops its parsed dom, so the
+      // cells kept in replaced rows are all read before the first call
+      Map<Integer, String[]> rowHtml = _readRowHtml(thread);
+      // inserts first, while every anchor row still has its original id
+      List<Callable<Boolean>> calls = new ArrayList<>();
+      for (Map.Entry<Integer, List<String[]>> insert : _inserts.entrySet()) {
+        String html = insert.getValue().stream().map(QuipTable::_makeRowHtml)
+            .collect(Collectors.joining());
+        int row = insert.getKey();
+        calls.add((row < _rows.length)
+            ? () -> thread.editDocument(html, QuipThread.Format.HTML,
+                QuipThread.Location.BEFORE_SECTION, _rows[row].getId())
+            : () -> thread.editDocument(html, QuipThread.Format.HTML,
+                QuipThread.Location.AFTER_SECTION,
+                _rows[_rows.length - 1].getId()));
+      }
+      for (Map.Entry<Integer, TreeMap<Integer, String>> cells : _cells
+          .entrySet()) {
+        int row = cells.getKey();
+        if (_removals.contains(row))
+          continue;
+        calls.add(() -> _updateRow(thread, row, cells.getValue(),
+            rowHtml.get(row)));
+      }
+      for (int row : _removals)
+        calls.add(() -> thread.editDocument(null, QuipThread.Format.HTML,
+            QuipThread.Location.DELETE_SECTION, _rows[row].getId()));
+
+      _cells.clear();
+      _inserts.clear();
+      _removals.clear();
+      try {
+        for (Callable<Boolean> call : calls)
+          if (!call.call())
+            return false;
+        return true;
+      } finally {
+        _table.refresh();
+      }
+    }
+
+    /**
+     * @return - row index to the inner html of its cells, for each row that
+     * has two or more cells written.
+     */
+    private Map<Integer, String[]> _readRowHtml(QuipThread thread) {
+      Map<Integer, String[]> rowHtml = new TreeMap<>();
+      for (Map.Entry<Integer, TreeMap<Integer, String>> cells : _cells
+          .entrySet()) {
+        int row = cells.getKey();
+        if (cells.getValue().size() < 2 || _removals.contains(row))
+          continue;
+        // looked up in the one dom parsed before any call is sent
+        Element element = thread.getTableElementById_(_rows[row].getId());
+        if (element != null)
+          rowHtml.put(row, element.getElementsByTag("td").stream()
+              .filter(e -> e.hasAttr("id")).map(Element::html)
+              .toArray(String[]::new));
+      }
+      return rowHtml;
+    }
+
+    private boolean _updateRow(QuipThread thread, int row,
+        TreeMap<Integer, String> values, String[] rowHtml) throws Exception {
+      if (values.size() == 1) {
+        Map.Entry<Integer, String> cell = values.firstEntry();
+        return thread.editDocument(cell.getValue(), QuipThread.Format.HTML,
+            QuipThread.Location.REPLACE_SECTION,
+            _getCell(cell.getKey(), row).getId());
+      }
+      // the html of the cells left alone is kept as is
+      if (rowHtml == null)
+        return false;
+      String[] html = rowHtml.clone();
+      for (Map.Entry<Integer, String> cell : values.entrySet())
+        if (cell.getKey() < html.length)
+          html[cell.getKey()] = cell.getValue();
+      return thread.editDocument(_makeRowHtml(html), QuipThread.Format.HTML,
+          QuipThread.Location.REPLACE_SECTION, _rows[row].getId());
+    }
+
+    private Batch _insert(int row, String[] values) {
+      Objects.requireNonNull(values);
+      _inserts.computeIfAbsent(row, k -> new ArrayList<>()).add(values.clone());
+      return this;
+    }
+
+    private void _checkRow(int row) {
+      if (row < 0 || row >= _rows.length)
+        throw new IndexOutOfBoundsException("No row " + row);
+    }
+
+    private QuipCell _getCell(int column, int row) {
+      if (row < 0 || row >= _rows.length || column < 0
+          || column >= _rows[row].getCellSize())
+        return null;
+      return _rows[row].getCell(column);
+    }
+  }
+
   public static String createTableHtml(int columnSize, int rowSize) {
     return createTableHtml(new String[columnSize],
         new String[rowSize][columnSize]);
@@ -151,6 +404,10 @@ public class QuipTable {
     return sb.toString();
   }
 
+  private Element _element() throws IOException {
+    return _parentThread.getTableElementForExport_(_id);
+  }
+
   private QuipCell _getCell(int column, int row) {
     if (column < 0 || column >= _columns.length || row < 0
         || row >= _rows.length)
@@ -217,6 +474,10 @@ class QuipRow {
     return _id;
   }
 
+  int getCellSize() {
+    return _cells.length;
+  }
+
   QuipCell getCell(int column) {
     if (column < 0 || column >= _cells.length)
       return null;
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.jsoup.nodes.Element;
+
+/**
+ * Writes a parsed table row by row, without building QuipRow or QuipCell
+ * objects first. The header row comes from the thead when there is one. The
+ * rows are visited through their sibling links, so no list of them is built.
+ *
+ * <p>
+ * The columnar format groups up to {@link #ROW_GROUP_SIZE} rows and writes
+ * each group column by column, so only one group is held at a time. Each
+ * column has one type for the whole table, decided like
+ * {@link QuipTableSnapshot} does, which costs a first pass over the rows
+ * before anything is written:
+ *
+ * <pre>
+ * "QTC2"
+ * varint columnCount, columnCount x (string header, byte type)
+ * row group*: varint rowCount, then for each column
+ *   0 (STRING): varint dictionarySize, string*, rowCount x varint code
+ *   1 (LONG):   nulls, rowCount x zigzag varint, 0 for a null
+ *   2 (DOUBLE): nulls, rowCount x 8 byte IEEE 754, NaN for a null
+ * varint 0
+ * </pre>
+ *
+ * A string is varint (UTF-8 length + 1) followed by the bytes, 0 for null.
+ * The nulls of a numeric column are a bitmap of its empty cells, varint
+ * byteCount followed by the bytes of {@link BitSet#toByteArray()}. Use
+ * {@link QuipTableSnapshot#readColumnar(InputStream)} to read it back.
+ */
+final class QuipTableExport {
+
+  static final int ROW_GROUP_SIZE = 8192;
+  private static final byte[] MAGIC = "QTC2"
+      .getBytes(StandardCharsets.US_ASCII);
+
+  private QuipTableExport() {
+  }
+
+  // ============================================
+  // Text
+  // ============================================
+
+  /**
+   * RFC 4180: fields with commas, quotes or line breaks are quoted.
+   */
+  static long _writeCsv(Element table, Writer out) throws IOException {
+    return _writeText(table, out, ',', "\r\n");
+  }
+
+  /**
+   * Tabs and line breaks inside a value become spaces.
+   */
+  static long _writeTsv(Element table, Writer out) throws IOException {
+    return _writeText(table, out, '\t', "\n");
+  }
+
+  private static long _writeText(Element table, Writer out, char separator,
+      String newline) throws IOException {
+    String[] headers = _headers(table);
+    if (headers.length > 0)
+      _writeLine(out, headers, separator, newline);
+    long count = 0;
+    for (Element row = _firstRow(table); row != null; row = _nextRow(row)) {
+      _writeLine(out, _cells(row), separator, newline);
+      count++;
+    }
+    out.flush();
+    return count;
+  }
+
+  private static void _writeLine(Writer out, String[] values, char separator,
+      String newline) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0)
+        out.write(separator);
+      out.write((separator == ',') ? _quoteCsv(values[i])
+          : _escapeTsv(values[i]));
+    }
+    out.write(newline);
+  }
+
+  private static String _quoteCsv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+        && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+      return value;
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static String _escapeTsv(String value) {
+    return value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+  }
+
+  // ============================================
+  // Columnar
+  // ============================================
+
+  static long _writeColumnar(Element table, OutputStream out)
+      throws IOException {
+    // the first pass fixes the type of every column
+    String[] headers = _headers(table);
+    List<QuipTableSnapshot.TypeGuess> guesses = new ArrayList<>();
+    long count = 0;
+    for (Element row = _firstRow(table); row != null; row = _nextRow(row)) {
+      String[] cells = _cells(row);
+      while (guesses.size() < Math.max(cells.length, headers.length))
+        guesses.add(new QuipTableSnapshot.TypeGuess());
+      for (int column = 0; column < guesses.size(); column++)
+        guesses.get(column)
+            ._add((column < cells.length) ? cells[column] : "");
+      count++;
+    }
+    while (guesses.size() < headers.length)
+      guesses.add(new QuipTableSnapshot.TypeGuess());
+    QuipTableSnapshot.Type[] types = guesses.stream()
+        .map(QuipTableSnapshot.TypeGuess::_type)
+        .toArray(QuipTableSnapshot.Type[]::new);
+
+    DataOutputStream data = new DataOutputStream(
+        new BufferedOutputStream(out));
+    data.write(MAGIC);
+    _writeVarint(data, types.length);
+    for (int i = 0; i < types.length; i++) {
+      _writeString(data, (i < headers.length) ? headers[i] : null);
+      data.writeByte(types[i].ordinal());
+    }
+
+    List<String[]> group = new ArrayList<>(
+        (int) Math.min(count, ROW_GROUP_SIZE));
+    for (Element row = _firstRow(table); row != null; row = _nextRow(row)) {
+      group.add(_cells(row));
+      if (group.size() == ROW_GROUP_SIZE)
+        _writeGroup(data, group, types);
+    }
+    if (!group.isEmpty())
+      _writeGroup(data, group, types);
+    _writeVarint(data, 0);
+    data.flush();
+    return count;
+  }
+
+  private static void _writeGroup(DataOutputStream data, List<String[]> group,
+      QuipTableSnapshot.Type[] types) throws IOException {
+    _writeVarint(data, group.size());
+    String[] values = new String[group.size()];
+    for (int column = 0; column < types.length; column++) {
+      for (int row = 0; row < values.length; row++) {
+        String[] cells = group.get(row);
+        values[row] = (column < cells.length) ? cells[column] : "";
+      }
+      QuipTableSnapshot.Column encoded = QuipTableSnapshot._encode(values,
+          types[column]);
+      if (encoded instanceof QuipTableSnapshot.LongColumn) {
+        QuipTableSnapshot.LongColumn longs =
+            (QuipTableSnapshot.LongColumn) encoded;
+        _writeNulls(data, encoded, values.length);
+        for (int row = 0; row < values.length; row++) {
+          long value = longs.getLong(row);
+          _writeVarint(data, (value << 1) ^ (value >> 63));
+        }
+      } else if (encoded instanceof QuipTableSnapshot.DoubleColumn) {
+        QuipTableSnapshot.DoubleColumn doubles =
+            (QuipTableSnapshot.DoubleColumn) encoded;
+        _writeNulls(data, encoded, values.length);
+        for (int row = 0; row < values.length; row++)
+          data.writeDouble(doubles.getDouble(row));
+      } else {
+        QuipTableSnapshot.StringColumn strings =
+            (QuipTableSnapshot.StringColumn) encoded;
+        String[] dictionary = strings.getDictionary();
+        _writeVarint(data, dictionary.length);
+        for (String value : dictionary)
+          _writeString(data, value);
+        for (int row = 0; row < values.length; row++)
+          _writeVarint(data, strings.getCode(row));
+      }
+    }
+    group.clear();
+  }
+
+  private static void _writeNulls(DataOutputStream data,
+      QuipTableSnapshot.Column column, int rowCount) throws IOException {
+    BitSet nulls = new BitSet(rowCount);
+    for (int row = 0; row < rowCount; row++)
+      if (column.isNull(row))
+        nulls.set(row);
+    byte[] bytes = nulls.toByteArray();
+    _writeVarint(data, bytes.length);
+    data.write(bytes);
+  }
+
+  private static BitSet _readNulls(DataInputStream data) throws IOException {
+    byte[] bytes = new byte[(int) _readVarint(data)];
+    data.readFully(bytes);
+    return BitSet.valueOf(bytes);
+  }
+
+  /**
+   * Reads a file written by {@link #_writeColumnar}. Each row group is
+   * handed over as its own snapshot, and a column has the same type in all
+   * of them.
+   */
+  static List<QuipTableSnapshot> _readColumnar(InputStream in)
+      throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    byte[] magic = new byte[MAGIC.length];
+    data.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC))
+      throw new IOException("Not a columnar table export.");
+    int columnCount = (int) _readVarint(data);
+    String[] headers = new String[columnCount];
+    QuipTableSnapshot.Type[] types = new QuipTableSnapshot.Type[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      headers[i] = _readString(data);
+      types[i] = QuipTableSnapshot.Type.values()[data.readByte()];
+    }
+
+    List<QuipTableSnapshot> groups = new ArrayList<>();
+    int rowCount;
+    while ((rowCount = (int) _readVarint(data)) > 0) {
+      QuipTableSnapshot.Column[] columns =
+          new QuipTableSnapshot.Column[columnCount];
+      for (int column = 0; column < columnCount; column++) {
+        QuipTableSnapshot.Type type = types[column];
+        if (type == QuipTableSnapshot.Type.LONG) {
+          BitSet nulls = _readNulls(data);
+          long[] values = new long[rowCount];
+          for (int row = 0; row < rowCount; row++) {
+            long zigzag = _readVarint(data);
+            values[row] = (zigzag >>> 1) ^ -(zigzag & 1);
+          }
+          columns[column] = new QuipTableSnapshot.LongColumn(values, nulls);
+        } else if (type == QuipTableSnapshot.Type.DOUBLE) {
+          BitSet nulls = _readNulls(data);
+          double[] values = new double[rowCount];
+          for (int row = 0; row < rowCount; row++)
+            values[row] = data.readDouble();
+          columns[column] = new QuipTableSnapshot.DoubleColumn(values, nulls);
+        } else {
+          String[] dictionary = new String[(int) _readVarint(data)];
+          for (int i = 0; i < dictionary.length; i++)
+            dictionary[i] = _readString(data);
+          int[] codes = new int[rowCount];
+          for (int row = 0; row < rowCount; row++)
+            codes[row] = (int) _readVarint(data);
+          columns[column] = new QuipTableSnapshot.StringColumn(codes,
+              dictionary);
+        }
+      }
+      groups.add(new QuipTableSnapshot(headers, columns, rowCount));
+    }
+    return groups;
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static Element _firstRow(Element table) {
+    Element tbody = table.getElementsByTag("tbody").first();
+    return (tbody == null) ? null : _row(tbody.firstElementChild());
+  }
+
+  private static Element _nextRow(Element row) {
+    return _row(row.nextElementSibling());
+  }
+
+  private static Element _row(Element element) {
+    while (element != null && !element.tagName().equals("tr"))
+      element = element.nextElementSibling();
+    return element;
+  }
+
+  // the same cells as QuipTable reads: td elements with an id
+  private static String[] _cells(Element row) {
+    return row.getElementsByTag("td").stream().filter(e -> e.hasAttr("id"))
+        .map(Element::text).toArray(String[]::new);
+  }
+
+  private static String[] _headers(Element table) {
+    Element header = table.getElementsByTag("thead").first();
+    if (header == null)
+      return new String[0];
+    return header.getElementsByTag("th").stream().filter(e -> e.hasAttr("id"))
+        .map(Element::text).toArray(String[]::new);
+  }
+
+  private static void _writeVarint(DataOutputStream data, long value)
+      throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      data.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    data.writeByte((int) value);
+  }
+
+  private static long _readVarint(DataInputStream data) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = data.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new EOFException("Malformed varint.");
+  }
+
+  private static void _writeString(DataOutputStream data, String value)
+      throws IOException {
+    if (value == null) {
+      _writeVarint(data, 0);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    _writeVarint(data, bytes.length + 1L);
+    data.write(bytes);
+  }
+
+  private static String _readString(DataInputStream data) throws IOException {
+    int length = (int) _readVarint(data);
+    if (length == 0)
+      return null;
+    byte[] bytes = new byte[length - 1];
+    data.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Read-only, column-oriented copy of a table. Each column is one contiguous
+ * array: long[] when every cell is an integer, double[] when every cell is a
+ * decimal number, and otherwise dictionary-encoded strings, an int[] of codes
+ * into the distinct values. Numbers are parsed once when the snapshot is
+ * built, and the aggregates are plain loops over the arrays.
+ *
+ * <p>A number only counts as one when it prints back exactly as written, so
+ * that {@link Column#getString(int)} always returns the text of the cell. A
+ * column holding "007", "+3", "1.50" or "1e3" stays a string column. Empty
+ * cells do not decide the type: they are nulls of a numeric column, skipped
+ * by its aggregates.
+ *
+ * <pre>
+ * QuipTableSnapshot snapshot = table.snapshot();
+ * double total = ((QuipTableSnapshot.DoubleColumn) snapshot.getColumn(2)).sum();
+ * </pre>
+ */
+public class QuipTableSnapshot {
+
+  public enum Type {
+    STRING, LONG, DOUBLE
+  }
+
+  private static final Pattern LONG = Pattern.compile("[+-]?\\d+");
+  private static final Pattern DOUBLE = Pattern
+      .compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+  private final String[] _headers;
+  private final Column[] _columns;
+  private final int _rowSize;
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  QuipTableSnapshot(String[] headers, Column[] columns, int rowSize) {
+    _headers = headers;
+    _columns = columns;
+    _rowSize = rowSize;
+  }
+
+  /**
+   * Builds the snapshot from a parsed table, reading the cells the same way
+   * as {@link QuipTable}.
+   */
+  static QuipTableSnapshot _of(Element table) {
+    Elements rows = table.getElementsByTag("tbody").first()
+        .getElementsByTag("tr");
+    List<String[]> cells = new ArrayList<>(rows.size());
+    int columnSize = 0;
+    for (Element row : rows) {
+      String[] values = row.getElementsByTag("td").stream()
+          .filter(e -> e.hasAttr("id")).map(Element::text)
+          .toArray(String[]::new);
+      cells.add(values);
+      columnSize = Math.max(columnSize, values.length);
+    }
+
+    String[] headers = new String[columnSize];
+    Element header = table.getElementsByTag("thead").first();
+    if (header != null) {
+      Elements cols = header.getElementsByTag("th");
+      int index = 0;
+      for (Element col : cols)
+        if (col.hasAttr("id") && index < columnSize)
+          headers[index++] = col.text();
+    }
+
+    Column[] columns = new Column[columnSize];
+    String[] values = new String[rows.size()];
+    for (int column = 0; column < columnSize; column++) {
+      for (int row = 0; row < values.length; row++) {
+        String[] rowValues = cells.get(row);
+        values[row] = (column < rowValues.length) ? rowValues[column] : "";
+      }
+      columns[column] = _encode(values);
+    }
+    return new QuipTableSnapshot(headers, columns, rows.size());
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public int getRowSize() {
+    return _rowSize;
+  }
+
+  public int getColumnSize() {
+    return _columns.length;
+  }
+
+  /**
+   * @return - header text, or null if the table has no header row.
+   */
+  public String getColumnHeader(int column) {
+    return _headers[column];
+  }
+
+  public Column getColumn(int column) {
+    return _columns[column];
+  }
+
+  /**
+   * @return - the first column whose header is the given text, or null.
+   */
+  public Column getColumn(String header) {
+    for (int i = 0; i < _headers.length; i++)
+      if (header.equals(_headers[i]))
+        return _columns[i];
+    return null;
+  }
+
+  public String getCellValue(int column, int row) {
+    return _columns[column].getString(row);
+  }
+
+  /**
+   * Reads a file written by {@link QuipTable#exportAsColumnar(OutputStream)}.
+   *
+   * @return - one snapshot per row group, in order. A column has the same
+   * type in all of them.
+   */
+  public static List<QuipTableSnapshot> readColumnar(InputStream in)
+      throws IOException {
+    return QuipTableExport._readColumnar(in);
+  }
+
+  // ============================================
+  // Columns
+  // ============================================
+
+  public abstract static class Column {
+    private Column() {
+    }
+
+    public abstract Type getType();
+
+    public abstract int size();
+
+    /**
+     * @return - the cell as text, as it is in the table. An empty cell is
+     * "".
+     */
+    public abstract String getString(int row);
+
+    /**
+     * @return - whether the cell is empty.
+     */
+    public abstract boolean isNull(int row);
+
+    public abstract int countNulls();
+
+    /**
+     * @return - number of distinct values, the empty one included.
+     */
+    public abstract int countDistinct();
+  }
+
+  public static final class StringColumn extends Column {
+    private final int[] _codes;
+    private final String[] _dictionary;
+
+    StringColumn(int[] codes, String[] dictionary) {
+      _codes = codes;
+      _dictionary = dictionary;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.STRING;
+    }
+
+    @Override
+    public int size() {
+      return _codes.length;
+    }
+
+    @Override
+    public String getString(int row) {
+      return _dictionary[_codes[row]];
+    }
+
+    @Override
+    public boolean isNull(int row) {
+      return _dictionary[_codes[row]].isEmpty();
+    }
+
+    @Override
+    public int countNulls() {
+      int count = 0;
+      for (int code : _codes)
+        if (_dictionary[code].isEmpty())
+          count++;
+      return count;
+    }
+
+    /**
+     * Every value in the dictionary occurs at least once.
+     */
+    @Override
+    public int countDistinct() {
+      return _dictionary.length;
+    }
+
+    /**
+     * @return - index of the row's value in {@link #getDictionary()}.
+     */
+    public int getCode(int row) {
+      return _codes[row];
+    }
+
+    /**
+     * @return - the distinct values in order of first appearance.
+     */
+    public String[] getDictionary() {
+      return _dictionary.clone();
+    }
+  }
+
+  /**
+   * Integers, with 0 in the array for empty cells.
+   */
+  public static final class LongColumn extends Column {
+    private final long[] _values;
+    private final BitSet _nulls;
+
+    LongColumn(long[] values, BitSet nulls) {
+      _values = values;
+      _nulls = nulls;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.LONG;
+    }
+
+    @Override
+    public int size() {
+      return _values.length;
+    }
+
+    @Override
+    public String getString(int row) {
+      return _nulls.get(row) ? "" : String.valueOf(_values[row]);
+    }
+
+    @Override
+    public boolean isNull(int row) {
+      return _nulls.get(row);
+    }
+
+    @Override
+    public int countNulls() {
+      return _nulls.cardinality();
+    }
+
+    @Override
+    public int countDistinct() {
+      long[] sorted = new long[_values.length - _nulls.cardinality()];
+      for (int row = 0, i = 0; row < _values.length; row++)
+        if (!_nulls.get(row))
+          sorted[i++] = _values[row];
+      Arrays.sort(sorted);
+      int count = _nulls.isEmpty() ? 0 : 1;
+      for (int i = 0; i < sorted.length; i++)
+        if (i == 0 || sorted[i] != sorted[i - 1])
+          count++;
+      return count;
+    }
+
+    /**
+     * @return - the value, or 0 for an empty cell.
+     */
+    public long getLong(int row) {
+      return _values[row];
+    }
+
+    public long sum() {
+      long sum = 0L;
+      // empty cells hold 0
+      for (long value : _values)
+        sum += value;
+      return sum;
+    }
+
+    public long min() {
+      long min = Long.MAX_VALUE;
+      for (int row = 0; row < _values.length; row++)
+        if (!_nulls.get(row))
+          min = Math.min(min, _values[row]);
+      return min;
+    }
+
+    public long max() {
+      long max = Long.MIN_VALUE;
+      for (int row = 0; row < _values.length; row++)
+        if (!_nulls.get(row))
+          max = Math.max(max, _values[row]);
+      return max;
+    }
+
+    /**
+     * @return - the values, with 0 for empty cells.
+     */
+    public long[] toArray() {
+      return _values.clone();
+    }
+  }
+
+  /**
+   * Decimal numbers, with NaN in the array for empty cells.
+   */
+  public static final class DoubleColumn extends Column {
+    private final double[] _values;
+    private final BitSet _nulls;
+
+    DoubleColumn(double[] values, BitSet nulls) {
+      _values = values;
+      _nulls = nulls;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.DOUBLE;
+    }
+
+    @Override
+    public int size() {
+      return _values.length;
+    }
+
+    @Override
+    public String getString(int row) {
+      return _nulls.get(row) ? "" : _formatDouble(_values[row]);
+    }
+
+    @Override
+    public boolean isNull(int row) {
+      return _nulls.get(row);
+    }
+
+    @Override
+    public int countNulls() {
+      return _nulls.cardinality();
+    }
+
+    @Override
+    public int countDistinct() {
+      // NaN sorts last, and all of them are the empty value
+      double[] sorted = _values.clone();
+      Arrays.sort(sorted);
+      int count = 0;
+      for (int i = 0; i < sorted.length; i++)
+        if (i == 0 || Double.compare(sorted[i], sorted[i - 1]) != 0)
+          count++;
+      return count;
+    }
+
+    /**
+     * @return - the value, or NaN for an empty cell.
+     */
+    public double getDouble(int row) {
+      return _values[row];
+    }
+
+    public double sum() {
+      double sum = 0.0;
+      for (int row = 0; row < _values.length; row++)
+        if (!_nulls.get(row))
+          sum += _values[row];
+      return sum;
+    }
+
+    public double min() {
+      double min = Double.POSITIVE_INFINITY;
+      for (int row = 0; row < _values.length; row++)
+        if (!_nulls.get(row))
+          min = Math.min(min, _values[row]);
+      return min;
+    }
+
+    public double max() {
+      double max = Double.NEGATIVE_INFINITY;
+      for (int row = 0; row < _values.length; row++)
+        if (!_nulls.get(row))
+          max = Math.max(max, _values[row]);
+      return max;
+    }
+
+    /**
+     * @return - the values, with NaN for empty cells.
+     */
+    public double[] toArray() {
+      return _values.clone();
+    }
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  static Column _encode(String[] values) {
+    TypeGuess guess = new TypeGuess();
+    for (String value : values)
+      guess._add(value);
+    return _encode(values, guess._type());
+  }
+
+  /**
+   * @param type - a type every non-empty value reads back as, see
+   *             {@link TypeGuess}.
+   */
+  static Column _encode(String[] values, Type type) {
+    if (type == Type.STRING)
+      return _encodeStrings(values);
+    BitSet nulls = new BitSet(values.length);
+    if (type == Type.LONG) {
+      long[] longs = new long[values.length];
+      for (int row = 0; row < values.length; row++) {
+        if (values[row].isEmpty())
+          nulls.set(row);
+        else
+          longs[row] = Long.parseLong(values[row]);
+      }
+      return new LongColumn(longs, nulls);
+    }
+    double[] doubles = new double[values.length];
+    for (int row = 0; row < values.length; row++) {
+      if (values[row].isEmpty()) {
+        nulls.set(row);
+        doubles[row] = Double.NaN;
+      } else {
+        doubles[row] = Double.parseDouble(values[row]);
+      }
+    }
+    return new DoubleColumn(doubles, nulls);
+  }
+
+  static StringColumn _encodeStrings(String[] values) {
+    int[] codes = new int[values.length];
+    Map<String, Integer> dictionary = new HashMap<>();
+    List<String> distinct = new ArrayList<>();
+    for (int row = 0; row < values.length; row++) {
+      Integer code = dictionary.get(values[row]);
+      if (code == null) {
+        code = distinct.size();
+        dictionary.put(values[row], code);
+        distinct.add(values[row]);
+      }
+      codes[row] = code;
+    }
+    return new StringColumn(codes, distinct.toArray(new String[0]));
+  }
+
+  /**
+   * Prints integral values without a fraction, so that "2" in a decimal
+   * column reads back as "2" rather than "2.0".
+   */
+  static String _formatDouble(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15
+        && !(value == 0.0 && 1 / value < 0))
+      return Long.toString((long) value);
+    return Double.toString(value);
+  }
+
+  /**
+   * Folds the values of a column into its type. A column is numeric when
+   * every non-empty value reads back as written, and empty values do not
+   * decide it.
+   */
+  static final class TypeGuess {
+    private boolean _long = true;
+    private boolean _double = true;
+    private boolean _empty = true;
+
+    void _add(String value) {
+      if (value.isEmpty())
+        return;
+      _empty = false;
+      if (_long)
+        _long = _isLong(value);
+      if (_double)
+        _double = _isDouble(value);
+    }
+
+    Type _type() {
+      if (_empty)
+        return Type.STRING;
+      return _long ? Type.LONG : _double ? Type.DOUBLE : Type.STRING;
+    }
+  }
+
+  // "007" or "+3" would not read back as written
+  private static boolean _isLong(String value) {
+    if (!LONG.matcher(value).matches())
+      return false;
+    try {
+      return Long.toString(Long.parseLong(value)).equals(value);
+    } catch (NumberFormatException e) {
+      // out of range, leave it to the double column
+      return false;
+    }
+  }
+
+  // "1.50" or "1e3" would not read back as written
+  private static boolean _isDouble(String value) {
+    return DOUBLE.matcher(value).matches()
+        && _formatDouble(Double.parseDouble(value)).equals(value);
+  }
+}
@@ -23,21 +23,36 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class QuipThread extends QuipJsonObject {
 
+    // parsed html, built on first use and dropped when the json is replaced
+    private volatile Dom _dom;
+
     // ============================================
     // Enum
     // ============================================
@@ -136,6 +151,26 @@ public class QuipThread extends QuipJsonObject {
         super(json);
     }
 
+    private QuipThread(Fetched fetched) {
+        super(fetched);
+    }
+
+    @Override
+    protected void _replace(JsonObject object) {
+        super._replace(object);
+        _dom = null;
+    }
+
+    @Override
+    protected String[] _versionPath() {
+        return new String[]{"thread", "updated_usec"};
+    }
+
+    @Override
+    protected String[] _cacheKeys() {
+        return new String[]{_cacheKey(getId())};
+    }
+
     // ============================================
     // Properties
     // ============================================
@@ -200,21 +235,29 @@ public class QuipThread extends QuipJsonObject {
     // Read / Search
     // ============================================
 
+    /**
+     * Served from {@link QuipClient#getCache()} when a cache is set.
+     */
     public static QuipThread getThread(String threadId) throws Exception {
-        return new QuipThread(
-                _getToJsonObject(QuipAccess.ENDPOINT + "/threads/" + threadId));
+        return new QuipThread(_getCached(_cacheKey(threadId),
+                () -> _fetchJsonObject(QuipAccess.ENDPOINT + "/threads/" + threadId)));
     }
 
     public static QuipThread[] getThreads(String[] threadIds) throws Exception {
-        JsonObject json = _getToJsonObject(
-                new URIBuilder(QuipAccess.ENDPOINT + "/threads/")
-                        .addParameter("ids",
-                                Stream.of(threadIds)
-                                        .collect(Collectors.joining(",")))
-                        .build());
-        return json.keySet().stream()
-                .map(id -> new QuipThread(json.get(id).getAsJsonObject()))
-                .toArray(QuipThread[]::new);
+        return _toThreadArray(_getToJsonObject(_threadsUri(threadIds)));
+    }
+
+    /**
+     * Fetches any number of threads. The ids are sent in chunks of
+     * {@link QuipClient#getBatchSize()} that run concurrently, and a thread
+     * that cannot be fetched is reported instead of failing the call.
+     *
+     * @param threadIds - thread ids, duplicates allowed.
+     * @return - threads in the order of the ids, and the ids that failed.
+     */
+    public static QuipBatchResult<QuipThread> getThreadsBatch(String[] threadIds) throws Exception {
+        return QuipBatch._fetch(threadIds,
+                ids -> _getToJsonObject(_threadsUri(ids)), QuipThread::new);
     }
 
     public static QuipThread[] getRecentThreads() throws Exception {
@@ -234,46 +277,115 @@ public class QuipThread extends QuipJsonObject {
      * @throws Exception - 403,401,404,500
      */
     public static QuipThread[] getRecentThreads(Integer count, Instant maxUpdatedUsec, boolean includeHidden) throws Exception {
-        URIBuilder uriBuilder = new URIBuilder(QuipAccess.ENDPOINT + "/threads/recent");
-        if (Objects.nonNull(count) && count > 0) {
-            uriBuilder.addParameter("count", String.valueOf(count));
-        }
+        return _toThreadArray(_getToJsonObject(
+                _recentThreadsUri(count, maxUpdatedUsec, includeHidden)));
+    }
 
-        if (Objects.nonNull(maxUpdatedUsec)) {
-            uriBuilder.addParameter("max_updated_usec", String.valueOf(ChronoUnit.MICROS.between(Instant.EPOCH,
-                    maxUpdatedUsec)));
-        }
+    /**
+     * Streaming version of {@link #getThreads(String[])}. Each thread is
+     * passed to the consumer as soon as it has been read from the response,
+     * so large documents are not all held in memory at once.
+     */
+    public static void getThreads(String[] threadIds, Consumer<QuipThread> consumer) throws Exception {
+        _getToJsonObjectMembers(_threadsUri(threadIds),
+                (id, json) -> consumer.accept(new QuipThread(json)));
+    }
 
-        JsonObject json = _getToJsonObject(uriBuilder.addParameter("include_hidden", String.valueOf(includeHidden)).build());
-        return json.entrySet().stream()
-                .map(obj -> new QuipThread((JsonObject) obj.getValue()))
-                .toArray(QuipThread[]::new);
+    /**
+     * Lazily pages through all recent threads, newest first, by feeding the
+     * oldest updated_usec of each page back as maxUpdatedUsec. The next page
+     * is prefetched in the background, and threads repeated at a page
+     * boundary are returned only once. Close the stream to stop the
+     * prefetch early.
+     *
+     * <pre>
+     * try (Stream&lt;QuipThread&gt; threads = QuipThread.streamRecentThreads(50, false)) {
+     *     threads.forEach(thread -&gt; archive(thread));
+     * }
+     * </pre>
+     *
+     * <p>The API pages by timestamp only, so when more than pageSize threads
+     * share one updated_usec, those beyond the first page are skipped with
+     * a warning. A larger pageSize avoids it.
+     *
+     * @param pageSize      - number of threads to fetch per request
+     * @param includeHidden - include hidden chats
+     * @return - Stream of the threads. Request failures are thrown as
+     * UncheckedIOException while the stream is consumed.
+     */
+    public static Stream<QuipThread> streamRecentThreads(int pageSize, boolean includeHidden) {
+        QuipRecentThreadIterator iterator = new QuipRecentThreadIterator(pageSize, includeHidden);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Streaming version of {@link #getRecentThreads(Integer, Instant, boolean)}.
+     */
+    public static void getRecentThreads(Integer count, Instant maxUpdatedUsec, boolean includeHidden,
+                                        Consumer<QuipThread> consumer) throws Exception {
+        _getToJsonObjectMembers(_recentThreadsUri(count, maxUpdatedUsec, includeHidden),
+                (id, json) -> consumer.accept(new QuipThread(json)));
     }
 
     public static QuipThread[] searchThreads(String query, Integer count,
                                              Boolean isOnlyMatchTitles) throws Exception {
-        List<NameValuePair> params = new ArrayList<>();
-        params.add(new BasicNameValuePair("query", query));
-        if (count != null)
-            params.add(new BasicNameValuePair("count", String.valueOf(count)));
-        if (isOnlyMatchTitles != null)
-            params.add(new BasicNameValuePair("only_match_titles",
-                    String.valueOf(isOnlyMatchTitles)));
-        JsonArray arr = _getToJsonArray(
-                new URIBuilder(QuipAccess.ENDPOINT + "/threads/search")
-                        .addParameters(params).build());
-        return StreamSupport.stream(arr.spliterator(), false)
-                .map(obj -> new QuipThread(obj.getAsJsonObject()))
-                .toArray(QuipThread[]::new);
+        return _toThreadArray(_getToJsonArray(
+                _searchUri(query, count, isOnlyMatchTitles)));
     }
 
+    /**
+     * Skips the download when the server answers 304, and the parse when
+     * updated_usec has not changed.
+     */
     public boolean reload() throws Exception {
-        JsonObject object = _getToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/" + getId());
-        if (object == null)
-            return false;
-        _replace(object);
-        return true;
+        return _reloadIfModified(QuipAccess.ENDPOINT + "/threads/" + getId());
+    }
+
+    // ============================================
+    // Read / Search (Async)
+    // ============================================
+
+    public static CompletableFuture<QuipThread> getThreadAsync(String threadId) {
+        return _getToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/" + threadId)
+                .thenApply(QuipThread::new);
+    }
+
+    public static CompletableFuture<QuipThread[]> getThreadsAsync(String[] threadIds) {
+        URI uri;
+        try {
+            uri = _threadsUri(threadIds);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _getToJsonObjectAsync(uri).thenApply(QuipThread::_toThreadArray);
+    }
+
+    public static CompletableFuture<QuipThread[]> getRecentThreadsAsync(Integer count, Instant maxUpdatedUsec, boolean includeHidden) {
+        URI uri;
+        try {
+            uri = _recentThreadsUri(count, maxUpdatedUsec, includeHidden);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _getToJsonObjectAsync(uri).thenApply(QuipThread::_toThreadArray);
+    }
+
+    public static CompletableFuture<QuipThread[]> searchThreadsAsync(String query, Integer count,
+                                                                     Boolean isOnlyMatchTitles) {
+        URI uri;
+        try {
+            uri = _searchUri(query, count, isOnlyMatchTitles);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _getToJsonArrayAsync(uri).thenApply(QuipThread::_toThreadArray);
+    }
+
+    public CompletableFuture<Boolean> reloadAsync() {
+        return _getToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/" + getId())
+                .thenApply(this::_replaceIfPresent);
     }
 
     // ============================================
@@ -282,130 +394,130 @@ public class QuipThread extends QuipJsonObject {
 
     public static QuipThread createDocument(String title, String content,
                                             String[] memberIds, Format format, Type type) throws Exception {
-        Form form = Form.form();
-        if (title != null)
-            form.add("title", title);
-        if (content != null)
-            form.add("content", content);
+        QuipThread thread = new QuipThread(_postToJsonObject(
+                QuipAccess.ENDPOINT + "/threads/new-document",
+                _createDocumentForm(title, content, memberIds, format, type)));
         if (memberIds != null)
-            form.add("member_ids",
-                    Stream.of(memberIds).collect(Collectors.joining(",")));
-        if (format != null)
-            form.add("format", format._value);
-        if (type != null)
-            form.add("type", type._value);
-        return new QuipThread(_postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/new-document", form));
+            _invalidateFolders(memberIds);
+        return thread;
+    }
+
+    public static CompletableFuture<QuipThread> createDocumentAsync(String title, String content,
+                                                                    String[] memberIds, Format format, Type type) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/threads/new-document",
+                _createDocumentForm(title, content, memberIds, format, type))
+                .thenApply(json -> {
+                    if (memberIds != null)
+                        _invalidateFolders(memberIds);
+                    return new QuipThread(json);
+                });
     }
 
     public static QuipThread createChat(String title, String message,
                                         String[] memberIds) throws Exception {
-        Form form = Form.form();
-        if (title != null)
-            form.add("title", title);
-        if (message != null)
-            form.add("message", message);
+        QuipThread thread = new QuipThread(_postToJsonObject(
+                QuipAccess.ENDPOINT + "/threads/new-chat",
+                _createChatForm(title, message, memberIds)));
         if (memberIds != null)
-            form.add("member_ids",
-                    Stream.of(memberIds).collect(Collectors.joining(",")));
-        return new QuipThread(_postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/new-chat", form));
+            _invalidateFolders(memberIds);
+        return thread;
+    }
+
+    public static CompletableFuture<QuipThread> createChatAsync(String title, String message,
+                                                                String[] memberIds) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/new-chat",
+                _createChatForm(title, message, memberIds))
+                .thenApply(json -> {
+                    if (memberIds != null)
+                        _invalidateFolders(memberIds);
+                    return new QuipThread(json);
+                });
     }
 
     public QuipThread copyDocument(String title, String values,
                                    String[] memberIds, String[] folderIds) throws Exception {
-        Form form = Form.form().add("thread_id", getId());
-        if (title != null)
-            form.add("title", title);
-        if (values != null)
-            form.add("values", values);
-        if (memberIds != null)
-            form.add("member_ids",
-                    Stream.of(memberIds).collect(Collectors.joining(",")));
-        if (folderIds != null)
-            form.add("folder_ids",
-                    Stream.of(folderIds).collect(Collectors.joining(",")));
-        return new QuipThread(_postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/copy-document", form));
+        QuipThread thread = new QuipThread(_postToJsonObject(
+                QuipAccess.ENDPOINT + "/threads/copy-document",
+                _copyDocumentForm(title, values, memberIds, folderIds)));
+        _invalidateCopyTargets(memberIds, folderIds);
+        return thread;
+    }
+
+    public CompletableFuture<QuipThread> copyDocumentAsync(String title, String values,
+                                                           String[] memberIds, String[] folderIds) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/threads/copy-document",
+                _copyDocumentForm(title, values, memberIds, folderIds))
+                .thenApply(json -> {
+                    _invalidateCopyTargets(memberIds, folderIds);
+                    return new QuipThread(json);
+                });
     }
 
     public boolean editDocument(String content, Format format,
                                 Location location, String sectionIdOrDocumentRange)
             throws Exception {
-        Form form = Form.form().add("thread_id", getId());
-        if (format != null)
-            form.add("format", format._value);
-        if (content != null)
-            form.add("content", content);
-        if (location != null)
-            form.add("location", String.valueOf(location._value));
-        if (sectionIdOrDocumentRange != null) {
-            if (location == Location.AFTER_SECTION
-                    || location == Location.BEFORE_SECTION
-                    || location == Location.REPLACE_SECTION
-                    || location == Location.DELETE_SECTION)
-                form.add("section_id", sectionIdOrDocumentRange);
-            else if (location == Location.AFTER_DOCUMENT_RANGE
-                    || location == Location.BEFORE_DOCUMENT_RANGE
-                    || location == Location.REPLACE_DOCUMENT_RANGE
-                    || location == Location.DELETE_DOCUMENT_RANGE)
-                form.add("document_range", sectionIdOrDocumentRange);
-        }
         JsonObject object = _postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/edit-document", form);
+                QuipAccess.ENDPOINT + "/threads/edit-document",
+                _editDocumentForm(content, format, location, sectionIdOrDocumentRange));
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
 
+    public CompletableFuture<Boolean> editDocumentAsync(String content, Format format,
+                                                        Location location, String sectionIdOrDocumentRange) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/threads/edit-document",
+                _editDocumentForm(content, format, location, sectionIdOrDocumentRange))
+                .thenApply(this::_replaceIfPresent);
+    }
+
     public boolean createLivePasteSection(String sourceThreadId,
                                           Boolean isDocumentRangeSource,
                                           String[] sourceSectionIdsOrDocumentRange, Location location,
                                           String destinationSectionIdOrDocumentRange,
                                           Boolean isUpdateAutomatic) throws Exception {
-        Form form = Form.form().add("destination_thread_id", getId());
-        if (sourceThreadId != null)
-            form.add("source_thread_id", sourceThreadId);
-        if (isDocumentRangeSource != null)
-            form.add("is_document_range_source",
-                    String.valueOf(isDocumentRangeSource));
-        if (sourceSectionIdsOrDocumentRange != null)
-            form.add(
-                    isDocumentRangeSource
-                            ? "source_document_range"
-                            : "source_section_ids",
-                    Stream.of(sourceSectionIdsOrDocumentRange)
-                            .collect(Collectors.joining(",")));
-        if (location != null) {
-            if (location == Location.DELETE_SECTION
-                    || location == Location.DELETE_DOCUMENT_RANGE)
-                throw new IllegalArgumentException(
-                        "The location " + location + " is not supported.");
-            form.add("location", String.valueOf(location._value));
-        }
-        if (destinationSectionIdOrDocumentRange != null)
-            if (location == Location.AFTER_DOCUMENT_RANGE
-                    || location == Location.BEFORE_DOCUMENT_RANGE
-                    || location == Location.REPLACE_DOCUMENT_RANGE)
-                form.add("destination_document_range",
-                        destinationSectionIdOrDocumentRange);
-            else
-                form.add("destination_section_id",
-                        destinationSectionIdOrDocumentRange);
-        if (isUpdateAutomatic != null)
-            form.add("update_automatic", String.valueOf(isUpdateAutomatic));
         JsonObject object = _postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/live-paste", form);
+                QuipAccess.ENDPOINT + "/threads/live-paste",
+                _livePasteForm(sourceThreadId, isDocumentRangeSource,
+                        sourceSectionIdsOrDocumentRange, location,
+                        destinationSectionIdOrDocumentRange, isUpdateAutomatic));
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
 
+    public CompletableFuture<Boolean> createLivePasteSectionAsync(String sourceThreadId,
+                                                                  Boolean isDocumentRangeSource,
+                                                                  String[] sourceSectionIdsOrDocumentRange, Location location,
+                                                                  String destinationSectionIdOrDocumentRange,
+                                                                  Boolean isUpdateAutomatic) {
+        Form form;
+        try {
+            form = _livePasteForm(sourceThreadId, isDocumentRangeSource,
+                    sourceSectionIdsOrDocumentRange, location,
+                    destinationSectionIdOrDocumentRange, isUpdateAutomatic);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/live-paste", form)
+                .thenApply(this::_replaceIfPresent);
+    }
+
     public void delete() throws Exception {
         _postToJsonObject(QuipAccess.ENDPOINT + "/threads/delete",
                 Form.form().add("thread_id", getId()));
+        _invalidateCache();
+    }
+
+    public CompletableFuture<Void> deleteAsync() {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/delete",
+                Form.form().add("thread_id", getId()))
+                .thenAccept(json -> _invalidateCache());
     }
 
     // ============================================
@@ -414,16 +526,27 @@ public class QuipThread extends QuipJsonObject {
 
     public void lockEdits(Boolean isEditsDisabled) throws Exception {
         _postToJsonObject(QuipAccess.ENDPOINT + "/threads/lock-edits",
-                Form.form().add("thread_id", getId()).add("edits_disabled",
-                        String.valueOf(isEditsDisabled)));
+                _lockEditsForm(isEditsDisabled));
+        _invalidateCache();
+    }
+
+    public CompletableFuture<Void> lockEditsAsync(Boolean isEditsDisabled) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/lock-edits",
+                _lockEditsForm(isEditsDisabled))
+                .thenAccept(json -> _invalidateCache());
     }
 
     public void lockSectionEdits(String sectionId, Boolean isEditsDisabled)
             throws Exception {
         _postToJsonObject(QuipAccess.ENDPOINT + "/threads/lock-section-edits",
-                Form.form().add("thread_id", getId())
-                        .add("section_id", sectionId).add("edits_disabled",
-                                String.valueOf(isEditsDisabled)));
+                _lockSectionEditsForm(sectionId, isEditsDisabled));
+        _invalidateCache();
+    }
+
+    public CompletableFuture<Void> lockSectionEditsAsync(String sectionId, Boolean isEditsDisabled) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/lock-section-edits",
+                _lockSectionEditsForm(sectionId, isEditsDisabled))
+                .thenAccept(json -> _invalidateCache());
     }
 
     // ============================================
@@ -432,17 +555,17 @@ public class QuipThread extends QuipJsonObject {
 
     public static QuipThread importFile(File file, Type type, String title,
                                         String[] memberIds) throws Exception {
-        MultipartEntityBuilder multipart = MultipartEntityBuilder.create()
-                .addBinaryBody("file", file);
-        if (type != null)
-            multipart.addTextBody("type", type._value);
-        if (title != null)
-            multipart.addTextBody("title", title);
-        if (memberIds != null)
-            multipart.addTextBody("member_ids",
-                    Stream.of(memberIds).collect(Collectors.joining(",")));
         return new QuipThread(_postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/import-file", multipart));
+                QuipAccess.ENDPOINT + "/threads/import-file",
+                _importFileMultipart(file, type, title, memberIds)));
+    }
+
+    public static CompletableFuture<QuipThread> importFileAsync(File file, Type type, String title,
+                                                                String[] memberIds) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/threads/import-file",
+                _importFileMultipart(file, type, title, memberIds))
+                .thenApply(QuipThread::new);
     }
 
     public byte[] exportAsDocx() throws Exception {
@@ -450,37 +573,119 @@ public class QuipThread extends QuipJsonObject {
                 QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/docx");
     }
 
+    public CompletableFuture<byte[]> exportAsDocxAsync() {
+        return _getToByteArrayAsync(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/docx");
+    }
+
     public byte[] exportAsXlsx() throws Exception {
         return _getToByteArray(
                 QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/xlsx");
     }
 
+    public CompletableFuture<byte[]> exportAsXlsxAsync() {
+        return _getToByteArrayAsync(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/xlsx");
+    }
+
     public byte[] exportAsPdf() throws Exception {
         return _getToByteArray(
                 QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/pdf");
     }
 
+    public CompletableFuture<byte[]> exportAsPdfAsync() {
+        return _getToByteArrayAsync(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/pdf");
+    }
+
+    /**
+     * Streams the docx export into the output stream, which is left open.
+     *
+     * @return - size of the export in bytes
+     */
+    public long exportAsDocx(OutputStream out) throws Exception {
+        return _getToOutputStream(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/docx", out);
+    }
+
+    /**
+     * Streams the docx export into a file, which is created or replaced
+     * once the export is complete.
+     *
+     * @return - size of the export in bytes
+     */
+    public long exportAsDocx(Path path) throws Exception {
+        return _getToFile(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/docx", path);
+    }
+
+    /**
+     * Streams the xlsx export into the output stream, which is left open.
+     *
+     * @return - size of the export in bytes
+     */
+    public long exportAsXlsx(OutputStream out) throws Exception {
+        return _getToOutputStream(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/xlsx", out);
+    }
+
+    /**
+     * Streams the xlsx export into a file, which is created or replaced
+     * once the export is complete.
+     *
+     * @return - size of the export in bytes
+     */
+    public long exportAsXlsx(Path path) throws Exception {
+        return _getToFile(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/xlsx", path);
+    }
+
+    /**
+     * Streams the pdf export into the output stream, which is left open.
+     *
+     * @return - size of the export in bytes
+     */
+    public long exportAsPdf(OutputStream out) throws Exception {
+        return _getToOutputStream(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/pdf", out);
+    }
+
+    /**
+     * Streams the pdf export into a file, which is created or replaced
+     * once the export is complete.
+     *
+     * @return - size of the export in bytes
+     */
+    public long exportAsPdf(Path path) throws Exception {
+        return _getToFile(
+                QuipAccess.ENDPOINT + "/threads/" + getId() + "/export/pdf", path);
+    }
+
     public String createExportPdfRequest(String destinationThreadId)
             throws Exception {
-        Form form = Form.form();
-        if (destinationThreadId != null)
-            form.add("destination_thread_id", destinationThreadId);
         JsonObject json = _postToJsonObject(QuipAccess.ENDPOINT + "/threads/"
-                + getId() + "/export/pdf/async", form);
+                + getId() + "/export/pdf/async", _exportPdfForm(destinationThreadId));
         return json.get("request_id").getAsString();
     }
 
+    public CompletableFuture<String> createExportPdfRequestAsync(String destinationThreadId) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/"
+                + getId() + "/export/pdf/async", _exportPdfForm(destinationThreadId))
+                .thenApply(json -> json.get("request_id").getAsString());
+    }
+
     public String retrieveExportPdfResponse(String requestId) throws Exception {
-        List<NameValuePair> params = new ArrayList<>();
-        if (requestId != null)
-            params.add(new BasicNameValuePair("request_id", requestId));
-        JsonObject json = _getToJsonObject(
-                new URIBuilder(QuipAccess.ENDPOINT + "/threads/" + getId()
-                        + "/export/pdf/async").addParameters(params).build());
-        return (json.get("status").getAsString().equals("SUCCESS")
-                || json.get("status").getAsString().equals("PARTIAL_SUCCESS"))
-                ? json.get("pdf_url").getAsString()
-                : null;
+        return _toPdfUrl(_getToJsonObject(_exportPdfUri(requestId)));
+    }
+
+    public CompletableFuture<String> retrieveExportPdfResponseAsync(String requestId) {
+        URI uri;
+        try {
+            uri = _exportPdfUri(requestId);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return _getToJsonObjectAsync(uri).thenApply(QuipThread::_toPdfUrl);
     }
 
     // ============================================
@@ -493,27 +698,28 @@ public class QuipThread extends QuipJsonObject {
                 .getRecentMessages(getId(), count, maxCreatedUsec, null, null, SortedBy.NONE, messageType);
     }
 
+    public CompletableFuture<QuipMessage[]> getRecentMessagesAsync(Integer count,
+                                                                   Instant maxCreatedUsec, MessageType messageType) {
+        return QuipMessage
+                .getRecentMessagesAsync(getId(), count, maxCreatedUsec, null, null, SortedBy.NONE, messageType);
+    }
+
     public QuipMessage addMessage(Frame frame, String content, String parts,
                                   Boolean isSilent, String[] blobIds, String annotationId,
                                   String sectionId) throws Exception {
-        Form form = Form.form().add("thread_id", getId());
-        if (frame != null)
-            form.add("frame", frame._value);
-        if (content != null)
-            form.add("content", content);
-        if (parts != null)
-            form.add("parts", parts);
-        if (isSilent != null)
-            form.add("silent", String.valueOf(isSilent));
-        if (blobIds != null)
-            form.add("attachments",
-                    Stream.of(blobIds).collect(Collectors.joining(",")));
-        if (annotationId != null)
-            form.add("annotation_id", annotationId);
-        if (sectionId != null)
-            form.add("section_id", sectionId);
         return new QuipMessage(
-                _postToJsonObject(QuipAccess.ENDPOINT + "/messages/new", form));
+                _postToJsonObject(QuipAccess.ENDPOINT + "/messages/new",
+                        _addMessageForm(frame, content, parts, isSilent, blobIds,
+                                annotationId, sectionId)));
+    }
+
+    public CompletableFuture<QuipMessage> addMessageAsync(Frame frame, String content, String parts,
+                                                          Boolean isSilent, String[] blobIds, String annotationId,
+                                                          String sectionId) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/messages/new",
+                _addMessageForm(frame, content, parts, isSilent, blobIds,
+                        annotationId, sectionId))
+                .thenApply(QuipMessage::new);
     }
 
     // ============================================
@@ -524,12 +730,23 @@ public class QuipThread extends QuipJsonObject {
         return QuipBlob.getBlob(getId(), blobId);
     }
 
+    public CompletableFuture<byte[]> getBlobAsync(String blobId) {
+        return QuipBlob.getBlobAsync(getId(), blobId);
+    }
+
     public QuipBlob addBlob(File file) throws Exception {
         return new QuipBlob(_postToJsonObject(
                 QuipAccess.ENDPOINT + "/blob/" + getId(),
                 MultipartEntityBuilder.create().addBinaryBody("blob", file)));
     }
 
+    public CompletableFuture<QuipBlob> addBlobAsync(File file) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/blob/" + getId(),
+                MultipartEntityBuilder.create().addBinaryBody("blob", file))
+                .thenApply(QuipBlob::new);
+    }
+
     // ============================================
     // Members
     // ============================================
@@ -541,14 +758,27 @@ public class QuipThread extends QuipJsonObject {
     public boolean addMembers(String[] folderOrUserIds) throws Exception {
         JsonObject object = _postToJsonObject(
                 QuipAccess.ENDPOINT + "/threads/add-members",
-                Form.form().add("thread_id", getId()).add("member_ids", Stream
-                        .of(folderOrUserIds).collect(Collectors.joining(","))));
+                _membersForm(folderOrUserIds));
+        _invalidateFolders(folderOrUserIds);
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
 
+    public CompletableFuture<Boolean> addMemberAsync(String folderOrUserId) {
+        return addMembersAsync(new String[]{folderOrUserId});
+    }
+
+    public CompletableFuture<Boolean> addMembersAsync(String[] folderOrUserIds) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/threads/add-members",
+                _membersForm(folderOrUserIds))
+                .thenApply(object -> {
+                    _invalidateFolders(folderOrUserIds);
+                    return _replaceIfPresent(object);
+                });
+    }
+
     public boolean removeMember(String folderOrUserId) throws Exception {
         return removeMembers(new String[]{folderOrUserId});
     }
@@ -556,18 +786,340 @@ public class QuipThread extends QuipJsonObject {
     public boolean removeMembers(String[] folderOrUserIds) throws Exception {
         JsonObject object = _postToJsonObject(
                 QuipAccess.ENDPOINT + "/folders/remove-members",
-                Form.form().add("thread_id", getId()).add("member_ids", Stream
-                        .of(folderOrUserIds).collect(Collectors.joining(","))));
+                _membersForm(folderOrUserIds));
+        _invalidateFolders(folderOrUserIds);
         if (object == null)
             return false;
         _replace(object);
         return true;
     }
 
+    public CompletableFuture<Boolean> removeMemberAsync(String folderOrUserId) {
+        return removeMembersAsync(new String[]{folderOrUserId});
+    }
+
+    public CompletableFuture<Boolean> removeMembersAsync(String[] folderOrUserIds) {
+        return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/folders/remove-members",
+                _membersForm(folderOrUserIds))
+                .thenApply(object -> {
+                    _invalidateFolders(folderOrUserIds);
+                    return _replaceIfPresent(object);
+                });
+    }
+
     public boolean editShareLinkSettings(Mode mode, Boolean allowExternalAccess,
                                          Boolean showConversation, Boolean showEditHistory,
                                          Boolean allowMessages, Boolean allowComments,
                                          Boolean enableRequestAccess) throws Exception {
+        JsonObject json = _postToJsonObject(
+                QuipAccess.ENDPOINT + "/threads/edit-share-link-settings",
+                _shareLinkSettingsForm(mode, allowExternalAccess, showConversation,
+                        showEditHistory, allowMessages, allowComments, enableRequestAccess));
+        _invalidateCache();
+        return json.get(getId()).getAsString().equals("success");
+    }
+
+    public CompletableFuture<Boolean> editShareLinkSettingsAsync(Mode mode, Boolean allowExternalAccess,
+                                                                 Boolean showConversation, Boolean showEditHistory,
+                                                                 Boolean allowMessages, Boolean allowComments,
+                                                                 Boolean enableRequestAccess) {
+        return _postToJsonObjectAsync(
+                QuipAccess.ENDPOINT + "/threads/edit-share-link-settings",
+                _shareLinkSettingsForm(mode, allowExternalAccess, showConversation,
+                        showEditHistory, allowMessages, allowComments, enableRequestAccess))
+                .thenApply(json -> {
+                    _invalidateCache();
+                    return json.get(getId()).getAsString().equals("success");
+                });
+    }
+
+    // ============================================
+    // Table
+    // ============================================
+
+    public String[] getTableIds() {
+        Dom dom = _getDom();
+        if (dom == null)
+            return null;
+        return dom._tableIds.clone();
+    }
+
+    public QuipTable getTableById(String tableId) {
+        Element table = getTableElementById_(tableId);
+        if (table == null)
+            return null;
+        return new QuipTable(this, table);
+    }
+
+    /**
+     * Same as {@link QuipTable#exportAsCsv(Writer)}, without building the
+     * QuipTable first.
+     */
+    public long exportTableAsCsv(String tableId, Writer out) throws IOException {
+        return QuipTableExport._writeCsv(getTableElementForExport_(tableId), out);
+    }
+
+    public long exportTableAsTsv(String tableId, Writer out) throws IOException {
+        return QuipTableExport._writeTsv(getTableElementForExport_(tableId), out);
+    }
+
+    /**
+     * @see QuipTable#exportAsColumnar(OutputStream)
+     */
+    public long exportTableAsColumnar(String tableId, OutputStream out)
+            throws IOException {
+        return QuipTableExport._writeColumnar(getTableElementForExport_(tableId), out);
+    }
+
+    Element getTableElementById_(String tableId) {
+        Dom dom = _getDom();
+        if (dom == null)
+            return null;
+        return dom._elementsById.get(tableId);
+    }
+
+    /**
+     * Table to export once. The dom the thread already holds is used if
+     * there is one. Otherwise the html is parsed into a copy that is not
+     * kept, so the export does not leave the whole document on the thread,
+     * although the copy is as large while the export runs.
+     */
+    Element getTableElementForExport_(String tableId) throws IOException {
+        Dom dom = _dom;
+        Element table;
+        if (dom != null) {
+            table = dom._elementsById.get(tableId);
+        } else {
+            String html = getHtml();
+            table = (html == null) ? null : Jsoup.parse(html).getElementById(tableId);
+        }
+        if (table == null || !table.tagName().equals("table"))
+            throw new IOException("No table " + tableId + " in the thread.");
+        return table;
+    }
+
+    // ============================================
+    // Private
+    // ============================================
+
+    private Dom _getDom() {
+        Dom dom = _dom;
+        if (dom == null) {
+            String html = getHtml();
+            if (html == null)
+                return null;
+            // racing callers may both parse, either result is fine
+            dom = new Dom(Jsoup.parse(html));
+            _dom = dom;
+        }
+        return dom;
+    }
+
+    /**
+     * Parsed html with its tables and elements indexed by id. It is only
+     * read after construction, so it is shared between threads.
+     */
+    private static class Dom {
+        private final String[] _tableIds;
+        private final Map<String, Element> _elementsById = new HashMap<>();
+
+        Dom(Document document) {
+            _tableIds = document.getElementsByTag("table").stream()
+                    .map(e -> e.attr("id")).toArray(String[]::new);
+            // the first element wins, as getElementsByAttributeValue did
+            for (Element element : document.getElementsByAttribute("id"))
+                _elementsById.putIfAbsent(element.attr("id"), element);
+        }
+    }
+
+    static String _cacheKey(String threadId) {
+        return "thread:" + threadId;
+    }
+
+    // adding a thread to a folder changes the children of the folder
+    private static void _invalidateFolders(String[] folderOrUserIds) {
+        _invalidateCache(Stream.of(folderOrUserIds)
+                .flatMap(id -> Stream.of(QuipFolder._cacheKeys(id)))
+                .toArray(String[]::new));
+    }
+
+    private static URI _threadsUri(String[] threadIds) throws URISyntaxException {
+        return new URIBuilder(QuipAccess.ENDPOINT + "/threads/")
+                .addParameter("ids",
+                        Stream.of(threadIds)
+                                .collect(Collectors.joining(",")))
+                .build();
+    }
+
+    private static URI _recentThreadsUri(Integer count, Instant maxUpdatedUsec, boolean includeHidden)
+            throws URISyntaxException {
+        URIBuilder uriBuilder = new URIBuilder(QuipAccess.ENDPOINT + "/threads/recent");
+        if (Objects.nonNull(count) && count > 0) {
+            uriBuilder.addParameter("count", String.valueOf(count));
+        }
+
+        if (Objects.nonNull(maxUpdatedUsec)) {
+            uriBuilder.addParameter("max_updated_usec", String.valueOf(ChronoUnit.MICROS.between(Instant.EPOCH,
+                    maxUpdatedUsec)));
+        }
+        return uriBuilder.addParameter("include_hidden", String.valueOf(includeHidden)).build();
+    }
+
+    private static QuipThread[] _toThreadArray(JsonObject json) {
+        return json.keySet().stream()
+                .map(id -> new QuipThread(json.get(id).getAsJsonObject()))
+                .toArray(QuipThread[]::new);
+    }
+
+    private static Form _createDocumentForm(String title, String content,
+                                            String[] memberIds, Format format, Type type) {
+        Form form = Form.form();
+        if (title != null)
+            form.add("title", title);
+        if (content != null)
+            form.add("content", content);
+        if (memberIds != null)
+            form.add("member_ids",
+                    Stream.of(memberIds).collect(Collectors.joining(",")));
+        if (format != null)
+            form.add("format", format._value);
+        if (type != null)
+            form.add("type", type._value);
+        return form;
+    }
+
+    private static Form _createChatForm(String title, String message,
+                                        String[] memberIds) {
+        Form form = Form.form();
+        if (title != null)
+            form.add("title", title);
+        if (message != null)
+            form.add("message", message);
+        if (memberIds != null)
+            form.add("member_ids",
+                    Stream.of(memberIds).collect(Collectors.joining(",")));
+        return form;
+    }
+
+    private Form _copyDocumentForm(String title, String values,
+                                   String[] memberIds, String[] folderIds) {
+        Form form = Form.form().add("thread_id", getId());
+        if (title != null)
+            form.add("title", title);
+        if (values != null)
+            form.add("values", values);
+        if (memberIds != null)
+            form.add("member_ids",
+                    Stream.of(memberIds).collect(Collectors.joining(",")));
+        if (folderIds != null)
+            form.add("folder_ids",
+                    Stream.of(folderIds).collect(Collectors.joining(",")));
+        return form;
+    }
+
+    private static void _invalidateCopyTargets(String[] memberIds, String[] folderIds) {
+        if (memberIds != null)
+            _invalidateFolders(memberIds);
+        if (folderIds != null)
+            _invalidateFolders(folderIds);
+    }
+
+    private Form _livePasteForm(String sourceThreadId,
+                                Boolean isDocumentRangeSource,
+                                String[] sourceSectionIdsOrDocumentRange, Location location,
+                                String destinationSectionIdOrDocumentRange,
+                                Boolean isUpdateAutomatic) {
+        Form form = Form.form().add("destination_thread_id", getId());
+
+        if (sourceThreadId != null)
+            form.add("source_thread_id", sourceThreadId);
+        if (isDocumentRangeSource != null)
+            form.add("is_document_range_source",
+                    String.valueOf(isDocumentRangeSource));
+        if (sourceSectionIdsOrDocumentRange != null)
+            form.add(
+                    isDocumentRangeSource
+                            ? "source_document_range"
+                            : "source_section_ids",
+                    Stream.of(sourceSectionIdsOrDocumentRange)
+                            .collect(Collectors.joining(",")));
+        if (location != null) {
+            if (location == Location.DELETE_SECTION
+                    || location == Location.DELETE_DOCUMENT_RANGE)
+                throw new IllegalArgumentException(
+                        "The location " + location + " is not supported.");
+            form.add("location", String.valueOf(location._value));
+        }
+        if (destinationSectionIdOrDocumentRange != null)
+            if (location == Location.AFTER_DOCUMENT_RANGE
+                    || location == Location.BEFORE_DOCUMENT_RANGE
+                    || location == Location.REPLACE_DOCUMENT_RANGE)
+                form.add("destination_document_range",
+                        destinationSectionIdOrDocumentRange);
+            else
+                form.add("destination_section_id",
+                        destinationSectionIdOrDocumentRange);
+        if (isUpdateAutomatic != null)
+            form.add("update_automatic", String.valueOf(isUpdateAutomatic));
+        return form;
+    }
+
+    private Form _lockEditsForm(Boolean isEditsDisabled) {
+        return Form.form().add("thread_id", getId()).add("edits_disabled",
+                String.valueOf(isEditsDisabled));
+    }
+
+    private Form _lockSectionEditsForm(String sectionId, Boolean isEditsDisabled) {
+        return Form.form().add("thread_id", getId())
+                .add("section_id", sectionId).add("edits_disabled",
+                        String.valueOf(isEditsDisabled));
+    }
+
+    private static MultipartEntityBuilder _importFileMultipart(File file, Type type, String title,
+                                                               String[] memberIds) {
+        MultipartEntityBuilder multipart = MultipartEntityBuilder.create()
+                .addBinaryBody("file", file);
+        if (type != null)
+            multipart.addTextBody("type", type._value);
+        if (title != null)
+            multipart.addTextBody("title", title);
+        if (memberIds != null)
+            multipart.addTextBody("member_ids",
+                    Stream.of(memberIds).collect(Collectors.joining(",")));
+        return multipart;
+    }
+
+    private static Form _exportPdfForm(String destinationThreadId) {
+        Form form = Form.form();
+        if (destinationThreadId != null)
+            form.add("destination_thread_id", destinationThreadId);
+        return form;
+    }
+
+    private URI _exportPdfUri(String requestId) throws URISyntaxException {
+        List<NameValuePair> params = new ArrayList<>();
+        if (requestId != null)
+            params.add(new BasicNameValuePair("request_id", requestId));
+        return new URIBuilder(QuipAccess.ENDPOINT + "/threads/" + getId()
+                + "/export/pdf/async").addParameters(params).build();
+    }
+
+    private static String _toPdfUrl(JsonObject json) {
+        return (json.get("status").getAsString().equals("SUCCESS")
+                || json.get("status").getAsString().equals("PARTIAL_SUCCESS"))
+                ? json.get("pdf_url").getAsString()
+                : null;
+    }
+
+    private Form _membersForm(String[] folderOrUserIds) {
+        return Form.form().add("thread_id", getId()).add("member_ids", Stream
+                .of(folderOrUserIds).collect(Collectors.joining(",")));
+    }
+
+    private Form _shareLinkSettingsForm(Mode mode, Boolean allowExternalAccess,
+                                        Boolean showConversation, Boolean showEditHistory,
+                                        Boolean allowMessages, Boolean allowComments,
+                                        Boolean enableRequestAccess) {
         Form form = Form.form().add("thread_id", getId());
         if (mode != null)
             form.add("mode", mode._value);
@@ -585,38 +1137,71 @@ public class QuipThread extends QuipJsonObject {
         if (enableRequestAccess != null)
             form.add("enable_request_access",
                     String.valueOf(enableRequestAccess));
-        JsonObject json = _postToJsonObject(
-                QuipAccess.ENDPOINT + "/threads/edit-share-link-settings",
-                form);
-        return json.get(getId()).getAsString().equals("success");
+        return form;
     }
 
-    // ============================================
-    // Table
-    // ============================================
+    private static URI _searchUri(String query, Integer count,
+                                  Boolean isOnlyMatchTitles) throws URISyntaxException {
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("query", query));
+        if (count != null)
+            params.add(new BasicNameValuePair("count", String.valueOf(count)));
+        if (isOnlyMatchTitles != null)
+            params.add(new BasicNameValuePair("only_match_titles",
+                    String.valueOf(isOnlyMatchTitles)));
+        return new URIBuilder(QuipAccess.ENDPOINT + "/threads/search")
+                .addParameters(params).build();
+    }
 
-    public String[] getTableIds() {
-        String html = getHtml();
-        if (html == null)
-            return null;
-        Elements tables = Jsoup.parse(html).getElementsByTag("table");
-        if (tables == null)
-            return null;
-        return tables.stream().map(e -> e.attr("id")).toArray(String[]::new);
+    private static QuipThread[] _toThreadArray(JsonArray json) {
+        return StreamSupport.stream(json.spliterator(), false)
+                .map(obj -> new QuipThread(obj.getAsJsonObject()))
+                .toArray(QuipThread[]::new);
     }
 
-    public QuipTable getTableById(String tableId) {
-        Element table = getTableElementById_(tableId);
-        if (table == null)
-            return null;
-        return new QuipTable(this, table);
+    private Form _editDocumentForm(String content, Format format,
+                                   Location location, String sectionIdOrDocumentRange) {
+        Form form = Form.form().add("thread_id", getId());
+        if (format != null)
+            form.add("format", format._value);
+        if (content != null)
+            form.add("content", content);
+        if (location != null)
+            form.add("location", String.valueOf(location._value));
+        if (sectionIdOrDocumentRange != null) {
+            if (location == Location.AFTER_SECTION
+                    || location == Location.BEFORE_SECTION
+                    || location == Location.REPLACE_SECTION
+                    || location == Location.DELETE_SECTION)
+                form.add("section_id", sectionIdOrDocumentRange);
+            else if (location == Location.AFTER_DOCUMENT_RANGE
+                    || location == Location.BEFORE_DOCUMENT_RANGE
+                    || location == Location.REPLACE_DOCUMENT_RANGE
+                    || location == Location.DELETE_DOCUMENT_RANGE)
+                form.add("document_range", sectionIdOrDocumentRange);
+        }
+        return form;
     }
 
-    Element getTableElementById_(String tableId) {
-        String html = getHtml();
-        if (html == null)
-            return null;
-        return Jsoup.parse(html).getElementsByAttributeValue("id", tableId)
-                .first();
+    private Form _addMessageForm(Frame frame, String content, String parts,
+                                 Boolean isSilent, String[] blobIds, String annotationId,
+                                 String sectionId) {
+        Form form = Form.form().add("thread_id", getId());
+        if (frame != null)
+            form.add("frame", frame._value);
+        if (content != null)
+            form.add("content", content);
+        if (parts != null)
+            form.add("parts", parts);
+        if (isSilent != null)
+            form.add("silent", String.valueOf(isSilent));
+        if (blobIds != null)
+            form.add("attachments",
+                    Stream.of(blobIds).collect(Collectors.joining(",")));
+        if (annotationId != null)
+            form.add("annotation_id", annotationId);
+        if (sectionId != null)
+            form.add("section_id", sectionId);
+        return form;
     }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.fluent.Executor;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP transport used by {@link QuipClient} to talk to the Quip Automation
+ * API. Each transport owns its own connection pool, so it can be sized for
+ * the number of threads calling the API concurrently, and a non-blocking
+ * client for the *Async methods.
+ *
+ * <pre>
+ * QuipClient.setTransport(QuipTransport.builder()
+ *     .setMaxTotal(128).setMaxPerRoute(64).build());
+ * </pre>
+ */
+public class QuipTransport implements Closeable {
+
+  private final PoolingHttpClientConnectionManager _connectionManager;
+  private final CloseableHttpClient _httpClient;
+  private final Executor _executor;
+  private final HttpClient _asyncClient;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private int _maxTotal = 100;
+    private int _maxPerRoute = 100;
+    private Duration _maxIdleTime = Duration.ofSeconds(30);
+    private Duration _maxKeepAlive = Duration.ofSeconds(30);
+    private Duration _timeToLive = Duration.ofMinutes(5);
+    private Duration _validateAfterInactivity = Duration.ofSeconds(2);
+    private Duration _connectTimeout = Duration.ofSeconds(10);
+    private Duration _socketTimeout = Duration.ofSeconds(60);
+
+    private Builder() {
+    }
+
+    /**
+     * @param maxTotal - max number of pooled connections over all routes.
+     */
+    public Builder setMaxTotal(int maxTotal) {
+      if (maxTotal <= 0)
+        throw new IllegalArgumentException("maxTotal must be positive.");
+      _maxTotal = maxTotal;
+      return this;
+    }
+
+    /**
+     * @param maxPerRoute - max number of pooled connections per host.
+     */
+    public Builder setMaxPerRoute(int maxPerRoute) {
+      if (maxPerRoute <= 0)
+        throw new IllegalArgumentException("maxPerRoute must be positive.");
+      _maxPerRoute = maxPerRoute;
+      return this;
+    }
+
+    /**
+     * @param maxIdleTime - idle connections older than this are evicted by a
+     *                    background thread. null disables the eviction.
+     */
+    public Builder setMaxIdleTime(Duration maxIdleTime) {
+      _maxIdleTime = maxIdleTime;
+      return this;
+    }
+
+    /**
+     * @param maxKeepAlive - upper bound of the keep-alive period. The period
+     *                     sent by the server in the Keep-Alive header is used
+     *                     when it is shorter.
+     */
+    public Builder setMaxKeepAlive(Duration maxKeepAlive) {
+      _maxKeepAlive = Objects.requireNonNull(maxKeepAlive);
+      return this;
+    }
+
+    /**
+     * @param timeToLive - total life time of a pooled connection. null means
+     *                   connections live until they are closed by keep-alive.
+     */
+    public Builder setTimeToLive(Duration timeToLive) {
+      _timeToLive = timeToLive;
+      return this;
+    }
+
+    /**
+     * @param validateAfterInactivity - pooled connections idle longer than
+     *                                this are checked before being reused.
+     */
+    public Builder setValidateAfterInactivity(
+        Duration validateAfterInactivity) {
+      _validateAfterInactivity = Objects
+          .requireNonNull(validateAfterInactivity);
+      return this;
+    }
+
+    public Builder setConnectTimeout(Duration connectTimeout) {
+      _connectTimeout = Objects.requireNonNull(connectTimeout);
+      return this;
+    }
+
+    public Builder setSocketTimeout(Duration socketTimeout) {
+      _socketTimeout = Objects.requireNonNull(socketTimeout);
+      return this;
+    }
+
+    public QuipTransport build() {
+      return new QuipTransport(this);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipTransport(Builder builder) {
+    _connectionManager = (builder._timeToLive == null)
+        ? new PoolingHttpClientConnectionManager()
+        : new PoolingHttpClientConnectionManager(
+            builder._timeToLive.toMillis(), TimeUnit.MILLISECONDS);
+    _connectionManager.setMaxTotal(builder._maxTotal);
+    _connectionManager.setDefaultMaxPerRoute(builder._maxPerRoute);
+    _connectionManager.setValidateAfterInactivity(
+        (int) builder._validateAfterInactivity.toMillis());
+
+    long maxKeepAlive = builder._maxKeepAlive.toMillis();
+    ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+      long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+          .getKeepAliveDuration(response, context);
+      return (duration > 0 && duration < maxKeepAlive)
+          ? duration
+          : maxKeepAlive;
+    };
+
+    HttpClientBuilder clientBuilder = HttpClients.custom()
+        .setConnectionManager(_connectionManager)
+        .setKeepAliveStrategy(keepAlive)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setCookieSpec(CookieSpecs.STANDARD)
+            .setConnectTimeout((int) builder._connectTimeout.toMillis())
+            .setSocketTimeout((int) builder._socketTimeout.toMillis())
+            .build());
+    if (builder._maxIdleTime != null)
+      clientBuilder.evictExpiredConnections().evictIdleConnections(
+          builder._maxIdleTime.toMillis(), TimeUnit.MILLISECONDS);
+    _httpClient = clientBuilder.build();
+    _executor = Executor.newInstance(_httpClient);
+    _asyncClient = HttpClient.newBuilder()
+        .connectTimeout(builder._connectTimeout)
+        .followRedirects(HttpClient.Redirect.NORMAL).build();
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return - statistics of the connection pool, e.g. the number of leased
+   * and available connections.
+   */
+  public PoolStats getPoolStats() {
+    return _connectionManager.getTotalStats();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _httpClient.close();
+  }
+
+  // ============================================
+  // Protected
+  // ============================================
+
+  protected Executor _getExecutor() {
+    return _executor;
+  }
+
+  protected HttpClient _getAsyncClient() {
+    return _asyncClient;
+  }
+}
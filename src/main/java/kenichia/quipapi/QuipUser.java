@@ -15,7 +15,10 @@
  */
 package kenichia.quipapi;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -36,6 +39,15 @@ public class QuipUser extends QuipJsonObject {
     super(json);
   }
 
+  private QuipUser(Fetched fetched) {
+    super(fetched);
+  }
+
+  @Override
+  protected String[] _cacheKeys() {
+    return new String[] { "user:" + getId() };
+  }
+
   // ============================================
   // Properties
   // ============================================
@@ -121,36 +133,81 @@ public class QuipUser extends QuipJsonObject {
         _getToJsonObject(QuipAccess.ENDPOINT + "/users/current"));
   }
 
+  /**
+   * Served from {@link QuipClient#getCache()} when a cache is set and the
+   * argument is a user id.
+   */
   public static QuipUser getUser(String userIdOrEmail) throws Exception {
-    return new QuipUser(
-        _getToJsonObject(QuipAccess.ENDPOINT + "/users/" + userIdOrEmail));
+    // an email would need its own entry that update() cannot find
+    if (userIdOrEmail.indexOf('@') >= 0)
+      return new QuipUser(
+          _fetchJsonObject(QuipAccess.ENDPOINT + "/users/" + userIdOrEmail));
+    return new QuipUser(_getCached("user:" + userIdOrEmail,
+        () -> _fetchJsonObject(
+            QuipAccess.ENDPOINT + "/users/" + userIdOrEmail)));
   }
 
   public static QuipUser[] getUsers(String[] userIdOrEmails) throws Exception {
-    JsonObject json = _getToJsonObject(
-        new URIBuilder(QuipAccess.ENDPOINT + "/users/")
-            .addParameter("ids",
-                Stream.of(userIdOrEmails).collect(Collectors.joining(",")))
-            .build());
-    return json.keySet().stream()
-        .map(id -> new QuipUser(json.get(id).getAsJsonObject()))
-        .toArray(QuipUser[]::new);
+    return _toUserArray(_getToJsonObject(_usersUri(userIdOrEmails)));
+  }
+
+  /**
+   * Batch version of {@link #getUsers(String[])} for any number of ids.
+   *
+   * @see QuipThread#getThreadsBatch(String[])
+   */
+  public static QuipBatchResult<QuipUser> getUsersBatch(
+      String[] userIdOrEmails) throws Exception {
+    return QuipBatch._fetch(userIdOrEmails,
+        ids -> _getToJsonObject(_usersUri(ids)), QuipUser::new);
   }
 
   public static QuipUser[] getContacts() throws Exception {
-    JsonArray json = _getToJsonArray(QuipAccess.ENDPOINT + "/users/contacts");
-    return StreamSupport.stream(json.spliterator(), false)
-        .map(obj -> new QuipUser(obj.getAsJsonObject()))
-        .toArray(QuipUser[]::new);
+    return _toUserArray(
+        _getToJsonArray(QuipAccess.ENDPOINT + "/users/contacts"));
   }
 
+  /**
+   * Skips the download when the server answers 304.
+   */
   public boolean reload() throws Exception {
-    JsonObject object = _getToJsonObject(
-        QuipAccess.ENDPOINT + "/users/" + getId());
-    if (object == null)
-      return false;
-    _replace(object);
-    return true;
+    return _reloadIfModified(QuipAccess.ENDPOINT + "/users/" + getId());
+  }
+
+  // ============================================
+  // Read (Async)
+  // ============================================
+
+  public static CompletableFuture<QuipUser> getCurrentUserAsync() {
+    return _getToJsonObjectAsync(QuipAccess.ENDPOINT + "/users/current")
+        .thenApply(QuipUser::new);
+  }
+
+  public static CompletableFuture<QuipUser> getUserAsync(
+      String userIdOrEmail) {
+    return _getToJsonObjectAsync(QuipAccess.ENDPOINT + "/users/" + userIdOrEmail)
+        .thenApply(QuipUser::new);
+  }
+
+  public static CompletableFuture<QuipUser[]> getUsersAsync(
+      String[] userIdOrEmails) {
+    URI uri;
+    try {
+      uri = _usersUri(userIdOrEmails);
+    } catch (URISyntaxException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return _getToJsonObjectAsync(uri).thenApply(QuipUser::_toUserArray);
+  }
+
+  public static CompletableFuture<QuipUser[]> getContactsAsync() {
+    return _getToJsonArrayAsync(QuipAccess.ENDPOINT + "/users/contacts")
+        .thenApply(QuipUser::_toUserArray);
+  }
+
+  public CompletableFuture<Boolean> reloadAsync() {
+    return _getToJsonObjectAsync(QuipAccess.ENDPOINT + "/users/" + getId())
+        .thenApply(this::_replaceIfPresent);
   }
 
   // ============================================
@@ -158,13 +215,45 @@ public class QuipUser extends QuipJsonObject {
   // ============================================
 
   public boolean update(String profilePictureUrl) throws Exception {
-    Form form = Form.form().add("user_id", getId()).add("profile_picture_url",
-        profilePictureUrl);
     JsonObject object = _postToJsonObject(QuipAccess.ENDPOINT + "/users/update",
-        form);
+        _updateForm(profilePictureUrl));
     if (object == null)
       return false;
     _replace(object);
     return true;
   }
-}
\ No newline at end of file
+
+  public CompletableFuture<Boolean> updateAsync(String profilePictureUrl) {
+    return _postToJsonObjectAsync(QuipAccess.ENDPOINT + "/users/update",
+        _updateForm(profilePictureUrl)).thenApply(this::_replaceIfPresent);
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static URI _usersUri(String[] userIdOrEmails)
+      throws URISyntaxException {
+    return new URIBuilder(QuipAccess.ENDPOINT + "/users/")
+        .addParameter("ids",
+            Stream.of(userIdOrEmails).collect(Collectors.joining(",")))
+        .build();
+  }
+
+  private Form _updateForm(String profilePictureUrl) {
+    return Form.form().add("user_id", getId()).add("profile_picture_url",
+        profilePictureUrl);
+  }
+
+  private static QuipUser[] _toUserArray(JsonArray json) {
+    return StreamSupport.stream(json.spliterator(), false)
+        .map(obj -> new QuipUser(obj.getAsJsonObject()))
+        .toArray(QuipUser[]::new);
+  }
+
+  private static QuipUser[] _toUserArray(JsonObject json) {
+    return json.keySet().stream()
+        .map(id -> new QuipUser(json.get(id).getAsJsonObject()))
+        .toArray(QuipUser[]::new);
+  }
+}
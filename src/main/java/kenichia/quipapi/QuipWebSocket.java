@@ -22,13 +22,23 @@ import java.net.http.WebSocket.Listener;
 import java.util.Objects;
 import java.util.concurrent.CompletionStage;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
+/**
+ * A text message may arrive in several fragments; they are joined before the
+ * message is parsed. One message is requested at a time, and the next only
+ * after the event handler has returned, so a slow handler holds the rest back
+ * in the socket instead of on the heap. See {@link QuipEventStream} for a
+ * connection that is re-opened when it drops.
+ */
 public class QuipWebSocket extends QuipJsonObject implements Listener {
 
-  private WebSocket _webSocket = null;
-  private QuipWebSocketEvent _event = null;
+  private volatile WebSocket _webSocket = null;
+  private volatile QuipWebSocketEvent _event = null;
+  private volatile QuipEventFilter _filter = null;
+  // any text counts, including events the filter drops
+  private volatile long _lastReceivedMillis = System.currentTimeMillis();
+  private final StringBuilder _fragments = new StringBuilder();
 
   // ============================================
   // Constructor
@@ -54,31 +64,71 @@ public class QuipWebSocket extends QuipJsonObject implements Listener {
   // Methods
   // ============================================
 
+  /**
+   * @param filter - events passed to the handler, or null for all of them.
+   *               Other events are dropped before they are parsed.
+   */
+  public void setFilter(QuipEventFilter filter) {
+    _filter = filter;
+  }
+
   public void open(QuipWebSocketEvent event) {
+    open(event, HttpClient.newBuilder().build());
+  }
+
+  /**
+   * @param httpClient - client to open the socket on. Sockets sharing one
+   *                   client also share its selector thread.
+   * @see QuipWebSocketManager
+   */
+  public void open(QuipWebSocketEvent event, HttpClient httpClient) {
     Objects.requireNonNull(event);
+    Objects.requireNonNull(httpClient);
     URI uri = URI.create(getUrl());
     _event = event;
-    _webSocket = HttpClient.newBuilder().build().newWebSocketBuilder()
+    _webSocket = httpClient.newWebSocketBuilder()
         .header("Origin", "http://" + uri.getHost()).buildAsync(uri, this)
         .join();
   }
 
   public void close() throws Exception {
-    if (_webSocket != null) {
-      _webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "ok").get();
+    WebSocket webSocket = _webSocket;
+    if (webSocket != null) {
       _webSocket = null;
       _event = null;
+      webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "ok").get();
     }
   }
 
   public void checkAlive() {
-    if (_webSocket != null) {
+    WebSocket webSocket = _webSocket;
+    if (webSocket != null) {
       JsonObject json = new JsonObject();
       json.addProperty("type", "heartbeat");
-      _webSocket.sendText(json.toString(), true);
+      webSocket.sendText(json.toString(), true);
     }
   }
 
+  /**
+   * @return - when the server last sent anything, whether or not the filter
+   * passed it on.
+   */
+  long _getLastReceivedMillis() {
+    return _lastReceivedMillis;
+  }
+
+  /**
+   * Drops the connection without the closing handshake, for a connection
+   * that no longer answers.
+   */
+  void _abort() {
+    WebSocket webSocket = _webSocket;
+    _webSocket = null;
+    _event = null;
+    if (webSocket != null)
+      webSocket.abort();
+  }
+
   // ============================================
   // Create
   // ============================================
@@ -92,29 +142,87 @@ public class QuipWebSocket extends QuipJsonObject implements Listener {
   // Listener
   // ============================================
 
+  @Override
+  public void onOpen(WebSocket webSocket) {
+    _lastReceivedMillis = System.currentTimeMillis();
+    webSocket.request(1);
+  }
+
   @Override
   public CompletionStage<?> onText(WebSocket webSocket, CharSequence data,
       boolean last) {
     if (QuipClient._isDebugEnabled())
       System.out.println("WebSocket> " + data + ", last=" + last);
 
-    JsonObject json = new Gson().fromJson(data.toString(), JsonObject.class);
+    _lastReceivedMillis = System.currentTimeMillis();
+    // data is only valid until this method returns
+    _fragments.append(data);
+    if (!last) {
+      webSocket.request(1);
+      return null;
+    }
+    String text = _fragments.toString();
+    _fragments.setLength(0);
+    QuipWebSocketEvent event = _event;
+    QuipEventFilter filter = _filter;
+    try {
+      if (event != null && (filter == null || filter.accepts(text)))
+        _dispatch(event, _gson.fromJson(text, JsonObject.class));
+    } catch (RuntimeException e) {
+      // thrown back to the JDK client, it would tear the connection down
+      System.out.println("Error> Cannot handle a websocket event: " + e);
+      if (QuipClient._isDebugEnabled())
+        e.printStackTrace();
+    } finally {
+      // a failing handler or a broken event must not stop the reading
+      webSocket.request(1);
+    }
+    return null;
+  }
+
+  @Override
+  public CompletionStage<?> onClose(WebSocket webSocket, int statusCode,
+      String reason) {
+    QuipWebSocketEvent event = _event;
+    if (event != null)
+      event.onClose(statusCode, reason);
+    return null;
+  }
+
+  @Override
+  public void onError(WebSocket webSocket, Throwable error) {
+    QuipWebSocketEvent event = _event;
+    if (event != null)
+      event.onFailure(error);
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static void _dispatch(QuipWebSocketEvent event, JsonObject json) {
     switch (json.get("type").getAsString()) {
       case "message" :
-        _event.onMessage(new QuipMessage(json.get("message").getAsJsonObject()),
+        JsonObject thread = json.get("thread").getAsJsonObject();
+        if (!thread.has("thread")) {
+          // the event carries the bare thread metadata
+          JsonObject wrapper = new JsonObject();
+          wrapper.add("thread", thread);
+          thread = wrapper;
+        }
+        event.onMessage(new QuipMessage(json.get("message").getAsJsonObject()),
             new QuipUser(json.get("user").getAsJsonObject()),
-            new QuipThread(json.get("thread").getAsJsonObject()));
+            new QuipThread(thread));
         break;
       case "heartbeat" :
-        _event.onHeartbeat();
+        event.onHeartbeat();
         break;
       case "alive" :
-        _event.onAlive(json.get("message").getAsString());
+        event.onAlive(json.get("message").getAsString());
         break;
       case "error" :
-        _event.onError(json.get("debug").getAsString());
+        event.onError(json.get("debug").getAsString());
         break;
     }
-    return Listener.super.onText(webSocket, data, last);
   }
 }
\ No newline at end of file
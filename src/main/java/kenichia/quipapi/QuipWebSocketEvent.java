@@ -29,4 +29,25 @@ public interface QuipWebSocketEvent {
 
   public default void onError(String debug) {
   };
+
+  /**
+   * Called when the server has closed the connection.
+   */
+  public default void onClose(int statusCode, String reason) {
+  };
+
+  /**
+   * Called when the connection has failed, for instance when it was dropped
+   * without a closing handshake.
+   */
+  public default void onFailure(Throwable error) {
+  };
+
+  /**
+   * Called by {@link QuipEventStream} for a message posted while it was
+   * reconnecting. It is fetched with getRecentMessages, so the user and
+   * thread objects of {@link #onMessage} are not available.
+   */
+  public default void onMissedMessage(String threadId, QuipMessage message) {
+  };
 }
\ No newline at end of file
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the websockets of many accounts on one HttpClient, and so on one
+ * selector thread and one executor. Heartbeats are sent from a single timer
+ * wheel: each socket sits in one of its slots, and one slot is visited per
+ * tick, which spreads the heartbeats evenly over the interval. A socket that
+ * has not been heard from for two intervals is dropped and reported to
+ * onFailure. The events of all sockets go to one listener, tagged with the
+ * user id of the socket.
+ *
+ * <pre>
+ * QuipWebSocketManager manager = QuipWebSocketManager.builder().build(listener);
+ * for (String accessToken : accessTokens)
+ *   manager.add(accessToken);
+ * </pre>
+ */
+public class QuipWebSocketManager {
+
+  /**
+   * Receives the events of every socket. It is called on the threads of the
+   * shared executor, so it should hand slow work off.
+   */
+  public interface Listener {
+
+    public default void onMessage(String userId, QuipMessage message,
+        QuipUser user, QuipThread thread) {
+    };
+
+    public default void onHeartbeat(String userId) {
+    };
+
+    public default void onAlive(String userId, String message) {
+    };
+
+    public default void onError(String userId, String debug) {
+    };
+
+    /**
+     * The socket has been dropped from the manager. Add the token again to
+     * reconnect.
+     */
+    public default void onClose(String userId, int statusCode,
+        String reason) {
+    };
+
+    /**
+     * The socket has been dropped from the manager. Add the token again to
+     * reconnect.
+     */
+    public default void onFailure(String userId, Throwable error) {
+    };
+  }
+
+  private final Listener _listener;
+  private final HttpClient _httpClient;
+  private final QuipEventFilter _filter;
+  private final Map<String, Socket> _sockets = new ConcurrentHashMap<>();
+  private final List<Set<Socket>> _wheel;
+  private final long _heartbeatMillis;
+  private final AtomicInteger _nextSlot = new AtomicInteger();
+  private final ScheduledExecutorService _timer;
+  private int _tick = 0;
+
+  // ============================================
+  // Builder
+  // ============================================
+
+  public static class Builder {
+    private Executor _executor = null;
+    private Duration _heartbeatInterval = Duration.ofSeconds(30);
+    private int _wheelSize = 32;
+    private QuipEventFilter _filter = null;
+
+    private Builder() {
+    }
+
+    /**
+     * @param executor - runs the listener and the socket work of the shared
+     *                 HttpClient. The executor of QuipClient by default.
+     */
+    public Builder setExecutor(Executor executor) {
+      _executor = Objects.requireNonNull(executor);
+      return this;
+    }
+
+    /**
+     * @param heartbeatInterval - time between two heartbeats of a socket.
+     *                          Zero disables heartbeats.
+     */
+    public Builder setHeartbeatInterval(Duration heartbeatInterval) {
+      if (heartbeatInterval.isNegative())
+        throw new IllegalArgumentException(
+            "heartbeatInterval must not be negative.");
+      _heartbeatInterval = heartbeatInterval;
+      return this;
+    }
+
+    /**
+     * @param wheelSize - number of slots the heartbeat interval is split
+     *                  into.
+     */
+    public Builder setWheelSize(int wheelSize) {
+      if (wheelSize <= 0)
+        throw new IllegalArgumentException("wheelSize must be positive.");
+      _wheelSize = wheelSize;
+      return this;
+    }
+
+    /**
+     * @param filter - events passed to the listener, for every socket. All
+     *               of them by default.
+     */
+    public Builder setFilter(QuipEventFilter filter) {
+      _filter = filter;
+      return this;
+    }
+
+    public QuipWebSocketManager build(Listener listener) {
+      return new QuipWebSocketManager(this, listener);
+    }
+  }
+
+  // ============================================
+  // Constructor
+  // ============================================
+
+  private QuipWebSocketManager(Builder builder, Listener listener) {
+    _listener = Objects.requireNonNull(listener);
+    _httpClient = HttpClient.newBuilder()
+        .executor((builder._executor != null) ? builder._executor
+            : QuipClient._getExecutorService())
+        .build();
+    _filter = builder._filter;
+    _wheel = new ArrayList<>(builder._wheelSize);
+    for (int i = 0; i < builder._wheelSize; i++)
+      _wheel.add(ConcurrentHashMap.newKeySet());
+    _heartbeatMillis = builder._heartbeatInterval.toMillis();
+    _timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "quip-websocket-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long tickMillis = _heartbeatMillis / _wheel.size();
+    if (tickMillis > 0)
+      _timer.scheduleAtFixedRate(this::_onTick, tickMillis, tickMillis,
+          TimeUnit.MILLISECONDS);
+  }
+
+  // ============================================
+  // Public
+  // ============================================
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Opens a websocket for the account of the token. A socket already open
+   * for the same user is replaced once the new one is open, and kept if it
+   * fails to open.
+   *
+   * @return - user id of the account.
+   */
+  public String add(String accessToken) throws Exception {
+    QuipWebSocket webSocket = QuipClient.callWithAccessToken(accessToken,
+        QuipWebSocket::create);
+    Socket socket = new Socket(webSocket.getUserId(), webSocket,
+        Math.floorMod(_nextSlot.getAndIncrement(), _wheel.size()));
+    webSocket.setFilter(_filter);
+    webSocket.open(socket, _httpClient);
+    Socket previous = _sockets.put(socket._userId, socket);
+    _wheel.get(socket._slot).add(socket);
+    // closed or failed while it was being registered
+    if (socket._isDropped)
+      _drop(socket);
+    if (previous != null)
+      _close(previous);
+    return socket._userId;
+  }
+
+  /**
+   * Closes the socket of the user, if there is one.
+   */
+  public void remove(String userId) throws Exception {
+    Socket socket = _sockets.remove(userId);
+    if (socket != null)
+      _close(socket);
+  }
+
+  public Set<String> getUserIds() {
+    return Collections.unmodifiableSet(_sockets.keySet());
+  }
+
+  /**
+   * Closes every socket and stops the heartbeats.
+   */
+  public void close() throws Exception {
+    _timer.shutdownNow();
+    Exception failure = null;
+    for (String userId : _sockets.keySet()) {
+      try {
+        remove(userId);
+      } catch (Exception e) {
+        // close the others anyway
+        if (failure == null)
+          failure = e;
+      }
+    }
+    if (failure != null)
+      throw failure;
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  // runs on the timer, whose later ticks a thrown exception would cancel
+  private void _onTick() {
+    Set<Socket> slot = _wheel.get(_tick);
+    _tick = (_tick + 1) % _wheel.size();
+    long now = System.currentTimeMillis();
+    for (Socket socket : slot) {
+      try {
+        // read from the socket, as the filter may drop the answers
+        if (now - socket._webSocket._getLastReceivedMillis() > 2
+            * _heartbeatMillis)
+          _fail(socket, new IllegalStateException(
+              "No answer to heartbeats, dropped."));
+        else
+          socket._webSocket.checkAlive();
+      } catch (RuntimeException e) {
+        _fail(socket, e);
+      }
+    }
+  }
+
+  private void _close(Socket socket) throws Exception {
+    _wheel.get(socket._slot).remove(socket);
+    socket._webSocket.close();
+  }
+
+  private void _drop(Socket socket) {
+    socket._isDropped = true;
+    _wheel.get(socket._slot).remove(socket);
+    _sockets.remove(socket._userId, socket);
+  }
+
+  // drops a socket that no longer works, without waiting for the server
+  private void _fail(Socket socket, Throwable error) {
+    _drop(socket);
+    socket._webSocket._abort();
+    try {
+      _listener.onFailure(socket._userId, error);
+    } catch (RuntimeException e) {
+      if (QuipClient._isDebugEnabled())
+        e.printStackTrace();
+    }
+  }
+
+  // ============================================
+  // Socket
+  // ============================================
+
+  private class Socket implements QuipWebSocketEvent {
+    private final String _userId;
+    private final QuipWebSocket _webSocket;
+    private final int _slot;
+    private volatile boolean _isDropped = false;
+
+    Socket(String userId, QuipWebSocket webSocket, int slot) {
+      _userId = userId;
+      _webSocket = webSocket;
+      _slot = slot;
+    }
+
+    @Override
+    public void onMessage(QuipMessage message, QuipUser user,
+        QuipThread thread) {
+      _listener.onMessage(_userId, message, user, thread);
+    }
+
+    @Override
+    public void onHeartbeat() {
+      _listener.onHeartbeat(_userId);
+    }
+
+    @Override
+    public void onAlive(String message) {
+      _listener.onAlive(_userId, message);
+    }
+
+    @Override
+    public void onError(String debug) {
+      _listener.onError(_userId, debug);
+    }
+
+    @Override
+    public void onClose(int statusCode, String reason) {
+      _drop(this);
+      _listener.onClose(_userId, statusCode, reason);
+    }
+
+    @Override
+    public void onFailure(Throwable error) {
+      _drop(this);
+      _listener.onFailure(_userId, error);
+    }
+  }
+}
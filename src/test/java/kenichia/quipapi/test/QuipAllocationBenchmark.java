@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipUser;
+
+/**
+ * Measures the bytes allocated by the calling thread per request. The first
+ * row reproduces what every response used to do, parsing with a new Gson.
+ * The last row is a full QuipUser.getUser call against a local stub server.
+ */
+public class QuipAllocationBenchmark {
+
+  private static final int ITERATIONS = 20_000;
+  private static final int ROUND_TRIPS = 500;
+  private static final String BODY = "{\"name\":\"Kenichi Ando\","
+      + "\"id\":\"USER1\",\"affinity\":0.0,\"desktop_folder_id\":\"FOLDER1\","
+      + "\"archive_folder_id\":\"FOLDER2\",\"starred_folder_id\":\"FOLDER3\","
+      + "\"private_folder_id\":\"FOLDER4\",\"trash_folder_id\":\"FOLDER5\","
+      + "\"shared_folder_ids\":[\"FOLDER6\",\"FOLDER7\"],"
+      + "\"group_folder_ids\":[],\"profile_picture_url\":\"https://x/y.png\","
+      + "\"chat_thread_ids\":[\"THREAD1\"]}";
+
+  public static void main(String[] args) throws Exception {
+    Gson shared = new Gson();
+    System.out.printf("%-28s %14s%n", "case", "bytes/op");
+    _print("parse, new Gson per call",
+        () -> new Gson().fromJson(BODY, JsonObject.class));
+    _print("parse, shared Gson", () -> shared.fromJson(BODY, JsonObject.class));
+
+    try (QuipStubServer server = new QuipStubServer()) {
+      server.on("/1/users/", exchange -> QuipStubServer.respond(exchange, 200,
+          BODY));
+      QuipClient.ENDPOINT = server.getEndpoint();
+      QuipClient.setAccessToken("stub");
+      _print("QuipUser.getUser round trip", ROUND_TRIPS,
+          () -> QuipUser.getUser("USER1"));
+      QuipClient.getTransport().close();
+    }
+  }
+
+  private static void _print(String name, Callable<?> op) throws Exception {
+    _print(name, ITERATIONS, op);
+  }
+
+  private static void _print(String name, int calls, Callable<?> op)
+      throws Exception {
+    System.out.printf("%-28s %,14d%n", name, _bytesPerOp(calls, op));
+  }
+
+  private static long _bytesPerOp(int calls, Callable<?> op)
+      throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long id = Thread.currentThread().getId();
+    for (int i = 0; i < calls / 10; i++)
+      op.call();
+    long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < calls; i++)
+      op.call();
+    return (threads.getThreadAllocatedBytes(id) - before) / calls;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipFolder;
+import kenichia.quipapi.QuipMessage;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+
+public class QuipAsyncTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static final AtomicInteger threadRequests = new AtomicInteger();
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/THREAD1", exchange -> {
+      // reject the first request to force a retry
+      if (threadRequests.incrementAndGet() == 1) {
+        exchange.getResponseHeaders().set("Retry-After", "0");
+        QuipStubServer.respond(exchange, 429, "{}");
+      } else {
+        QuipStubServer.respond(exchange, 200,
+            "{\"thread\":{\"id\":\"THREAD1\",\"title\":\"Stub\"},"
+                + "\"html\":\"<p>stub</p>\"}");
+      }
+    });
+    server.on("/1/users/", exchange -> QuipStubServer.respond(exchange, 200,
+        "{\"USER1\":{\"id\":\"USER1\"},\"USER2\":{\"id\":\"USER2\"}}"));
+    server.on("/1/messages/THREAD1", exchange -> QuipStubServer
+        .respond(exchange, 200, "[{\"id\":\"MSG1\",\"text\":\"hello\"}]"));
+    server.on("/1/folders/", exchange -> QuipStubServer.respond(exchange,
+        404, "{\"error\":\"Not Found\"}"));
+    server.on("/1/threads/new-document", exchange -> QuipStubServer.respond(
+        exchange, 200, "{\"thread\":{\"id\":\"THREAD2\"},\"html\":\""
+            + new String(exchange.getRequestBody().readAllBytes(),
+                StandardCharsets.UTF_8).contains("title=Doc")
+            + "\"}"));
+    server.on("/1/threads/THREAD2/export/docx", exchange -> {
+      exchange.sendResponseHeaders(200, 3);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(new byte[] { 1, 2, 3 });
+      }
+    });
+    server.on("/1/blob/THREAD2", exchange -> QuipStubServer.respond(exchange,
+        200, "{\"id\":\""
+            + exchange.getRequestHeaders().getFirst("Content-Type")
+                .startsWith("multipart/form-data")
+            + "\"}"));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void getThreadAsyncRetries() throws Exception {
+    QuipThread thread = QuipThread.getThreadAsync("THREAD1").get(10,
+        TimeUnit.SECONDS);
+    assertEquals("THREAD1", thread.getId());
+    assertEquals("<p>stub</p>", thread.getHtml());
+    assertTrue(threadRequests.get() >= 2);
+  }
+
+  @Test
+  void combineAsyncCalls() throws Exception {
+    CompletableFuture<QuipUser[]> users = QuipUser
+        .getUsersAsync(new String[]{"USER1", "USER2"});
+    CompletableFuture<QuipMessage[]> messages = QuipMessage
+        .getRecentMessagesAsync("THREAD1", 10, null, null, null,
+            QuipThread.SortedBy.NONE, null);
+    CompletableFuture.allOf(users, messages).get(10, TimeUnit.SECONDS);
+    assertEquals(2, users.get().length);
+    assertEquals("hello", messages.get()[0].getText());
+  }
+
+  @Test
+  void writeCallsAsync(@TempDir Path dir) throws Exception {
+    QuipThread thread = QuipThread
+        .createDocumentAsync("Doc", "<p>doc</p>", null, null, null)
+        .get(10, TimeUnit.SECONDS);
+    assertEquals("THREAD2", thread.getId());
+    // the stub echoes whether the form arrived
+    assertEquals("true", thread.getHtml());
+    assertArrayEquals(new byte[] { 1, 2, 3 },
+        thread.exportAsDocxAsync().get(10, TimeUnit.SECONDS));
+    Path file = Files.write(dir.resolve("blob.txt"), new byte[] { 4 });
+    assertEquals("true",
+        thread.addBlobAsync(file.toFile()).get(10, TimeUnit.SECONDS).getId());
+  }
+
+  @Test
+  void errorCompletesExceptionally() {
+    ExecutionException e = assertThrows(ExecutionException.class,
+        () -> QuipFolder.getFolderAsync("MISSING", false)
+            .get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof HttpResponseException);
+    assertEquals(404,
+        ((HttpResponseException) e.getCause()).getStatusCode());
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import kenichia.quipapi.QuipBatchResult;
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipThread;
+
+public class QuipBatchTest {
+  private static final int BATCH_SIZE = 50;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static final AtomicInteger maxIdsPerRequest = new AtomicInteger();
+  private static final AtomicInteger inFlight = new AtomicInteger();
+  private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/", exchange -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        _respond(exchange);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+    QuipClient.setBatchSize(BATCH_SIZE);
+  }
+
+  // BAD ids make the whole request fail, GONE ids are left out, QUOTA ids
+  // get an error body as for an auth or quota problem, and TOKEN ids are
+  // titled after the token of the request
+  private static void _respond(HttpExchange exchange) throws IOException {
+    String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(),
+        StandardCharsets.UTF_8);
+    String[] ids = query.replace("ids=", "").split(",");
+    maxIdsPerRequest.accumulateAndGet(ids.length, Math::max);
+    StringBuilder body = new StringBuilder("{");
+    try {
+      // long enough for the requests to overlap
+      Thread.sleep(20);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (String id : ids) {
+      if (id.startsWith("QUOTA")) {
+        QuipStubServer.respond(exchange, 200,
+            "{\"error\":\"Over quota\"}");
+        return;
+      }
+      if (id.startsWith("BAD")) {
+        QuipStubServer.respond(exchange, 400, "{\"error\":\"Bad id\"}");
+        return;
+      }
+      if (id.startsWith("GONE"))
+        continue;
+      if (body.length() > 1)
+        body.append(',');
+      body.append('"').append(id).append("\":{\"thread\":{\"id\":\"")
+          .append(id).append('"');
+      if (id.startsWith("TOKEN"))
+        body.append(",\"title\":\"")
+            .append(exchange.getRequestHeaders().getFirst("Authorization"))
+            .append('"');
+      body.append("}}");
+    }
+    QuipStubServer.respond(exchange, 200, body.append('}').toString());
+  }
+
+  @Test
+  void batchWorkersUseTheCallerToken() throws Exception {
+    String[] ids = new String[BATCH_SIZE * 3];
+    for (int i = 0; i < ids.length; i++)
+      ids[i] = "TOKEN" + i;
+    QuipBatchResult<QuipThread> result = QuipClient.callWithAccessToken(
+        "other", () -> QuipThread.getThreadsBatch(ids));
+    assertTrue(result.isSuccessful());
+    for (QuipThread thread : result.getResults())
+      assertEquals("Bearer other", thread.getTitle());
+    // and the default token again outside the call
+    assertEquals("Bearer stub", QuipThread
+        .getThreadsBatch(new String[] { "TOKEN1" }).get("TOKEN1").getTitle());
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.setBatchSize(100);
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void getThreadsBatch() throws Exception {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 240; i++)
+      ids.add("THREAD" + i);
+    ids.add(17, "BAD1");
+    ids.add(130, "GONE1");
+    ids.add("THREAD3");
+
+    QuipBatchResult<QuipThread> result = QuipThread
+        .getThreadsBatch(ids.toArray(new String[0]));
+
+    assertTrue(maxIdsPerRequest.get() <= BATCH_SIZE);
+    assertFalse(result.isSuccessful());
+    assertEquals(ids, result.getIds());
+    List<QuipThread> threads = result.getResults();
+    assertEquals(ids.size(), threads.size());
+    for (int i = 0; i < ids.size(); i++) {
+      if (ids.get(i).startsWith("THREAD"))
+        assertEquals(ids.get(i), threads.get(i).getId());
+    }
+    assertNull(result.get("BAD1"));
+    assertEquals(List.of("BAD1", "GONE1"),
+        new ArrayList<>(result.getFailures().keySet()));
+    assertEquals(400, ((HttpResponseException) result.getFailures()
+        .get("BAD1")).getStatusCode());
+    assertTrue(result.getFailures()
+        .get("GONE1") instanceof NoSuchElementException);
+    assertTrue(maxInFlight.get() <= QuipClient.getBatchParallelism(),
+        "in flight " + maxInFlight.get());
+  }
+
+  @Test
+  void errorBodyIsNotBisected() throws Exception {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE; i++)
+      ids.add("QUOTA" + i);
+    server.resetHits();
+    QuipBatchResult<QuipThread> result = QuipThread
+        .getThreadsBatch(ids.toArray(new String[0]));
+    assertEquals(1, server.getHits("/1/threads/"));
+    assertEquals(BATCH_SIZE, result.getFailures().size());
+    assertFalse(result.getFailures()
+        .get("QUOTA0") instanceof HttpResponseException);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipCache;
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipFolder;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+
+public class QuipCacheTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  // holds the GET of SLOW while set
+  private static volatile CountDownLatch _arrived;
+  private static volatile CountDownLatch _release;
+
+  private static String _thread(String id) {
+    return "{\"thread\":{\"id\":\"" + id + "\",\"title\":\"" + id
+        + "\"},\"html\":\"<p>" + "x".repeat(100) + "</p>\"}";
+  }
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/edit-document", exchange -> QuipStubServer
+        .respond(exchange, 200, _thread("THREAD1")));
+    server.on("/1/threads/", exchange -> {
+      String path = exchange.getRequestURI().getPath();
+      QuipStubServer.respond(exchange, 200,
+          _thread(path.substring(path.lastIndexOf('/') + 1)));
+    });
+    server.on("/1/threads/lock-edits", exchange -> QuipStubServer
+        .respond(exchange, 200, "{}"));
+    server.on("/1/threads/SLOW", exchange -> {
+      CountDownLatch release = _release;
+      if (release != null) {
+        _arrived.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      QuipStubServer.respond(exchange, 200, _thread("SLOW"));
+    });
+    // titled after the token it is read with
+    server.on("/1/threads/TOKEN", exchange -> QuipStubServer.respond(exchange,
+        200, "{\"thread\":{\"id\":\"TOKEN\",\"title\":\""
+            + exchange.getRequestHeaders().getFirst("Authorization")
+            + "\"},\"html\":\"<p>x</p>\"}"));
+    server.on("/1/users/", exchange -> QuipStubServer.respond(exchange, 200,
+        "{\"id\":\"USER1\",\"name\":\"User\"}"));
+    server.on("/1/folders/", exchange -> QuipStubServer.respond(exchange, 200,
+        "{\"folder\":{\"id\":\"FOLDER1\"},\"member_ids\":[],\"children\":[]}"));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @BeforeEach
+  void reset() {
+    server.resetHits();
+  }
+
+  @AfterEach
+  void disableCache() {
+    QuipClient.setCache(null);
+  }
+
+  @Test
+  void hitsAndMisses() throws Exception {
+    QuipCache cache = QuipCache.builder().build();
+    QuipClient.setCache(cache);
+    for (int i = 0; i < 3; i++) {
+      assertEquals("THREAD1", QuipThread.getThread("THREAD1").getId());
+      assertEquals("USER1", QuipUser.getUser("USER1").getId());
+      assertEquals("FOLDER1", QuipFolder.getFolder("FOLDER1", false).getId());
+    }
+    // the chats variant of a folder is a separate entry
+    QuipFolder.getFolder("FOLDER1", true);
+    assertEquals(1, server.getHits("/1/threads/"));
+    assertEquals(1, server.getHits("/1/users/"));
+    assertEquals(2, server.getHits("/1/folders/"));
+    assertEquals(6, cache.getHitCount());
+    assertEquals(4, cache.getMissCount());
+    assertEquals(4, cache.size());
+  }
+
+  @Test
+  void disabledByDefault() throws Exception {
+    QuipThread.getThread("THREAD1");
+    QuipThread.getThread("THREAD1");
+    assertEquals(2, server.getHits("/1/threads/"));
+  }
+
+  @Test
+  void expiresAfterTimeToLive() throws Exception {
+    QuipClient.setCache(QuipCache.builder()
+        .setTimeToLive(Duration.ofMillis(50)).build());
+    QuipThread.getThread("THREAD1");
+    QuipThread.getThread("THREAD1");
+    Thread.sleep(100);
+    QuipThread.getThread("THREAD1");
+    assertEquals(2, server.getHits("/1/threads/"));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsed() throws Exception {
+    long weight = _thread("THREAD1").length();
+    QuipCache cache = QuipCache.builder().setMaxWeight(weight * 2).build();
+    QuipClient.setCache(cache);
+    QuipThread.getThread("THREAD1");
+    QuipThread.getThread("THREAD2");
+    QuipThread.getThread("THREAD1");
+    // THREAD2 is now the least recently used
+    QuipThread.getThread("THREAD3");
+    assertEquals(1, cache.getEvictionCount());
+    assertTrue(cache.getWeight() <= weight * 2);
+    server.resetHits();
+    QuipThread.getThread("THREAD1");
+    QuipThread.getThread("THREAD3");
+    assertEquals(0, server.getHits("/1/threads/"));
+    QuipThread.getThread("THREAD2");
+    assertEquals(1, server.getHits("/1/threads/"));
+  }
+
+  @Test
+  void invalidatedByWrite() throws Exception {
+    QuipCache cache = QuipCache.builder().build();
+    QuipClient.setCache(cache);
+    QuipThread thread = QuipThread.getThread("THREAD1");
+    thread.editDocument("<p>y</p>", null, null, null);
+    assertEquals(0, cache.size());
+    QuipThread.getThread("THREAD1");
+    assertEquals(2, server.getHits("/1/threads/"));
+  }
+
+  @Test
+  void scopedByAccessToken() throws Exception {
+    QuipCache cache = QuipCache.builder().build();
+    QuipClient.setCache(cache);
+    for (int i = 0; i < 2; i++) {
+      assertEquals("Bearer stub", QuipThread.getThread("TOKEN").getTitle());
+      assertEquals("Bearer other", QuipClient.callWithAccessToken("other",
+          () -> QuipThread.getThread("TOKEN")).getTitle());
+    }
+    assertEquals(2, server.getHits("/1/threads/TOKEN"));
+    assertEquals(2, cache.size());
+    // a write with one token drops the entries of both
+    QuipThread.getThread("TOKEN").lockEdits(true);
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  void weighsResponseLength() throws Exception {
+    QuipCache cache = QuipCache.builder().build();
+    QuipClient.setCache(cache);
+    QuipThread.getThread("THREAD1");
+    QuipThread.getThread("THREAD22");
+    assertEquals(_thread("THREAD1").length() + _thread("THREAD22").length(),
+        cache.getWeight());
+  }
+
+  @Test
+  void loadRacingInvalidationIsNotCached() throws Exception {
+    QuipThread thread = QuipThread.getThread("SLOW");
+    QuipCache cache = QuipCache.builder().build();
+    QuipClient.setCache(cache);
+    _arrived = new CountDownLatch(1);
+    _release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<QuipThread> load = executor
+          .submit(() -> QuipThread.getThread("SLOW"));
+      assertTrue(_arrived.await(10, TimeUnit.SECONDS));
+      // the write lands while the GET is still on the wire
+      thread.lockEdits(true);
+      _release.countDown();
+      assertEquals("SLOW", load.get().getId());
+      assertEquals(0, cache.size());
+      assertEquals(0, cache.getWeight());
+    } finally {
+      _release.countDown();
+      _release = null;
+      executor.shutdown();
+    }
+    // the next load is cached again
+    QuipThread.getThread("SLOW");
+    assertEquals(1, cache.size());
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipThread;
+
+public class QuipCoalescingTest {
+  private static final int CALLERS = 20;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/", exchange -> {
+      // slow enough that every caller arrives while the first is in flight
+      try {
+        Thread.sleep(500);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      String path = exchange.getRequestURI().getPath();
+      String id = path.substring(path.lastIndexOf('/') + 1);
+      if (id.equals("MISSING"))
+        QuipStubServer.respond(exchange, 404, "{\"error\":\"Not Found\"}");
+      else
+        QuipStubServer.respond(exchange, 200,
+            "{\"thread\":{\"id\":\"" + id + "\"}}");
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @BeforeEach
+  void reset() {
+    server.resetHits();
+  }
+
+  @Test
+  void concurrentGetsShareOneRequest() throws Exception {
+    List<Future<QuipThread>> results = _getConcurrently(
+        i -> (i % 2 == 0) ? "THREAD1" : "THREAD2");
+    for (int i = 0; i < CALLERS; i++)
+      assertEquals((i % 2 == 0) ? "THREAD1" : "THREAD2",
+          results.get(i).get().getId());
+    assertEquals(2, server.getHits("/1/threads/"));
+
+    // once answered, the next call goes to the server again
+    QuipThread.getThread("THREAD1");
+    assertEquals(3, server.getHits("/1/threads/"));
+  }
+
+  @Test
+  void failureReachesEveryWaiter() throws Exception {
+    List<Future<QuipThread>> results = _getConcurrently(i -> "MISSING");
+    for (Future<QuipThread> result : results) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof HttpResponseException);
+        assertEquals(404,
+            ((HttpResponseException) e.getCause()).getStatusCode());
+        continue;
+      }
+      throw new AssertionError("expected a 404");
+    }
+    assertEquals(1, server.getHits("/1/threads/"));
+  }
+
+  private interface IdOf {
+    String get(int caller);
+  }
+
+  private static List<Future<QuipThread>> _getConcurrently(IdOf idOf)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<QuipThread>> results = new ArrayList<>();
+      for (int i = 0; i < CALLERS; i++) {
+        String id = idOf.get(i);
+        Callable<QuipThread> call = () -> {
+          start.await();
+          return QuipThread.getThread(id);
+        };
+        results.add(executor.submit(call));
+      }
+      start.countDown();
+      for (Future<QuipThread> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          // checked by the caller
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
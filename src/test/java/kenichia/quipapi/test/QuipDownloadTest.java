@@ -0,0 +1,231 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import kenichia.quipapi.QuipBlob;
+import kenichia.quipapi.QuipBlobDownloader;
+import kenichia.quipapi.QuipClient;
+
+public class QuipDownloadTest {
+  private static final byte[] BLOB = new byte[3 * 1024 * 1024 + 17];
+  private static final int CHUNK_SIZE = 128 * 1024;
+
+  private static QuipStubServer server;
+  private static final AtomicInteger rangeRequests = new AtomicInteger();
+  private static volatile int failFrom = Integer.MAX_VALUE;
+  private static String originalEndpoint;
+
+  @BeforeAll
+  static void init() throws Exception {
+    new Random(42).nextBytes(BLOB);
+    server = new QuipStubServer();
+    // chunked transfer without a Content-Length
+    server.on("/1/blob/THREAD1/BLOB1", exchange -> {
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = exchange.getResponseBody()) {
+        for (int i = 0; i < BLOB.length; i += 64 * 1024)
+          out.write(BLOB, i, Math.min(64 * 1024, BLOB.length - i));
+      }
+    });
+    server.on("/1/blob/THREAD1/RANGED", exchange -> _ranged(exchange, true));
+    server.on("/1/blob/THREAD1/UNTAGGED",
+        exchange -> _ranged(exchange, false));
+    // ignores the range, and drops the connection halfway through
+    server.on("/1/blob/THREAD1/TRUNCATED", exchange -> {
+      exchange.sendResponseHeaders(200, BLOB.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(BLOB, 0, BLOB.length / 2);
+      out.flush();
+      exchange.close();
+    });
+    server.on("/1/blob/THREAD1/MISSING", exchange -> QuipStubServer
+        .respond(exchange, 404, "{\"error\":\"Not Found\"}"));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  private static void _ranged(HttpExchange exchange, boolean hasValidator)
+      throws IOException {
+    // Range: bytes=first-last
+    String[] range = exchange.getRequestHeaders().getFirst("Range")
+        .replace("bytes=", "").split("-");
+    int first = Integer.parseInt(range[0]);
+    int last = Math.min(Integer.parseInt(range[1]), BLOB.length - 1);
+    if (first > 0 && first >= failFrom) {
+      QuipStubServer.respond(exchange, 500, "{}");
+      return;
+    }
+    rangeRequests.incrementAndGet();
+    exchange.getResponseHeaders().set("Content-Range",
+        "bytes " + first + "-" + last + "/" + BLOB.length);
+    if (hasValidator)
+      exchange.getResponseHeaders().set("ETag", "\"v1\"");
+    exchange.sendResponseHeaders(206, last - first + 1);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(BLOB, first, last - first + 1);
+    }
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void getBlobToByteArray() throws Exception {
+    assertArrayEquals(BLOB, QuipBlob.getBlob("THREAD1", "BLOB1"));
+  }
+
+  @Test
+  void getBlobToFile(@TempDir Path dir) throws Exception {
+    Path path = dir.resolve("blob.bin");
+    assertEquals(BLOB.length, QuipBlob.getBlob("THREAD1", "BLOB1", path));
+    assertArrayEquals(BLOB, Files.readAllBytes(path));
+
+    Path missing = dir.resolve("missing.bin");
+    assertThrows(HttpResponseException.class,
+        () -> QuipBlob.getBlob("THREAD1", "MISSING", missing));
+    assertFalse(Files.exists(missing));
+  }
+
+  @Test
+  void failedDownloadKeepsExistingFile(@TempDir Path dir) throws Exception {
+    Path path = dir.resolve("blob.bin");
+    Files.write(path, new byte[] { 1, 2, 3 });
+    assertThrows(HttpResponseException.class,
+        () -> QuipBlob.getBlob("THREAD1", "MISSING", path));
+    assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(path));
+    // no temporary file is left behind
+    try (var files = Files.list(dir)) {
+      assertEquals(1, files.count());
+    }
+
+    assertEquals(BLOB.length, QuipBlob.getBlob("THREAD1", "BLOB1", path));
+    assertArrayEquals(BLOB, Files.readAllBytes(path));
+  }
+
+  @Test
+  void getBlobToOutputStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(BLOB.length, QuipBlob.getBlob("THREAD1", "BLOB1", out));
+    assertArrayEquals(BLOB, out.toByteArray());
+  }
+
+  @Test
+  void downloaderResumes(@TempDir Path dir) throws Exception {
+    QuipBlobDownloader downloader = QuipBlobDownloader.builder()
+        .setChunkSize(CHUNK_SIZE).setParallelism(4).build();
+    Path path = dir.resolve("blob.bin");
+    Files.write(path, new byte[] { 1, 2, 3 });
+    Path checkpoint = dir.resolve("blob.bin"
+        + QuipBlobDownloader.CHECKPOINT_SUFFIX);
+    Path part = dir.resolve("blob.bin" + QuipBlobDownloader.PART_SUFFIX);
+    int chunks = (BLOB.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+    // the second half of the blob fails as if the connection dropped
+    failFrom = BLOB.length / 2;
+    assertThrows(HttpResponseException.class,
+        () -> downloader.download("THREAD1", "RANGED", path));
+    assertTrue(Files.exists(checkpoint));
+    assertTrue(Files.exists(part));
+    // the existing file is untouched until the download is complete
+    assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(path));
+    Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(checkpoint)) {
+      props.load(in);
+    }
+    int done = props.getProperty("done").split(",").length;
+    assertTrue(done > 0 && done < chunks, "done " + done);
+
+    failFrom = Integer.MAX_VALUE;
+    rangeRequests.set(0);
+    assertEquals(BLOB.length, downloader.download("THREAD1", "RANGED", path));
+    assertArrayEquals(BLOB, Files.readAllBytes(path));
+    assertFalse(Files.exists(checkpoint));
+    assertFalse(Files.exists(part));
+    // the probe plus the chunks that were missing
+    assertEquals(1 + chunks - done, rangeRequests.get());
+  }
+
+  @Test
+  void downloaderRestartsWithoutValidator(@TempDir Path dir)
+      throws Exception {
+    QuipBlobDownloader downloader = QuipBlobDownloader.builder()
+        .setChunkSize(CHUNK_SIZE).setParallelism(4).build();
+    Path path = dir.resolve("blob.bin");
+    int chunks = (BLOB.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    failFrom = BLOB.length / 2;
+    try {
+      assertThrows(HttpResponseException.class,
+          () -> downloader.download("THREAD1", "UNTAGGED", path));
+    } finally {
+      failFrom = Integer.MAX_VALUE;
+    }
+    rangeRequests.set(0);
+    assertEquals(BLOB.length,
+        downloader.download("THREAD1", "UNTAGGED", path));
+    assertArrayEquals(BLOB, Files.readAllBytes(path));
+    // nothing tells the blob is unchanged, so every chunk is fetched again
+    assertEquals(1 + chunks, rangeRequests.get());
+  }
+
+  @Test
+  void downloaderWithoutRangeSupportKeepsFileOnFailure(@TempDir Path dir)
+      throws Exception {
+    Path path = dir.resolve("blob.bin");
+    Files.write(path, new byte[] { 1, 2, 3 });
+    assertThrows(IOException.class, () -> QuipBlobDownloader.builder()
+        .build().download("THREAD1", "TRUNCATED", path));
+    assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(path));
+    try (var files = Files.list(dir)) {
+      assertEquals(1, files.count());
+    }
+  }
+
+  @Test
+  void downloaderWithoutRangeSupport(@TempDir Path dir) throws Exception {
+    Path path = dir.resolve("blob.bin");
+    assertEquals(BLOB.length, QuipBlobDownloader.builder().build()
+        .download("THREAD1", "BLOB1", path));
+    assertArrayEquals(BLOB, Files.readAllBytes(path));
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipEventDispatcher;
+import kenichia.quipapi.QuipEventDispatcher.OverflowPolicy;
+import kenichia.quipapi.QuipMessage;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+import kenichia.quipapi.QuipWebSocketEvent;
+
+public class QuipEventDispatcherTest {
+  private static final int COUNT = 20;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static QuipMessage[] messages;
+  private static QuipUser user;
+  private static QuipThread thread;
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/messages/THREAD1",
+        exchange -> QuipStubServer.respond(exchange, 200,
+            IntStream.range(0, COUNT)
+                .mapToObj(i -> String.format("{\"id\":\"MSG%02d\"}", i))
+                .collect(Collectors.joining(",", "[", "]"))));
+    server.on("/1/threads/THREAD1", exchange -> QuipStubServer
+        .respond(exchange, 200, "{\"thread\":{\"id\":\"THREAD1\"}}"));
+    server.on("/1/users/USER1", exchange -> QuipStubServer.respond(exchange,
+        200, "{\"id\":\"USER1\",\"name\":\"user\"}"));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+    messages = QuipMessage.getRecentMessages("THREAD1", COUNT, null, null,
+        null, QuipThread.SortedBy.ASC, null);
+    user = QuipUser.getUser("USER1");
+    thread = QuipThread.getThread("THREAD1");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void threadsRunInParallelInOrder() throws Exception {
+    // two thread ids that land on different lanes
+    String slow = "A";
+    String fast = "B";
+    assertTrue(Math.floorMod(slow.hashCode(), 4) != Math
+        .floorMod(fast.hashCode(), 4));
+    CountDownLatch fastDone = new CountDownLatch(COUNT);
+    List<String> slowIds = Collections.synchronizedList(new ArrayList<>());
+    List<String> fastIds = Collections.synchronizedList(new ArrayList<>());
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(4).build(new QuipWebSocketEvent() {
+          @Override
+          public void onMissedMessage(String threadId, QuipMessage message) {
+            if (threadId.equals(slow)) {
+              // waits for the other thread, which must not be stuck behind
+              _await(fastDone);
+              slowIds.add(message.getId());
+            } else {
+              fastIds.add(message.getId());
+              fastDone.countDown();
+            }
+          }
+        });
+    for (QuipMessage message : messages) {
+      dispatcher.onMissedMessage(slow, message);
+      dispatcher.onMissedMessage(fast, message);
+    }
+    dispatcher.close();
+    assertEquals(_ids(COUNT), slowIds);
+    assertEquals(_ids(COUNT), fastIds);
+  }
+
+  @Test
+  void dropOldest() throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(1).setQueueCapacity(2)
+        .setOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+        .build(_blockingHandler(entered, release, ids));
+    dispatcher.onMissedMessage("THREAD1", messages[0]);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < 6; i++)
+      dispatcher.onMissedMessage("THREAD1", messages[i]);
+    release.countDown();
+    dispatcher.close();
+    assertEquals(3, dispatcher.getDroppedCount());
+    assertEquals(Arrays.asList("MSG00", "MSG04", "MSG05"), ids);
+  }
+
+  @Test
+  void spillToDisk(@TempDir Path dir) throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    List<String> users = Collections.synchronizedList(new ArrayList<>());
+    QuipWebSocketEvent blocking = _blockingHandler(entered, release, ids);
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(1).setQueueCapacity(2)
+        .setOverflowPolicy(OverflowPolicy.SPILL_TO_DISK)
+        .setSpillDirectory(dir).build(new QuipWebSocketEvent() {
+          @Override
+          public void onMessage(QuipMessage message, QuipUser user,
+              QuipThread thread) {
+            users.add(user.getId() + "/" + thread.getId());
+            blocking.onMissedMessage(thread.getId(), message);
+          }
+        });
+    dispatcher.onMessage(messages[0], user, thread);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < COUNT; i++)
+      dispatcher.onMessage(messages[i], user, thread);
+    release.countDown();
+    dispatcher.close();
+    assertEquals(COUNT - 3, dispatcher.getSpilledCount());
+    assertEquals(_ids(COUNT), ids);
+    assertEquals(Collections.nCopies(COUNT, "USER1/THREAD1"), users);
+    try (var files = Files.list(dir)) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  void handlerErrorsKeepTheLaneRunning() throws Exception {
+    List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(1).setQueueCapacity(1)
+        .setOverflowPolicy(OverflowPolicy.BLOCK)
+        .build(new QuipWebSocketEvent() {
+          @Override
+          public void onMissedMessage(String threadId, QuipMessage message) {
+            ids.add(message.getId());
+            if (ids.size() == 1)
+              throw new AssertionError("handler failed");
+          }
+        });
+    // would block for good behind a dead worker
+    for (int i = 0; i < 4; i++)
+      dispatcher.onMissedMessage("THREAD1", messages[i]);
+    dispatcher.close();
+    assertEquals(_ids(4), ids);
+  }
+
+  @Test
+  void spillErrorsKeepTheLaneRunning(@TempDir Path dir) throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(1).setQueueCapacity(1)
+        .setOverflowPolicy(OverflowPolicy.SPILL_TO_DISK)
+        .setSpillDirectory(dir)
+        .build(_blockingHandler(entered, release, ids));
+    dispatcher.onMissedMessage("THREAD1", messages[0]);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    dispatcher.onMissedMessage("THREAD1", messages[1]);
+    // spilled, but cannot be read back as a message
+    dispatcher.onMissedMessage("THREAD1", null);
+    dispatcher.onMissedMessage("THREAD1", messages[2]);
+    release.countDown();
+    dispatcher.close();
+    assertEquals(1, dispatcher.getFailedCount());
+    assertEquals(Arrays.asList("MSG00", "MSG01", "MSG02"), ids);
+  }
+
+  @Test
+  void spillFailureIsCountedNotThrown(@TempDir Path dir) throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(1).setQueueCapacity(1)
+        .setOverflowPolicy(OverflowPolicy.SPILL_TO_DISK)
+        .setSpillDirectory(dir.resolve("missing"))
+        .build(_blockingHandler(entered, release, ids));
+    dispatcher.onMissedMessage("THREAD1", messages[0]);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < 4; i++)
+      dispatcher.onMissedMessage("THREAD1", messages[i]);
+    release.countDown();
+    dispatcher.close();
+    assertEquals(2, dispatcher.getFailedCount());
+    assertEquals(Arrays.asList("MSG00", "MSG01"), ids);
+  }
+
+  @Test
+  void deletesItsOwnSpillDirectory() throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    QuipEventDispatcher dispatcher = QuipEventDispatcher.builder()
+        .setLaneCount(1).setQueueCapacity(1)
+        .setOverflowPolicy(OverflowPolicy.SPILL_TO_DISK)
+        .build(_blockingHandler(entered, release, ids));
+    Path dir = dispatcher.getSpillDirectory();
+    dispatcher.onMissedMessage("THREAD1", messages[0]);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < 4; i++)
+      dispatcher.onMissedMessage("THREAD1", messages[i]);
+    assertTrue(Files.isDirectory(dir));
+    release.countDown();
+    dispatcher.close();
+    assertEquals(_ids(4), ids);
+    assertFalse(Files.exists(dir));
+  }
+
+  private static QuipWebSocketEvent _blockingHandler(CountDownLatch entered,
+      CountDownLatch release, List<String> ids) {
+    return new QuipWebSocketEvent() {
+      @Override
+      public void onMissedMessage(String threadId, QuipMessage message) {
+        entered.countDown();
+        _await(release);
+        ids.add(message.getId());
+      }
+    };
+  }
+
+  private static void _await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static List<String> _ids(int count) {
+    return IntStream.range(0, count).mapToObj(i -> String.format("MSG%02d", i))
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipEventFilter;
+import kenichia.quipapi.QuipMessage;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+import kenichia.quipapi.QuipWebSocket;
+import kenichia.quipapi.QuipWebSocketEvent;
+
+public class QuipEventFilterTest {
+
+  @Test
+  void acceptsByTypeThreadAndAuthor() {
+    QuipEventFilter filter = QuipEventFilter.builder()
+        .setTypes("message", "alive").setThreadIds("THREAD1", "THREAD2")
+        .setAuthorIds("USER1").build();
+    assertTrue(filter.accepts(_event("THREAD1", "USER1")));
+    assertTrue(filter.accepts(_event("THREAD2", "USER1")));
+    assertFalse(filter.accepts(_event("THREAD3", "USER1")));
+    assertFalse(filter.accepts(_event("THREAD1", "USER2")));
+    assertTrue(filter.accepts("{\"type\":\"alive\",\"message\":\"ok\"}"));
+    assertFalse(filter.accepts("{\"type\":\"heartbeat\"}"));
+    // the type may come last, and the thread may be wrapped
+    assertTrue(filter.accepts("{\"message\":{\"id\":\"MSG1\"},"
+        + "\"thread\":{\"thread\":{\"id\":\"THREAD1\"}},"
+        + "\"user\":{\"id\":\"USER1\"},\"type\":\"message\"}"));
+    // a message without the thread cannot pass a thread condition
+    assertFalse(filter.accepts(
+        "{\"type\":\"message\",\"message\":{},\"user\":{\"id\":\"USER1\"}}"));
+    // broken text is left for the parser to report
+    assertTrue(filter.accepts("{\"type\":"));
+
+    QuipEventFilter all = QuipEventFilter.builder().build();
+    assertTrue(all.accepts(_event("THREAD3", "USER2")));
+    assertTrue(all.accepts("{\"type\":\"heartbeat\"}"));
+  }
+
+  @Test
+  void dropsFilteredEventsOnTheSocket() throws Exception {
+    try (QuipWebSocketStubServer webSocketServer = new QuipWebSocketStubServer(
+        new QuipWebSocketStubServer.Handler() {
+          @Override
+          public void onOpen(QuipWebSocketStubServer.Peer peer)
+              throws IOException {
+            peer.sendText(_event("THREAD2", "USER1"));
+            peer.sendText(_event("THREAD1", "USER1"));
+            peer.sendText("{\"type\":\"heartbeat\"}");
+            peer.sendText(_event("THREAD1", "USER2"));
+            peer.sendText("{\"type\":\"error\",\"debug\":\"last\"}");
+          }
+        });
+        QuipStubServer server = new QuipStubServer()) {
+      server.on("/1/websockets/new", exchange -> QuipStubServer.respond(
+          exchange, 200, "{\"user_id\":\"USER1\",\"url\":\""
+              + webSocketServer.getUrl("/") + "\"}"));
+      String originalEndpoint = QuipClient.ENDPOINT;
+      QuipClient.ENDPOINT = server.getEndpoint();
+      QuipClient.setAccessToken("stub");
+      try {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        QuipWebSocket webSocket = QuipWebSocket.create();
+        webSocket.setFilter(QuipEventFilter.builder()
+            .setTypes("message", "error").setThreadIds("THREAD1").build());
+        webSocket.open(new QuipWebSocketEvent() {
+          @Override
+          public void onMessage(QuipMessage message, QuipUser user,
+              QuipThread thread) {
+            events.add(thread.getId() + "/" + user.getId());
+          }
+
+          @Override
+          public void onHeartbeat() {
+            events.add("heartbeat");
+          }
+
+          @Override
+          public void onError(String debug) {
+            events.add(debug);
+            done.countDown();
+          }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        webSocket.close();
+        assertEquals(Arrays.asList("THREAD1/USER1", "THREAD1/USER2", "last"),
+            events);
+      } finally {
+        QuipClient.ENDPOINT = originalEndpoint;
+      }
+    }
+  }
+
+  @Test
+  void keepsReadingAfterTheHandlerThrows() throws Exception {
+    try (QuipWebSocketStubServer webSocketServer = new QuipWebSocketStubServer(
+        new QuipWebSocketStubServer.Handler() {
+          @Override
+          public void onOpen(QuipWebSocketStubServer.Peer peer)
+              throws IOException {
+            peer.sendText(_event("THREAD1", "USER1"));
+            peer.sendText("{\"type\":\"message\"}");
+            peer.sendText(_event("THREAD2", "USER1"));
+            peer.sendText("{\"type\":\"error\",\"debug\":\"last\"}");
+          }
+        });
+        QuipStubServer server = new QuipStubServer()) {
+      server.on("/1/websockets/new", exchange -> QuipStubServer.respond(
+          exchange, 200, "{\"user_id\":\"USER1\",\"url\":\""
+              + webSocketServer.getUrl("/") + "\"}"));
+      String originalEndpoint = QuipClient.ENDPOINT;
+      QuipClient.ENDPOINT = server.getEndpoint();
+      QuipClient.setAccessToken("stub");
+      try {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        QuipWebSocket webSocket = QuipWebSocket.create();
+        webSocket.open(new QuipWebSocketEvent() {
+          @Override
+          public void onMessage(QuipMessage message, QuipUser user,
+              QuipThread thread) {
+            events.add(thread.getId());
+            if (thread.getId().equals("THREAD1"))
+              throw new IllegalStateException("handler failed");
+          }
+
+          @Override
+          public void onError(String debug) {
+            events.add(debug);
+            done.countDown();
+          }
+        });
+        // a throwing handler and an event missing its fields are skipped
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        webSocket.close();
+        assertEquals(Arrays.asList("THREAD1", "THREAD2", "last"), events);
+      } finally {
+        QuipClient.ENDPOINT = originalEndpoint;
+      }
+    }
+  }
+
+  private static String _event(String threadId, String userId) {
+    return "{\"type\":\"message\",\"message\":{\"id\":\"MSG1\",\"text\":\""
+        + "x".repeat(1000) + "\"},\"user\":{\"id\":\"" + userId
+        + "\"},\"thread\":{\"id\":\"" + threadId + "\"}}";
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipEventStream;
+import kenichia.quipapi.QuipMessage;
+import kenichia.quipapi.QuipRetryPolicy;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+import kenichia.quipapi.QuipWebSocketEvent;
+
+public class QuipEventStreamTest {
+  private static final long BASE_USEC = 1_600_000_000_000_000L;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static QuipWebSocketStubServer webSocketServer;
+
+  @BeforeAll
+  static void init() throws Exception {
+    webSocketServer = new QuipWebSocketStubServer(
+        new QuipWebSocketStubServer.Handler() {
+          @Override
+          public void onOpen(QuipWebSocketStubServer.Peer peer)
+              throws IOException {
+            if (peer.getNumber() == 1) {
+              peer.sendFragmented(
+                  _event(_message("MSG1", 0, "x".repeat(100_000))), 3);
+              peer.sendClose(1000);
+            } else if (peer.getNumber() == 3) {
+              peer.sendText(_event(_message("MSG3", 20, "live")));
+            }
+            // the second never answers, so only the heartbeats can tell
+          }
+        });
+
+    server = new QuipStubServer();
+    server.on("/1/websockets/new", exchange -> QuipStubServer.respond(
+        exchange, 200, "{\"user_id\":\"USER1\",\"url\":\""
+            + webSocketServer.getUrl("/") + "\"}"));
+    // MSG1 was delivered live, MSG2 was posted while disconnected
+    server.on("/1/messages/THREAD1", exchange -> QuipStubServer.respond(
+        exchange, 200, "[" + _message("MSG1", 0, "") + ","
+            + _message("MSG2", 10, "missed") + "]"));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() throws IOException {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+    webSocketServer.close();
+  }
+
+  @Test
+  void reassemblesReconnectsAndBackfills() throws Exception {
+    Map<String, String> live = new ConcurrentHashMap<>();
+    Map<String, String> missed = new ConcurrentHashMap<>();
+    CountDownLatch delivered = new CountDownLatch(3);
+    // handler calls in progress, which must never overlap
+    AtomicInteger inside = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    QuipEventStream stream = QuipEventStream.builder()
+        .setReconnectPolicy(QuipRetryPolicy.builder()
+            .setInitialBackoff(Duration.ofMillis(10)).build())
+        .setHeartbeatInterval(Duration.ofMillis(200)).build();
+    stream.open(new QuipWebSocketEvent() {
+      @Override
+      public void onMessage(QuipMessage message, QuipUser user,
+          QuipThread thread) {
+        _enter();
+        live.put(message.getId(), message.getText());
+        delivered.countDown();
+        _exit();
+      }
+
+      @Override
+      public void onMissedMessage(String threadId, QuipMessage message) {
+        _enter();
+        missed.put(message.getId(), message.getText());
+        delivered.countDown();
+        _exit();
+      }
+
+      @Override
+      public void onClose(int statusCode, String reason) {
+        _enter();
+        _exit();
+      }
+
+      private void _enter() {
+        if (inside.incrementAndGet() > 1)
+          overlaps.incrementAndGet();
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      private void _exit() {
+        inside.decrementAndGet();
+      }
+    });
+
+    assertTrue(delivered.await(10, TimeUnit.SECONDS));
+    stream.close();
+    // closed by the server, then silent, then live
+    assertTrue(webSocketServer.getConnectionCount() >= 3);
+    // the first message came in three fragments
+    assertEquals(100_000, live.get("MSG1").length());
+    assertEquals("live", live.get("MSG3"));
+    assertEquals(Map.of("MSG2", "missed"), missed);
+    assertEquals(0, overlaps.get());
+  }
+
+  @Test
+  void failedOpenCanBeRetried() throws Exception {
+    try (QuipStubServer unreachable = new QuipStubServer()) {
+      // nothing listens on port 1
+      unreachable.on("/1/websockets/new", exchange -> QuipStubServer.respond(
+          exchange, 200,
+          "{\"user_id\":\"USER1\",\"url\":\"ws://127.0.0.1:1/\"}"));
+      QuipClient.ENDPOINT = unreachable.getEndpoint();
+      QuipEventStream stream = QuipEventStream.builder().build();
+      QuipWebSocketEvent event = new QuipWebSocketEvent() {
+      };
+      for (int i = 0; i < 2; i++) {
+        Exception e = assertThrows(Exception.class, () -> stream.open(event));
+        // not "already open"
+        assertFalse(e instanceof IllegalStateException);
+      }
+      stream.close();
+    } finally {
+      QuipClient.ENDPOINT = server.getEndpoint();
+    }
+  }
+
+  private static String _event(String message) {
+    return "{\"type\":\"message\",\"message\":" + message
+        + ",\"user\":{\"id\":\"USER1\"},\"thread\":{\"id\":\"THREAD1\"}}";
+  }
+
+  private static String _message(String id, long offsetUsec, String text) {
+    return "{\"id\":\"" + id + "\",\"text\":\"" + text
+        + "\",\"created_usec\":" + (BASE_USEC + offsetUsec) + "}";
+  }
+}
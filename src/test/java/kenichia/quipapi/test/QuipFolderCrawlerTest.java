@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipFolderCrawler;
+
+public class QuipFolderCrawlerTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  // folder id to child ids, thread ids start with T
+  private static final Map<String, List<String>> tree = new HashMap<>();
+
+  @BeforeAll
+  static void init() throws Exception {
+    // B shares C with A, and C points back at A
+    _folder("ROOT", "A", "B", "T1");
+    _folder("A", "C", "T2");
+    _folder("B", "C", "T2");
+    _folder("C", "A", "T3");
+    // three levels of ten folders each below WIDE
+    List<String> wide = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      List<String> children = new ArrayList<>();
+      for (int j = 0; j < 10; j++) {
+        children.add("W" + i + "_" + j);
+        tree.put("W" + i + "_" + j, List.of());
+      }
+      tree.put("W" + i, children);
+      wide.add("W" + i);
+    }
+    tree.put("WIDE", wide);
+
+    server = new QuipStubServer();
+    server.on("/1/folders/", exchange -> {
+      JsonObject body = new JsonObject();
+      for (String id : _ids(exchange.getRequestURI().getRawQuery())) {
+        JsonObject folder = new JsonObject();
+        JsonObject meta = new JsonObject();
+        meta.addProperty("id", id);
+        folder.add("folder", meta);
+        JsonArray children = new JsonArray();
+        for (String child : tree.get(id)) {
+          JsonObject node = new JsonObject();
+          node.addProperty(child.startsWith("T") ? "thread_id" : "folder_id",
+              child);
+          children.add(node);
+        }
+        folder.add("children", children);
+        body.add(id, folder);
+      }
+      QuipStubServer.respond(exchange, 200, body.toString());
+    });
+    server.on("/1/threads/", exchange -> {
+      JsonObject body = new JsonObject();
+      for (String id : _ids(exchange.getRequestURI().getRawQuery())) {
+        JsonObject thread = new JsonObject();
+        JsonObject meta = new JsonObject();
+        meta.addProperty("id", id);
+        thread.add("thread", meta);
+        body.add(id, thread);
+      }
+      QuipStubServer.respond(exchange, 200, body.toString());
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @BeforeEach
+  void reset() {
+    server.resetHits();
+  }
+
+  @Test
+  void sharedFoldersAndCycles() throws Exception {
+    List<String> edges = new ArrayList<>();
+    List<String> threads = new ArrayList<>();
+    QuipFolderCrawler.Summary summary = QuipFolderCrawler.builder().build()
+        .crawl(new String[] { "ROOT" },
+            (folderId, node) -> edges.add(folderId + ">" + node.getId()),
+            thread -> threads.add(thread.getId()));
+
+    assertEquals(List.of("ROOT", "A", "B", "C"),
+        new ArrayList<>(summary.getFolderIds()));
+    assertEquals(List.of("ROOT>A", "ROOT>B", "ROOT>T1", "A>C", "A>T2", "B>C",
+        "B>T2", "C>A", "C>T3"), edges);
+    assertEquals(Set.of("C"), summary.getSharedFolderIds());
+    assertEquals(Set.of("A"), summary.getCycleFolderIds());
+    assertEquals(List.of("T1", "T2", "T3"), threads);
+    assertEquals(0, summary.getFailures().size());
+    // one request per level
+    assertEquals(3, server.getHits("/1/folders/"));
+  }
+
+  @Test
+  void oneRequestPerLevel() throws Exception {
+    List<String> edges = new ArrayList<>();
+    QuipFolderCrawler.Summary summary = QuipFolderCrawler.builder().build()
+        .crawl(new String[] { "WIDE" },
+            (folderId, node) -> edges.add(node.getId()));
+    assertEquals(111, summary.getFolderIds().size());
+    assertEquals(110, edges.size());
+    assertEquals(3, server.getHits("/1/folders/"));
+    assertEquals(0, server.getHits("/1/threads/"));
+
+    server.resetHits();
+    summary = QuipFolderCrawler.builder().setMaxDepth(0).build()
+        .crawl(new String[] { "WIDE" }, (folderId, node) -> {
+        });
+    assertEquals(11, summary.getFolderIds().size());
+    assertEquals(1, server.getHits("/1/folders/"));
+  }
+
+  private static void _folder(String id, String... children) {
+    tree.put(id, List.of(children));
+  }
+
+  private static String[] _ids(String rawQuery) {
+    String query = URLDecoder.decode(rawQuery, StandardCharsets.UTF_8);
+    for (String param : query.split("&"))
+      if (param.startsWith("ids="))
+        return param.substring(4).split(",");
+    return new String[0];
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipFolderIndex;
+
+public class QuipFolderIndexTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  // folder id to child ids, thread ids start with T
+  private static final Map<String, List<String>> tree = new ConcurrentHashMap<>();
+  private static final Map<String, Long> updatedUsec = new ConcurrentHashMap<>();
+  // folders answered with 403
+  private static final Set<String> forbidden = ConcurrentHashMap.newKeySet();
+  // status of every folder request when not 200
+  private static volatile int failure = 200;
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/folders/", exchange -> {
+      String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(),
+          StandardCharsets.UTF_8);
+      if (failure != 200) {
+        QuipStubServer.respond(exchange, failure, "{}");
+        return;
+      }
+      JsonObject body = new JsonObject();
+      for (String param : query.split("&")) {
+        if (!param.startsWith("ids="))
+          continue;
+        for (String id : param.substring(4).split(",")) {
+          if (forbidden.contains(id)) {
+            QuipStubServer.respond(exchange, 403, "{}");
+            return;
+          }
+          if (!tree.containsKey(id))
+            continue;
+          JsonObject folder = new JsonObject();
+          JsonObject meta = new JsonObject();
+          meta.addProperty("id", id);
+          meta.addProperty("updated_usec", updatedUsec.get(id));
+          folder.add("folder", meta);
+          JsonArray children = new JsonArray();
+          for (String child : tree.get(id)) {
+            JsonObject node = new JsonObject();
+            node.addProperty(
+                child.startsWith("T") ? "thread_id" : "folder_id", child);
+            children.add(node);
+          }
+          folder.add("children", children);
+          body.add(id, folder);
+        }
+      }
+      QuipStubServer.respond(exchange, 200, body.toString());
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void refreshPersistAndQuery(@TempDir Path dir) throws Exception {
+    // C points back at A
+    _folder("ROOT", 1, "A", "B", "T1");
+    _folder("A", 1, "C", "T2");
+    _folder("B", 1, "C", "T3");
+    _folder("C", 1, "A", "T4");
+    Path path = dir.resolve("folders.index");
+
+    QuipFolderIndex index = new QuipFolderIndex(path);
+    assertEquals(4, index.refresh("ROOT"));
+    assertEquals(Set.of("A", "B", "C"), index.getFolderIds("ROOT"));
+    assertEquals(Set.of("T1", "T2", "T3", "T4"), index.getThreadIds("ROOT"));
+    assertEquals(Set.of("T2", "T4"), index.getThreadIds("A"));
+    assertEquals(Set.of("A", "B"), index.getParentFolderIds("C"));
+    assertEquals(Set.of("C"), index.getChildFolderIds("B"));
+
+    // a fresh instance answers from the file alone
+    server.resetHits();
+    QuipFolderIndex reopened = new QuipFolderIndex(path);
+    assertEquals(Set.of("ROOT"), reopened.getRootFolderIds());
+    assertEquals(Set.of("T2", "T4"), reopened.getThreadIds("A"));
+    assertEquals(Set.of("B"), reopened.getParentFolderIds("T3"));
+    assertEquals(0, server.getHits("/1/folders/"));
+
+    // only B changed: it drops C and gains D
+    _folder("B", 2, "D", "T3");
+    _folder("D", 1, "T5");
+    assertEquals(2, reopened.refresh());
+    assertEquals(Set.of("A"), reopened.getParentFolderIds("C"));
+    assertEquals(Set.of("T3", "T5"), reopened.getThreadIds("B"));
+
+    // a subtree no longer linked from anywhere is dropped
+    _folder("ROOT", 2, "B", "T1");
+    _folder("C", 1, "T4");
+    reopened.refresh();
+    assertFalse(reopened.containsFolder("A"));
+    assertFalse(reopened.containsThread("T2"));
+    assertEquals(Set.of("T1", "T3", "T5"), reopened.getThreadIds("ROOT"));
+
+    reopened.removeRoot("ROOT");
+    assertTrue(reopened.getThreadIds("ROOT").isEmpty());
+    assertTrue(new QuipFolderIndex(path).getRootFolderIds().isEmpty());
+  }
+
+  @Test
+  void dropsOnlyFoldersThatAreGone(@TempDir Path dir) throws Exception {
+    _folder("R2", 1, "G1", "G2");
+    _folder("G1", 1, "T21");
+    _folder("G2", 1, "G3", "T22");
+    _folder("G3", 1, "T23");
+    QuipFolderIndex index = new QuipFolderIndex(dir.resolve("folders.index"));
+    index.refresh("R2");
+    assertEquals(Set.of("T21", "T22", "T23"), index.getThreadIds("R2"));
+
+    // a server error says nothing about the folders, all of them are kept
+    failure = 500;
+    try {
+      assertEquals(0, index.refresh());
+    } finally {
+      failure = 200;
+    }
+    assertEquals(Set.of("T21", "T22", "T23"), index.getThreadIds("R2"));
+
+    // G1 is deleted and G3 is no longer shared
+    tree.remove("G1");
+    forbidden.add("G3");
+    try {
+      index.refresh();
+    } finally {
+      forbidden.remove("G3");
+    }
+    assertFalse(index.containsFolder("G1"));
+    assertFalse(index.containsFolder("G3"));
+    assertEquals(Set.of("T22"), index.getThreadIds("R2"));
+  }
+
+  private static void _folder(String id, long usec, String... children) {
+    tree.put(id, List.of(children));
+    updatedUsec.put(id, usec);
+  }
+}
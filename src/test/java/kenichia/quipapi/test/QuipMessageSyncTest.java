@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipMessageSync;
+
+public class QuipMessageSyncTest {
+  private static final long BASE_USEC = 1_600_000_000_000_000L;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  // message id to updated_usec
+  private static final Map<String, Long> messages = new ConcurrentHashMap<>();
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/messages/THREAD1", exchange -> {
+      int count = 0;
+      long updatedSince = 0;
+      for (NameValuePair param : URLEncodedUtils
+          .parse(exchange.getRequestURI(), StandardCharsets.UTF_8)) {
+        if (param.getName().equals("count"))
+          count = Integer.parseInt(param.getValue());
+        if (param.getName().equals("updated_since_usec"))
+          updatedSince = Long.parseLong(param.getValue());
+      }
+      long since = updatedSince;
+      String body = messages.entrySet().stream()
+          .filter(e -> e.getValue() >= since)
+          .sorted(Map.Entry.<String, Long> comparingByValue()
+              .thenComparing(Map.Entry.comparingByKey()))
+          .limit(count)
+          .map(e -> "{\"id\":\"" + e.getKey() + "\",\"created_usec\":"
+              + BASE_USEC + ",\"updated_usec\":" + e.getValue() + "}")
+          .collect(Collectors.joining(",", "[", "]"));
+      QuipStubServer.respond(exchange, 200, body);
+    });
+    // more than a page of messages with one updated_usec
+    server.on("/1/messages/THREAD2", exchange -> {
+      int count = 0;
+      long updatedSince = 0;
+      for (NameValuePair param : URLEncodedUtils
+          .parse(exchange.getRequestURI(), StandardCharsets.UTF_8)) {
+        if (param.getName().equals("count"))
+          count = Integer.parseInt(param.getValue());
+        if (param.getName().equals("updated_since_usec"))
+          updatedSince = Long.parseLong(param.getValue());
+      }
+      QuipStubServer.respond(exchange, 200, IntStream
+          .range(0, (updatedSince <= BASE_USEC) ? 15 : 0).limit(count)
+          .mapToObj(i -> "{\"id\":\"SAME" + i + "\",\"updated_usec\":"
+              + BASE_USEC + "}")
+          .collect(Collectors.joining(",", "[", "]")));
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void syncOnlyNewAndChanged(@TempDir Path dir) throws Exception {
+    // pairs of messages share an updated_usec, so pairs straddle pages
+    for (int i = 0; i < 45; i++)
+      messages.put(String.format("MSG%03d", i), BASE_USEC + (i / 2) * 10);
+    Path path = dir.resolve("sync.properties");
+
+    QuipMessageSync sync = new QuipMessageSync(path, 10);
+    assertNull(sync.getHighWaterMark("THREAD1"));
+    List<String> first = _sync(sync);
+    assertEquals(45, first.size());
+    assertEquals(45, first.stream().distinct().count());
+    assertNotNull(sync.getHighWaterMark("THREAD1"));
+
+    // a new instance picks the mark up from the file
+    sync = new QuipMessageSync(path, 10);
+    assertEquals(List.of(), _sync(sync));
+
+    long newest = messages.values().stream().max(Comparator.naturalOrder())
+        .get();
+    messages.put("MSG003", newest + 5);
+    messages.put("MSG100", newest + 5);
+    messages.put("MSG101", newest + 7);
+    assertEquals(List.of("MSG003", "MSG100", "MSG101"), _sync(sync));
+    assertEquals(List.of(), _sync(sync));
+  }
+
+  @Test
+  void countsSkippedTimestamps(@TempDir Path dir) throws Exception {
+    QuipMessageSync sync = new QuipMessageSync(dir.resolve("sync.properties"),
+        10);
+    List<String> ids = new ArrayList<>();
+    sync.sync("THREAD2", message -> ids.add(message.getId()));
+    assertEquals(10, ids.size());
+    assertEquals(1, sync.getSkippedTimestampCount());
+  }
+
+  private static List<String> _sync(QuipMessageSync sync) throws Exception {
+    List<String> ids = new ArrayList<>();
+    sync.sync("THREAD1", message -> ids.add(message.getId()));
+    return ids;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipThread;
+
+public class QuipPaginationTest {
+  private static final int THREADS = 230;
+  private static final long NEWEST_USEC = 1_600_000_000_000_000L;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+
+  // threads come in groups of three that share an updated_usec, so groups
+  // are split across page boundaries
+  private static long _updatedUsec(int index) {
+    return NEWEST_USEC - (index / 3) * 1_000_000L;
+  }
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/recent", exchange -> {
+      int count = 0;
+      long maxUpdatedUsec = Long.MAX_VALUE;
+      for (NameValuePair param : URLEncodedUtils
+          .parse(exchange.getRequestURI(), StandardCharsets.UTF_8)) {
+        if (param.getName().equals("count"))
+          count = Integer.parseInt(param.getValue());
+        if (param.getName().equals("max_updated_usec"))
+          maxUpdatedUsec = Long.parseLong(param.getValue());
+      }
+      StringBuilder body = new StringBuilder("{");
+      int added = 0;
+      for (int i = 0; i < THREADS && added < count; i++) {
+        if (_updatedUsec(i) > maxUpdatedUsec)
+          continue;
+        if (added++ > 0)
+          body.append(',');
+        body.append("\"THREAD").append(i).append("\":{\"thread\":{\"id\":")
+            .append("\"THREAD").append(i).append("\",\"updated_usec\":")
+            .append(_updatedUsec(i)).append("}}");
+      }
+      QuipStubServer.respond(exchange, 200, body.append('}').toString());
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void streamRecentThreads() {
+    try (Stream<QuipThread> threads = QuipThread.streamRecentThreads(20,
+        false)) {
+      List<QuipThread> list = threads.collect(Collectors.toList());
+      assertEquals(THREADS, list.size());
+      assertEquals(THREADS,
+          list.stream().map(QuipThread::getId).distinct().count());
+      for (int i = 1; i < list.size(); i++)
+        assertTrue(!list.get(i).getUpdatedUsec()
+            .isAfter(list.get(i - 1).getUpdatedUsec()));
+    }
+  }
+
+  @Test
+  void streamStopsEarly() {
+    try (Stream<QuipThread> threads = QuipThread.streamRecentThreads(20,
+        false)) {
+      assertEquals(5, threads.limit(5).count());
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipRateLimiter;
+import kenichia.quipapi.QuipUser;
+
+public class QuipRateLimiterTest {
+  private static final int LIMIT = 20;
+  private static final long WINDOW_SECONDS = 2;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static final AtomicInteger rejected = new AtomicInteger();
+  private static long window = 0;
+  private static int used = 0;
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/users/", exchange -> {
+      long now = System.currentTimeMillis() / 1000;
+      boolean isAllowed;
+      long reset;
+      int remaining;
+      synchronized (QuipRateLimiterTest.class) {
+        if (now / WINDOW_SECONDS != window) {
+          window = now / WINDOW_SECONDS;
+          used = 0;
+        }
+        isAllowed = used < LIMIT;
+        if (isAllowed)
+          used++;
+        reset = (window + 1) * WINDOW_SECONDS;
+        remaining = LIMIT - used;
+      }
+      exchange.getResponseHeaders().set("X-Ratelimit-Limit",
+          String.valueOf(LIMIT));
+      exchange.getResponseHeaders().set("X-Ratelimit-Remaining",
+          String.valueOf(remaining));
+      exchange.getResponseHeaders().set("X-Ratelimit-Reset",
+          String.valueOf(reset));
+      if (isAllowed) {
+        QuipStubServer.respond(exchange, 200, "{\"id\":\"USER1\"}");
+      } else {
+        rejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After",
+            String.valueOf(reset - now));
+        QuipStubServer.respond(exchange, 429, "{}");
+      }
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.setRateLimiter(null);
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void staysUnderLimit() throws Exception {
+    QuipRateLimiter limiter = new QuipRateLimiter(0.1,
+        Duration.ofSeconds(WINDOW_SECONDS));
+    QuipClient.setRateLimiter(limiter);
+    // the first response tells the limiter about the budget
+    QuipUser.getUser("USER1");
+
+    List<Callable<QuipUser>> calls = new ArrayList<>();
+    // distinct ids, identical concurrent GETs would share one request
+    for (int i = 0; i < LIMIT * 3; i++) {
+      String id = "USER" + i;
+      calls.add(() -> QuipUser.getUser(id));
+    }
+    long start = System.currentTimeMillis();
+    List<QuipUser> users = QuipClient.invokeAll(calls);
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertEquals(LIMIT * 3, users.size());
+    assertEquals(0, rejected.get());
+    assertTrue(limiter.getDelayedRequests() > 0);
+    // 60 requests at 20 per 2 seconds take at least two full windows
+    assertTrue(elapsed >= 2 * WINDOW_SECONDS * 1000 - 1000,
+        "elapsed " + elapsed + "ms");
+  }
+}
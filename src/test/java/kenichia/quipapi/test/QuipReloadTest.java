@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+
+public class QuipReloadTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  // bumped to change the objects on the server
+  private static final AtomicLong version = new AtomicLong(1);
+  private static final AtomicInteger notModified = new AtomicInteger();
+  private static final AtomicInteger threadRequests = new AtomicInteger();
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    // no validators, the thread comes before the html, and the html differs
+    // on every request so that a parsed one can be told apart
+    server.on("/1/threads/", exchange -> QuipStubServer.respond(exchange, 200,
+        "{\"thread\":{\"id\":\"THREAD1\",\"title\":\"v" + version.get()
+            + "\",\"updated_usec\":" + version.get() + "},\"html\":\"<p>"
+            + threadRequests.incrementAndGet() + "x".repeat(10_000)
+            + "</p>\"}"));
+    server.on("/1/users/", exchange -> {
+      String etag = "\"v" + version.get() + "\"";
+      exchange.getResponseHeaders().set("ETag", etag);
+      if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModified.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+      QuipStubServer.respond(exchange, 200,
+          "{\"id\":\"USER1\",\"name\":\"v" + version.get() + "\"}");
+    });
+    server.on("/1/users/STALE", exchange -> exchange.sendResponseHeaders(304,
+        -1));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void reloadWithETag() throws Exception {
+    version.set(1);
+    QuipUser user = QuipUser.getUser("USER1");
+    // the ETag of getUser is kept, so even the first reload gets 304
+    assertTrue(user.reload());
+    assertTrue(user.reload());
+    assertTrue(user.reload());
+    assertEquals(3, notModified.get());
+    assertEquals("v1", user.getName());
+
+    version.set(2);
+    assertTrue(user.reload());
+    assertEquals("v2", user.getName());
+    assertEquals(3, notModified.get());
+  }
+
+  @Test
+  void reloadWithUpdatedUsec() throws Exception {
+    version.set(1);
+    QuipThread thread = QuipThread.getThread("THREAD1");
+    String html = thread.getHtml();
+    int requests = threadRequests.get();
+    // the reload stops at the unchanged updated_usec, before the new html
+    assertTrue(thread.reload());
+    assertEquals(requests + 1, threadRequests.get());
+    assertEquals("v1", thread.getTitle());
+    assertEquals(html, thread.getHtml());
+
+    version.set(3);
+    assertTrue(thread.reload());
+    assertEquals("v3", thread.getTitle());
+    assertNotEquals(html, thread.getHtml());
+  }
+
+  @Test
+  void notModifiedIsAnErrorForPlainGet() {
+    HttpResponseException e = assertThrows(HttpResponseException.class,
+        () -> QuipUser.getUser("STALE"));
+    assertEquals(304, e.getStatusCode());
+  }
+}
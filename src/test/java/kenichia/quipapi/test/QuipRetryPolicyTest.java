@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipRetryPolicy;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+
+public class QuipRetryPolicyTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static final Map<String, Integer> remaining = new HashMap<>();
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    // every user id fails twice with 503, then succeeds
+    server.on("/1/users/", exchange -> {
+      String id = exchange.getRequestURI().getPath().replace("/1/users/", "");
+      synchronized (QuipRetryPolicyTest.class) {
+        if (_countdown(id) > 0) {
+          QuipStubServer.respond(exchange, 503, "{}");
+          return;
+        }
+      }
+      QuipStubServer.respond(exchange, 200, "{\"id\":\"" + id + "\"}");
+    });
+    server.on("/1/threads/", exchange -> {
+      exchange.getResponseHeaders().set("Retry-After", "60");
+      QuipStubServer.respond(exchange, 429, "{}");
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  private static int _countdown(String id) {
+    int left = remaining.getOrDefault(id, 2);
+    remaining.put(id, left - 1);
+    return left;
+  }
+
+  @AfterEach
+  void reset() {
+    QuipClient.setRetryPolicy(QuipRetryPolicy.builder().build());
+    server.resetHits();
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void retriesUntilSuccess() throws Exception {
+    QuipClient.setRetryPolicy(QuipRetryPolicy.builder()
+        .setInitialBackoff(Duration.ofMillis(10)).build());
+    QuipUser user = QuipUser.getUser("RETRY1");
+    assertEquals("RETRY1", user.getId());
+    assertEquals(3, server.getHits("/1/users/"));
+  }
+
+  @Test
+  void retriesAreCountedPerRequest() throws Exception {
+    // with a shared counter, concurrent requests used up each other's retries
+    QuipClient.setRetryPolicy(QuipRetryPolicy.builder().setMaxRetries(2)
+        .setInitialBackoff(Duration.ofMillis(10)).build());
+    List<Callable<QuipUser>> calls = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      String id = "CONCURRENT" + i;
+      calls.add(() -> QuipUser.getUser(id));
+    }
+    List<QuipUser> users = QuipClient.invokeAll(calls);
+    assertEquals(20, users.size());
+    assertEquals(60, server.getHits("/1/users/"));
+  }
+
+  @Test
+  void givesUpAfterMaxElapsedTime() {
+    QuipClient.setRetryPolicy(QuipRetryPolicy.builder()
+        .setMaxElapsedTime(Duration.ofSeconds(5)).build());
+    long start = System.currentTimeMillis();
+    HttpResponseException e = assertThrows(HttpResponseException.class,
+        () -> QuipThread.getThread("THREAD1"));
+    assertEquals(429, e.getStatusCode());
+    // Retry-After of 60 seconds exceeds the max elapsed time
+    assertEquals(1, server.getHits("/1/threads/"));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipMessage;
+import kenichia.quipapi.QuipThread;
+
+public class QuipStreamingTest {
+  private static final int THREADS = 5;
+  // a few MB of html per thread, like large documents
+  private static final String HTML = "<p>"
+      + "\u65e5\u672c\u8a9e stub ".repeat(200_000) + "</p>";
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/", exchange -> {
+      StringBuilder body = new StringBuilder("{");
+      for (int i = 1; i <= THREADS; i++) {
+        if (i > 1)
+          body.append(',');
+        body.append("\"THREAD").append(i).append("\":{\"thread\":{\"id\":")
+            .append("\"THREAD").append(i).append("\"},\"html\":\"")
+            .append(HTML).append("\"}");
+      }
+      QuipStubServer.respond(exchange, 200, body.append('}').toString());
+    });
+    server.on("/1/messages/THREAD1", exchange -> QuipStubServer.respond(
+        exchange, 200, "[{\"id\":\"MSG1\",\"text\":\"hello\"},"
+            + "{\"id\":\"MSG2\",\"text\":\"world\"}]"));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void getThreads() throws Exception {
+    String[] ids = {"THREAD1", "THREAD2", "THREAD3", "THREAD4", "THREAD5"};
+    QuipThread[] threads = QuipThread.getThreads(ids);
+    assertEquals(THREADS, threads.length);
+    assertEquals(HTML, threads[0].getHtml());
+
+    List<String> streamed = new ArrayList<>();
+    QuipThread.getThreads(ids, thread -> {
+      assertEquals(HTML, thread.getHtml());
+      streamed.add(thread.getId());
+    });
+    assertEquals(List.of(ids), streamed);
+  }
+
+  @Test
+  void getRecentMessages() throws Exception {
+    List<String> streamed = new ArrayList<>();
+    QuipMessage.getRecentMessages("THREAD1", 10, null, null, null,
+        QuipThread.SortedBy.NONE, null,
+        message -> streamed.add(message.getText()));
+    assertEquals(List.of("hello", "world"), streamed);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for platform.quip.com used by the tests and benchmarks that
+ * must run without an access token.
+ */
+public class QuipStubServer implements AutoCloseable {
+
+  public interface Handler {
+    void handle(HttpExchange exchange) throws IOException;
+  }
+
+  static {
+    // the default of 200 closes pooled keep-alive connections under load
+    if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null)
+      System.setProperty("sun.net.httpserver.maxIdleConnections", "4096");
+  }
+
+  private final HttpServer _server;
+  private final ExecutorService _executor;
+  private final Map<String, AtomicInteger> _hits = new ConcurrentHashMap<>();
+
+  public QuipStubServer() throws IOException {
+    _server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    _executor = Executors.newCachedThreadPool();
+    _server.setExecutor(_executor);
+    on("/1/oauth/verify_token", exchange -> respond(exchange, 200, "{}"));
+    _server.start();
+  }
+
+  public String getEndpoint() {
+    return "http://127.0.0.1:" + _server.getAddress().getPort() + "/1";
+  }
+
+  /**
+   * Registers a handler for every request whose path starts with the
+   * given prefix. The longest registered prefix wins.
+   */
+  public QuipStubServer on(String pathPrefix, Handler handler) {
+    _server.createContext(pathPrefix, exchange -> {
+      _hits.computeIfAbsent(pathPrefix, k -> new AtomicInteger())
+          .incrementAndGet();
+      try {
+        handler.handle(exchange);
+      } finally {
+        exchange.close();
+      }
+    });
+    return this;
+  }
+
+  public int getHits(String pathPrefix) {
+    AtomicInteger hits = _hits.get(pathPrefix);
+    return (hits == null) ? 0 : hits.get();
+  }
+
+  public void resetHits() {
+    _hits.clear();
+  }
+
+  public static void respond(HttpExchange exchange, int status, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  @Override
+  public void close() {
+    _server.stop(0);
+    _executor.shutdownNow();
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipTable;
+import kenichia.quipapi.QuipThread;
+
+public class QuipTableBatchTest {
+  private static final int ROWS = 5;
+  private static final int COLUMNS = 3;
+  // values of QuipThread.Location sent as the location parameter
+  private static final String AFTER_SECTION = "2";
+  private static final String BEFORE_SECTION = "3";
+  private static final String DELETE_SECTION = "5";
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static final List<Map<String, String>> edits =
+      new CopyOnWriteArrayList<>();
+
+  private static String _thread() {
+    return _thread("");
+  }
+
+  // the suffix marks the cell text of one version of the document
+  private static String _thread(String suffix) {
+    StringBuilder html = new StringBuilder("<table id='T1'><tbody>");
+    for (int r = 0; r < ROWS; r++) {
+      html.append("<tr id='R").append(r).append("'>");
+      for (int c = 0; c < COLUMNS; c++)
+        html.append("<td id='R").append(r).append("C").append(c)
+            .append("'><b>").append(r).append(c).append(suffix)
+            .append("</b></td>");
+      html.append("</tr>");
+    }
+    JsonObject json = new JsonObject();
+    JsonObject thread = new JsonObject();
+    thread.addProperty("id", "THREAD1");
+    json.add("thread", thread);
+    json.addProperty("html", html.append("</tbody></table>").toString());
+    return json.toString();
+  }
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/edit-document", exchange -> {
+      Map<String, String> form = new HashMap<>();
+      for (NameValuePair param : URLEncodedUtils.parse(
+          new String(exchange.getRequestBody().readAllBytes(),
+              StandardCharsets.UTF_8),
+          StandardCharsets.UTF_8))
+        form.put(param.getName(), param.getValue());
+      edits.add(form);
+      QuipStubServer.respond(exchange, 200, _thread("v" + edits.size()));
+    });
+    server.on("/1/threads/", exchange -> QuipStubServer.respond(exchange, 200,
+        _thread()));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @BeforeEach
+  void reset() {
+    edits.clear();
+  }
+
+  @Test
+  void mergesEdits() throws Exception {
+    QuipTable table = QuipThread.getThread("THREAD1").getTableById("T1");
+    QuipTable.Batch batch = table.batch()
+        // a whole row, then a single cell
+        .updateCellValue(0, 0, "a").updateCellValue(1, 0, "b")
+        .updateCellValue(2, 0, "c").updateCellValue(1, 2, "x")
+        // two appends and one insert
+        .addRow(new String[] { "n1", "", "" })
+        .addRow(new String[] { "n2", "", "" })
+        .addRow(1, new String[] { "i1", "", "" })
+        // a removed row drops its writes
+        .updateCellValue(0, 4, "gone").removeRow(4);
+    assertEquals(5, batch.size());
+    assertTrue(batch.commit());
+    assertEquals(0, batch.size());
+    assertEquals(5, edits.size());
+
+    assertEquals("R1", edits.get(0).get("section_id"));
+    assertEquals(BEFORE_SECTION, edits.get(0).get("location"));
+    assertEquals("R4", edits.get(1).get("section_id"));
+    assertEquals(AFTER_SECTION, edits.get(1).get("location"));
+    assertEquals(2, edits.get(1).get("content").split("<tr>").length - 1);
+
+    // the row keeps the markup of cells it does not write
+    assertEquals("R0", edits.get(2).get("section_id"));
+    assertEquals("<tr><td>a</td><td>b</td><td>c</td></tr>",
+        edits.get(2).get("content"));
+    assertEquals("R2C1", edits.get(3).get("section_id"));
+    assertEquals("x", edits.get(3).get("content"));
+    assertEquals("R4", edits.get(4).get("section_id"));
+    assertEquals(DELETE_SECTION, edits.get(4).get("location"));
+  }
+
+  @Test
+  void keepsOtherCells() throws Exception {
+    QuipTable table = QuipThread.getThread("THREAD1").getTableById("T1");
+    table.batch().updateCellValue(0, 3, "a").updateCellValue(2, 3, "c")
+        .commit();
+    assertEquals(1, edits.size());
+    assertEquals("<tr><td>a</td><td><b>31</b></td><td>c</td></tr>",
+        edits.get(0).get("content"));
+  }
+
+  @Test
+  void readsKeptCellsBeforeTheFirstCall() throws Exception {
+    QuipTable table = QuipThread.getThread("THREAD1").getTableById("T1");
+    // each edit returns a document with different cell text, so html read
+    // after a call would carry its suffix
+    table.batch().updateCellValue(0, 1, "a").updateCellValue(2, 1, "c")
+        .updateCellValue(0, 3, "a").updateCellValue(2, 3, "c").commit();
+    assertEquals(2, edits.size());
+    assertEquals("<tr><td>a</td><td><b>11</b></td><td>c</td></tr>",
+        edits.get(0).get("content"));
+    assertEquals("<tr><td>a</td><td><b>31</b></td><td>c</td></tr>",
+        edits.get(1).get("content"));
+  }
+
+  @Test
+  void keepsOneRow() throws Exception {
+    QuipTable table = QuipThread.getThread("THREAD1").getTableById("T1");
+    QuipTable.Batch batch = table.batch();
+    for (int row = 0; row < ROWS; row++)
+      batch.removeRow(row);
+    assertThrows(IllegalStateException.class, batch::commit);
+    assertThrows(IndexOutOfBoundsException.class,
+        () -> table.batch().updateCellValue(COLUMNS, 0, "x"));
+    assertEquals(0, edits.size());
+  }
+}
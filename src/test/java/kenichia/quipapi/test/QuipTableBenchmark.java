@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import java.util.concurrent.Callable;
+
+import org.jsoup.Jsoup;
+
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipTable;
+import kenichia.quipapi.QuipThread;
+
+/**
+ * Measures enumerating every table of a synthetic document with 40 tables of
+ * 50 rows each. The first row parses the html once per table, as every
+ * lookup used to; the second goes through QuipThread, which parses once and
+ * keeps the DOM until the thread is replaced.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=kenichia.quipapi.test.QuipTableBenchmark
+ * </pre>
+ */
+public class QuipTableBenchmark {
+
+  private static final int TABLES = 40;
+  private static final int ROWS = 50;
+  private static final int COLUMNS = 6;
+  private static final int ITERATIONS = 20;
+
+  public static void main(String[] args) throws Exception {
+    String html = _document();
+    JsonObject json = new JsonObject();
+    JsonObject thread = new JsonObject();
+    thread.addProperty("id", "THREAD1");
+    json.add("thread", thread);
+    json.addProperty("html", html);
+
+    try (QuipStubServer server = new QuipStubServer()) {
+      server.on("/1/threads/", exchange -> QuipStubServer.respond(exchange,
+          200, json.toString()));
+      QuipClient.ENDPOINT = server.getEndpoint();
+      QuipClient.setAccessToken("stub");
+      QuipThread quipThread = QuipThread.getThread("THREAD1");
+      System.out.printf("document: %,d chars, %d tables%n", html.length(),
+          TABLES);
+      System.out.printf("%-28s %12s%n", "case", "ms/op");
+      _print("parse per table", () -> {
+        int rows = 0;
+        for (String id : quipThread.getTableIds())
+          rows += Jsoup.parse(html).getElementsByAttributeValue("id", id)
+              .first().getElementsByTag("tr").size();
+        return rows;
+      });
+      _print("memoized DOM", () -> {
+        int rows = 0;
+        for (String id : quipThread.getTableIds()) {
+          QuipTable table = quipThread.getTableById(id);
+          table.refresh();
+          rows += table.getRowSize();
+        }
+        return rows;
+      });
+      QuipClient.getTransport().close();
+    }
+  }
+
+  private static String _document() {
+    StringBuilder sb = new StringBuilder();
+    for (int t = 0; t < TABLES; t++) {
+      sb.append("<h2 id='H").append(t).append("'>Table ").append(t)
+          .append("</h2><table id='T").append(t).append("'><thead><tr>");
+      for (int c = 0; c < COLUMNS; c++)
+        sb.append("<th id='T").append(t).append("C").append(c)
+            .append("'>Column ").append(c).append("</th>");
+      sb.append("</tr></thead><tbody>");
+      for (int r = 0; r < ROWS; r++) {
+        sb.append("<tr id='T").append(t).append("R").append(r).append("'>");
+        for (int c = 0; c < COLUMNS; c++)
+          sb.append("<td id='T").append(t).append("R").append(r).append("C")
+              .append(c).append("'>").append(r * c).append("</td>");
+        sb.append("</tr>");
+      }
+      sb.append("</tbody></table>");
+    }
+    return sb.toString();
+  }
+
+  private static void _print(String name, Callable<?> op) throws Exception {
+    for (int i = 0; i < ITERATIONS / 4; i++)
+      op.call();
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++)
+      op.call();
+    System.out.printf("%-28s %12.2f%n", name,
+        (System.nanoTime() - start) / 1e6 / ITERATIONS);
+  }
+}
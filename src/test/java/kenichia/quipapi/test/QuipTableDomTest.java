@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipTable;
+import kenichia.quipapi.QuipThread;
+
+public class QuipTableDomTest {
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+
+  private static String _thread(int rows) {
+    JsonObject json = new JsonObject();
+    JsonObject thread = new JsonObject();
+    thread.addProperty("id", "THREAD1");
+    json.add("thread", thread);
+    json.addProperty("html", "<table id='T1'><tbody>"
+        + "<tr id='R1'><td id='C1'>a</td></tr>".repeat(rows)
+        + "</tbody></table><table id='T2'><tbody>"
+        + "<tr id='R2'><td id='C2'>b</td></tr></tbody></table>");
+    return json.toString();
+  }
+
+  @BeforeAll
+  static void init() throws Exception {
+    server = new QuipStubServer();
+    server.on("/1/threads/edit-document", exchange -> QuipStubServer
+        .respond(exchange, 200, _thread(2)));
+    server.on("/1/threads/", exchange -> QuipStubServer.respond(exchange, 200,
+        _thread(1)));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void tablesFollowReplacedHtml() throws Exception {
+    QuipThread thread = QuipThread.getThread("THREAD1");
+    assertArrayEquals(new String[] { "T1", "T2" }, thread.getTableIds());
+    assertNull(thread.getTableById("T3"));
+    QuipTable table = thread.getTableById("T1");
+    assertEquals(1, table.getRowSize());
+    assertEquals("a", table.getCellValue(0, 0));
+
+    // editDocument replaces the json, so the table sees the new html
+    table.updateCellValue(0, 0, "a");
+    assertEquals(2, table.getRowSize());
+    assertEquals(1, thread.getTableById("T2").getRowSize());
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipTableSnapshot;
+import kenichia.quipapi.QuipThread;
+
+public class QuipTableExportTest {
+  // spans three row groups of the columnar format
+  private static final int ROWS = 20_000;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+
+  @BeforeAll
+  static void init() throws Exception {
+    StringBuilder html = new StringBuilder("<table id='T1'><thead><tr>"
+        + "<th id='H0'>name</th><th id='H1'>n</th><th id='H2'>x</th>"
+        + "<th id='H3'>late</th><th id='H4'>sparse</th>"
+        + "</tr></thead><tbody>");
+    for (int r = 0; r < ROWS; r++) {
+      String name = (r == 0) ? "a, \"b\"" : (r == 1) ? "c\td" : "row" + (r % 7);
+      html.append("<tr id='R").append(r).append("'><td id='R").append(r)
+          .append("C0'>").append(name).append("</td><td id='R").append(r)
+          .append("C1'>").append(r - 10).append("</td><td id='R").append(r)
+          .append("C2'>").append(BigDecimal.valueOf(r / 4.0).stripTrailingZeros()
+              .toPlainString())
+          // numbers until the last row group, where one is text
+          .append("</td><td id='R").append(r).append("C3'>")
+          .append((r == ROWS - 1) ? "n/a" : String.valueOf(r))
+          .append("</td><td id='R").append(r).append("C4'>")
+          .append((r % 3 == 0) ? "" : String.valueOf(r)).append("</td></tr>");
+    }
+    JsonObject json = new JsonObject();
+    JsonObject thread = new JsonObject();
+    thread.addProperty("id", "THREAD1");
+    json.add("thread", thread);
+    json.addProperty("html", html.append("</tbody></table>").toString());
+
+    server = new QuipStubServer();
+    server.on("/1/threads/", exchange -> QuipStubServer.respond(exchange, 200,
+        json.toString()));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void csvAndTsv() throws Exception {
+    QuipThread thread = QuipThread.getThread("THREAD1");
+    StringWriter csv = new StringWriter();
+    assertEquals(ROWS, thread.exportTableAsCsv("T1", csv));
+    String[] lines = csv.toString().split("\r\n");
+    assertEquals(ROWS + 1, lines.length);
+    assertEquals("name,n,x,late,sparse", lines[0]);
+    assertEquals("\"a, \"\"b\"\"\",-10,0,0,", lines[1]);
+
+    StringWriter tsv = new StringWriter();
+    assertEquals(ROWS, thread.getTableById("T1").exportAsTsv(tsv));
+    lines = tsv.toString().split("\n");
+    assertEquals("name\tn\tx\tlate\tsparse", lines[0]);
+    // jsoup already folds the tab into a space when reading the text
+    assertEquals("c d\t-9\t0.25\t1\t1", lines[2]);
+
+    assertThrows(IOException.class,
+        () -> thread.exportTableAsCsv("R0", new StringWriter()));
+  }
+
+  @Test
+  void columnarRoundTrip() throws Exception {
+    QuipThread thread = QuipThread.getThread("THREAD1");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(ROWS, thread.exportTableAsColumnar("T1", out));
+
+    List<QuipTableSnapshot> groups = QuipTableSnapshot
+        .readColumnar(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(3, groups.size());
+    long rows = 0;
+    long sum = 0;
+    double total = 0;
+    int nulls = 0;
+    for (QuipTableSnapshot group : groups) {
+      assertEquals("n", group.getColumnHeader(1));
+      assertEquals(QuipTableSnapshot.Type.STRING,
+          group.getColumn(0).getType());
+      // the types are fixed for the whole table, not per group
+      assertEquals(QuipTableSnapshot.Type.STRING,
+          group.getColumn("late").getType());
+      rows += group.getRowSize();
+      sum += ((QuipTableSnapshot.LongColumn) group.getColumn("n")).sum();
+      total += ((QuipTableSnapshot.DoubleColumn) group.getColumn("x")).sum();
+      nulls += ((QuipTableSnapshot.LongColumn) group.getColumn("sparse"))
+          .countNulls();
+    }
+    assertEquals((ROWS + 2) / 3, nulls);
+    assertEquals("", groups.get(0).getCellValue(4, 3));
+    assertEquals("4", groups.get(0).getCellValue(4, 4));
+    assertEquals(ROWS, rows);
+    assertEquals((long) ROWS * (ROWS - 1) / 2 - 10L * ROWS, sum);
+    assertEquals((double) ROWS * (ROWS - 1) / 2 / 4.0, total, 1e-6);
+    assertEquals("a, \"b\"", groups.get(0).getCellValue(0, 0));
+    // the name column of a later group holds only a few distinct values
+    assertEquals(7, groups.get(2).getColumn(0).countDistinct());
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipTableSnapshot;
+import kenichia.quipapi.QuipTableSnapshot.DoubleColumn;
+import kenichia.quipapi.QuipTableSnapshot.LongColumn;
+import kenichia.quipapi.QuipTableSnapshot.StringColumn;
+import kenichia.quipapi.QuipThread;
+
+public class QuipTableSnapshotTest {
+  private static final String[][] CELLS = {
+      { "apple", "3", "1.5", "7" },
+      { "pear", "-2", "2", "x" },
+      { "apple", "10", "0.25", "8" },
+      { "plum", "3", "5", "9" } };
+  // text that would not read back as written, and empty cells
+  private static final String[][] LOSSY = {
+      { "007", "1.50", "1e3", "3", "0.5" },
+      { "12", "2", "2", "", "" },
+      { "5", "3", "4", "5", "1" } };
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+
+  @BeforeAll
+  static void init() throws Exception {
+    StringBuilder html = new StringBuilder();
+    _appendTable(html, "T1", new String[] { "fruit", "count", "price",
+        "mixed" }, CELLS);
+    _appendTable(html, "T2", new String[] { "code", "amount", "sci",
+        "sparse", "ratio" }, LOSSY);
+    JsonObject json = new JsonObject();
+    JsonObject thread = new JsonObject();
+    thread.addProperty("id", "THREAD1");
+    json.add("thread", thread);
+    json.addProperty("html", html.toString());
+
+    server = new QuipStubServer();
+    server.on("/1/threads/", exchange -> QuipStubServer.respond(exchange, 200,
+        json.toString()));
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  private static void _appendTable(StringBuilder html, String id,
+      String[] headers, String[][] cells) {
+    html.append("<table id='").append(id).append("'><thead><tr>");
+    for (int c = 0; c < headers.length; c++)
+      html.append("<th id='").append(id).append("H").append(c).append("'>")
+          .append(headers[c]).append("</th>");
+    html.append("</tr></thead><tbody>");
+    for (int r = 0; r < cells.length; r++) {
+      html.append("<tr id='").append(id).append("R").append(r).append("'>");
+      for (int c = 0; c < cells[r].length; c++)
+        html.append("<td id='").append(id).append("R").append(r).append("C")
+            .append(c).append("'><span>").append(cells[r][c])
+            .append("</span></td>");
+      html.append("</tr>");
+    }
+    html.append("</tbody></table>");
+  }
+
+  @AfterAll
+  static void tearDown() {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+  }
+
+  @Test
+  void typedColumns() throws Exception {
+    QuipTableSnapshot snapshot = QuipThread.getThread("THREAD1")
+        .getTableById("T1").snapshot();
+    assertEquals(4, snapshot.getRowSize());
+    assertEquals(4, snapshot.getColumnSize());
+    assertEquals("price", snapshot.getColumnHeader(2));
+
+    StringColumn fruit = (StringColumn) snapshot.getColumn("fruit");
+    assertArrayEquals(new String[] { "apple", "pear", "plum" },
+        fruit.getDictionary());
+    assertEquals(3, fruit.countDistinct());
+    assertEquals(fruit.getCode(0), fruit.getCode(2));
+    assertEquals("plum", snapshot.getCellValue(0, 3));
+
+    LongColumn count = (LongColumn) snapshot.getColumn(1);
+    assertEquals(QuipTableSnapshot.Type.LONG, count.getType());
+    assertEquals(14, count.sum());
+    assertEquals(-2, count.min());
+    assertEquals(10, count.max());
+    assertEquals(3, count.countDistinct());
+
+    DoubleColumn price = (DoubleColumn) snapshot.getColumn(2);
+    assertEquals(QuipTableSnapshot.Type.DOUBLE, price.getType());
+    assertEquals(8.75, price.sum(), 1e-9);
+    assertEquals(0.25, price.min());
+    assertEquals(5.0, price.max());
+    assertEquals(4, price.countDistinct());
+
+    // one value that does not parse keeps the whole column as text
+    assertEquals(QuipTableSnapshot.Type.STRING,
+        snapshot.getColumn(3).getType());
+    assertEquals("x", snapshot.getCellValue(3, 1));
+  }
+
+  @Test
+  void keepsTextAndNulls() throws Exception {
+    QuipTableSnapshot snapshot = QuipThread.getThread("THREAD1")
+        .getTableById("T2").snapshot();
+    // numbers that would print differently keep their column as text
+    for (int column = 0; column < 3; column++) {
+      assertEquals(QuipTableSnapshot.Type.STRING,
+          snapshot.getColumn(column).getType());
+      assertEquals(LOSSY[0][column], snapshot.getCellValue(column, 0));
+    }
+
+    // an empty cell is a null, not a reason to fall back to text
+    LongColumn sparse = (LongColumn) snapshot.getColumn("sparse");
+    assertTrue(sparse.isNull(1));
+    assertEquals(1, sparse.countNulls());
+    assertEquals("", sparse.getString(1));
+    assertEquals(8, sparse.sum());
+    assertEquals(3, sparse.min());
+    assertEquals(3, sparse.countDistinct());
+
+    DoubleColumn ratio = (DoubleColumn) snapshot.getColumn("ratio");
+    assertTrue(Double.isNaN(ratio.getDouble(1)));
+    assertEquals(1.5, ratio.sum());
+    assertEquals(0.5, ratio.min());
+    assertEquals("1", ratio.getString(2));
+    assertEquals(3, ratio.countDistinct());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipTransport;
+import kenichia.quipapi.QuipUser;
+
+/**
+ * Measures throughput of QuipUser.getUser against a local stub server with a
+ * fixed 20ms latency, once with the old limits of HttpClients.custom() (2
+ * connections per route) and once with a pooled transport.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=kenichia.quipapi.test.QuipTransportBenchmark
+ * </pre>
+ */
+public class QuipTransportBenchmark {
+
+  private static final int LATENCY_MILLIS = 20;
+  private static final int REQUESTS_PER_THREAD = 25;
+
+  public static void main(String[] args) throws Exception {
+    try (QuipStubServer server = new QuipStubServer()) {
+      server.on("/1/users/", exchange -> {
+        try {
+          Thread.sleep(LATENCY_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        QuipStubServer.respond(exchange, 200,
+            "{\"id\":\"USER1\",\"name\":\"Stub\"}");
+      });
+      QuipClient.ENDPOINT = server.getEndpoint();
+
+      QuipTransport legacy = QuipTransport.builder().setMaxTotal(20)
+          .setMaxPerRoute(2).build();
+      QuipTransport pooled = QuipTransport.builder().setMaxTotal(128)
+          .setMaxPerRoute(64).build();
+      QuipClient.setTransport(legacy);
+      QuipClient.setAccessToken("stub");
+
+      System.out.printf("%8s %16s %16s%n", "threads", "legacy req/s",
+          "pooled req/s");
+      for (int threads = 1; threads <= 64; threads *= 2) {
+        QuipClient.setTransport(legacy);
+        double legacyRate = _run(threads);
+        QuipClient.setTransport(pooled);
+        double pooledRate = _run(threads);
+        System.out.printf("%8d %16.1f %16.1f%n", threads, legacyRate,
+            pooledRate);
+      }
+      legacy.close();
+      pooled.close();
+    }
+  }
+
+  private static double _run(int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      // warm up the connections
+      _submit(executor, threads, 1);
+      long start = System.nanoTime();
+      int requests = _submit(executor, threads, REQUESTS_PER_THREAD);
+      return requests / ((System.nanoTime() - start) / 1e9);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static int _submit(ExecutorService executor, int threads,
+      int requestsPerThread) throws Exception {
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < requestsPerThread; j++)
+          QuipUser.getUser("USER1");
+        return null;
+      }));
+    }
+    for (Future<?> future : futures)
+      future.get();
+    return threads * requestsPerThread;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipTransport;
+
+/**
+ * Fans out blocking QuipThread.getThread calls with QuipClient.invokeAll
+ * against a local stub server with a fixed 50ms latency, first on platform
+ * threads and then on virtual threads. The virtual thread run is skipped on
+ * JVMs older than 21.
+ */
+public class QuipVirtualThreadBenchmark {
+
+  private static final int LATENCY_MILLIS = 50;
+
+  public static void main(String[] args) throws Exception {
+    int[] fanOuts = {100, 500, 1000};
+    try (QuipStubServer server = new QuipStubServer()) {
+      server.on("/1/threads/", exchange -> {
+        try {
+          Thread.sleep(LATENCY_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        QuipStubServer.respond(exchange, 200,
+            "{\"thread\":{\"id\":\"THREAD1\"},\"html\":\"<p></p>\"}");
+      });
+      QuipClient.ENDPOINT = server.getEndpoint();
+      QuipClient.setTransport(QuipTransport.builder().setMaxTotal(1000)
+          .setMaxPerRoute(1000).build());
+      QuipClient.setAccessToken("stub");
+
+      boolean isVirtualSupported = QuipClient.isVirtualThreadsSupported();
+      System.out.printf("%8s %10s %14s %10s %14s%n", "calls", "platform",
+          "peak threads", "virtual", "peak threads");
+      for (int calls : fanOuts) {
+        QuipClient.enableVirtualThreads(false);
+        long[] platform = _run(calls);
+        long[] virtual = {-1, -1};
+        if (isVirtualSupported) {
+          QuipClient.enableVirtualThreads(true);
+          virtual = _run(calls);
+        }
+        System.out.printf("%8d %8dms %14d %10s %14s%n", calls, platform[0],
+            platform[1], isVirtualSupported ? virtual[0] + "ms" : "n/a",
+            isVirtualSupported ? virtual[1] : "n/a");
+      }
+      QuipClient.getTransport().close();
+    }
+  }
+
+  private static long[] _run(int calls) throws Exception {
+    List<Callable<QuipThread>> tasks = new ArrayList<>();
+    for (int i = 0; i < calls; i++)
+      tasks.add(() -> QuipThread.getThread("THREAD1"));
+    // warm up
+    QuipClient.invokeAll(tasks.subList(0, Math.min(calls, 50)));
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    long start = System.nanoTime();
+    QuipClient.invokeAll(tasks);
+    long elapsed = (System.nanoTime() - start) / 1_000_000;
+    return new long[]{elapsed, threads.getPeakThreadCount()};
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kenichia.quipapi.QuipClient;
+import kenichia.quipapi.QuipEventFilter;
+import kenichia.quipapi.QuipMessage;
+import kenichia.quipapi.QuipThread;
+import kenichia.quipapi.QuipUser;
+import kenichia.quipapi.QuipWebSocketManager;
+
+public class QuipWebSocketManagerTest {
+  private static final int ACCOUNTS = 20;
+
+  private static QuipStubServer server;
+  private static String originalEndpoint;
+  private static QuipWebSocketStubServer webSocketServer;
+
+  @BeforeAll
+  static void init() throws Exception {
+    // greets each socket with a message, and answers heartbeats unless muted
+    webSocketServer = new QuipWebSocketStubServer(
+        new QuipWebSocketStubServer.Handler() {
+          @Override
+          public void onOpen(QuipWebSocketStubServer.Peer peer)
+              throws IOException {
+            peer.sendText("{\"type\":\"message\",\"message\":{\"id\":\""
+                + peer.getPath().substring(1) + "\"},\"user\":{},"
+                + "\"thread\":{\"id\":\"THREAD1\"}}");
+          }
+
+          @Override
+          public void onText(QuipWebSocketStubServer.Peer peer, String text)
+              throws IOException {
+            if (text.contains("heartbeat") && !peer.getPath().contains("MUTE"))
+              peer.sendText("{\"type\":\"alive\",\"message\":\""
+                  + peer.getPath().substring(1) + "\"}");
+          }
+        });
+    server = new QuipStubServer();
+    server.on("/1/websockets/new", exchange -> {
+      // "Bearer TOKEN3" belongs to USER3, and "Bearer TOKENBAD3" gives it a
+      // url nothing listens on
+      String userId = exchange.getRequestHeaders().getFirst("Authorization")
+          .replace("Bearer TOKEN", "USER");
+      String url = webSocketServer.getUrl("/" + userId);
+      if (userId.startsWith("USERBAD")) {
+        userId = userId.replace("BAD", "");
+        url = "ws://127.0.0.1:1/";
+      }
+      QuipStubServer.respond(exchange, 200, "{\"user_id\":\"" + userId
+          + "\",\"url\":\"" + url + "\"}");
+    });
+    originalEndpoint = QuipClient.ENDPOINT;
+    QuipClient.ENDPOINT = server.getEndpoint();
+    QuipClient.setAccessToken("stub");
+  }
+
+  @AfterAll
+  static void tearDown() throws IOException {
+    QuipClient.ENDPOINT = originalEndpoint;
+    server.close();
+    webSocketServer.close();
+  }
+
+  @Test
+  void sharesOneClientAcrossAccounts() throws Exception {
+    Map<String, String> messages = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> alive = new ConcurrentHashMap<>();
+    long selectors = _countSelectorThreads();
+    QuipWebSocketManager manager = QuipWebSocketManager.builder()
+        .setHeartbeatInterval(Duration.ofMillis(200)).setWheelSize(4)
+        .build(new QuipWebSocketManager.Listener() {
+          @Override
+          public void onMessage(String userId, QuipMessage message,
+              QuipUser user, QuipThread thread) {
+            messages.put(userId, message.getId());
+          }
+
+          @Override
+          public void onAlive(String userId, String message) {
+            if (userId.equals(message))
+              alive.computeIfAbsent(userId, k -> new AtomicInteger())
+                  .incrementAndGet();
+          }
+        });
+    for (int i = 0; i < ACCOUNTS; i++)
+      assertEquals("USER" + i, manager.add("TOKEN" + i));
+    assertEquals(ACCOUNTS, manager.getUserIds().size());
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (alive.size() < ACCOUNTS
+        || alive.values().stream().anyMatch(n -> n.get() < 2)) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+    assertEquals(ACCOUNTS, messages.size());
+    messages.forEach((userId, id) -> assertEquals(userId, id));
+    assertTrue(_countSelectorThreads() - selectors <= 1);
+
+    manager.remove("USER0");
+    assertEquals(ACCOUNTS - 1, manager.getUserIds().size());
+    manager.close();
+    assertTrue(manager.getUserIds().isEmpty());
+  }
+
+  @Test
+  void dropsSocketsThatStopAnswering() throws Exception {
+    Map<String, Throwable> failures = new ConcurrentHashMap<>();
+    QuipWebSocketManager manager = QuipWebSocketManager.builder()
+        .setHeartbeatInterval(Duration.ofMillis(200)).setWheelSize(4)
+        .build(new QuipWebSocketManager.Listener() {
+          @Override
+          public void onFailure(String userId, Throwable error) {
+            failures.put(userId, error);
+          }
+        });
+    manager.add("TOKEN1");
+    manager.add("TOKENMUTE");
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!failures.containsKey("USERMUTE")) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+    // the answering socket outlives several more ticks
+    Thread.sleep(600);
+    assertEquals(Set.of("USER1"), manager.getUserIds());
+    assertEquals(Set.of("USERMUTE"), failures.keySet());
+    manager.close();
+  }
+
+  @Test
+  void filteredAnswersStillKeepSocketsAlive() throws Exception {
+    Map<String, Throwable> failures = new ConcurrentHashMap<>();
+    Map<String, String> messages = new ConcurrentHashMap<>();
+    QuipWebSocketManager manager = QuipWebSocketManager.builder()
+        .setHeartbeatInterval(Duration.ofMillis(200)).setWheelSize(4)
+        .setFilter(QuipEventFilter.builder().setTypes("message").build())
+        .build(new QuipWebSocketManager.Listener() {
+          @Override
+          public void onMessage(String userId, QuipMessage message,
+              QuipUser user, QuipThread thread) {
+            messages.put(userId, message.getId());
+          }
+
+          @Override
+          public void onFailure(String userId, Throwable error) {
+            failures.put(userId, error);
+          }
+        });
+    manager.add("TOKEN4");
+    manager.add("TOKENMUTE");
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!failures.containsKey("USERMUTE")) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+    // several intervals without a single alive event passing the filter
+    Thread.sleep(1000);
+    assertEquals(Set.of("USER4"), manager.getUserIds());
+    assertEquals(Set.of("USERMUTE"), failures.keySet());
+    assertEquals("USER4", messages.get("USER4"));
+    manager.close();
+  }
+
+  @Test
+  void registersOnlyOpenSockets() throws Exception {
+    QuipWebSocketManager manager = QuipWebSocketManager.builder()
+        .build(new QuipWebSocketManager.Listener() {
+        });
+    manager.add("TOKEN2");
+    // the socket already open for USER2 is kept
+    assertThrows(Exception.class, () -> manager.add("TOKENBAD2"));
+    assertThrows(Exception.class, () -> manager.add("TOKENBAD3"));
+    assertEquals(Set.of("USER2"), manager.getUserIds());
+    manager.close();
+    assertTrue(manager.getUserIds().isEmpty());
+  }
+
+  private static long _countSelectorThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(t -> t.getName().contains("SelectorManager")).count();
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2021 Kenichi Ando
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kenichia.quipapi.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal websocket server for the tests: it answers the opening handshake,
+ * reads the masked client frames, and writes unmasked server frames.
+ */
+public class QuipWebSocketStubServer implements AutoCloseable {
+
+  public interface Handler {
+    default void onOpen(Peer peer) throws IOException {
+    }
+
+    default void onText(Peer peer, String text) throws IOException {
+    }
+  }
+
+  private final ServerSocket _server;
+  private final Handler _handler;
+  private final AtomicInteger _connections = new AtomicInteger();
+
+  public QuipWebSocketStubServer(Handler handler) throws IOException {
+    _handler = handler;
+    _server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+    _start(this::_accept, "ws-stub-accept");
+  }
+
+  public String getUrl(String path) {
+    return "ws://127.0.0.1:" + _server.getLocalPort() + path;
+  }
+
+  public int getConnectionCount() {
+    return _connections.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _server.close();
+  }
+
+  // ============================================
+  // Peer
+  // ============================================
+
+  public static class Peer {
+    private final Socket _socket;
+    private final String _path;
+    private final int _number;
+
+    Peer(Socket socket, String path, int number) {
+      _socket = socket;
+      _path = path;
+      _number = number;
+    }
+
+    public String getPath() {
+      return _path;
+    }
+
+    /**
+     * @return - 1 for the first connection to the server, and so on.
+     */
+    public int getNumber() {
+      return _number;
+    }
+
+    public void sendText(String text) throws IOException {
+      sendFragmented(text, 1);
+    }
+
+    public void sendFragmented(String text, int fragments) throws IOException {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      int size = bytes.length / fragments;
+      OutputStream out = _socket.getOutputStream();
+      synchronized (out) {
+        for (int i = 0; i < fragments; i++) {
+          int offset = i * size;
+          int length = (i == fragments - 1) ? bytes.length - offset : size;
+          _writeFrame(out, (i == 0) ? 0x1 : 0x0, i == fragments - 1, bytes,
+              offset, length);
+        }
+      }
+    }
+
+    public void sendClose(int statusCode) throws IOException {
+      OutputStream out = _socket.getOutputStream();
+      synchronized (out) {
+        _writeFrame(out, 0x8, true,
+            new byte[] { (byte) (statusCode >>> 8), (byte) statusCode }, 0, 2);
+      }
+    }
+  }
+
+  // ============================================
+  // Private
+  // ============================================
+
+  private static void _start(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void _accept() {
+    try {
+      while (true) {
+        Socket socket = _server.accept();
+        _start(() -> _serve(socket), "ws-stub-peer");
+      }
+    } catch (IOException e) {
+      // closed
+    }
+  }
+
+  private void _serve(Socket socket) {
+    try (socket) {
+      String path = _handshake(socket);
+      Peer peer = new Peer(socket, path, _connections.incrementAndGet());
+      _handler.onOpen(peer);
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      ByteArrayOutputStream message = new ByteArrayOutputStream();
+      while (true) {
+        int first = in.readUnsignedByte();
+        int second = in.readUnsignedByte();
+        long length = second & 0x7F;
+        if (length == 126)
+          length = in.readUnsignedShort();
+        else if (length == 127)
+          length = in.readLong();
+        byte[] mask = new byte[4];
+        if ((second & 0x80) != 0)
+          in.readFully(mask);
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        for (int i = 0; i < payload.length; i++)
+          payload[i] ^= mask[i % 4];
+        int opcode = first & 0x0F;
+        if (opcode == 0x8)
+          return;
+        if (opcode == 0x1 || opcode == 0x0) {
+          message.write(payload);
+          if ((first & 0x80) != 0) {
+            _handler.onText(peer, message.toString(StandardCharsets.UTF_8));
+            message.reset();
+          }
+        }
+      }
+    } catch (Exception e) {
+      // the client went away
+    }
+  }
+
+  private static String _handshake(Socket socket) throws Exception {
+    InputStream in = socket.getInputStream();
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    while (!request.toString(StandardCharsets.US_ASCII).endsWith("\r\n\r\n"))
+      request.write(in.read());
+    String[] lines = request.toString(StandardCharsets.US_ASCII).split("\r\n");
+    String key = null;
+    for (String line : lines)
+      if (line.toLowerCase().startsWith("sec-websocket-key:"))
+        key = line.substring(line.indexOf(':') + 1).trim();
+    String accept = Base64.getEncoder()
+        .encodeToString(MessageDigest.getInstance("SHA-1")
+            .digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11")
+                .getBytes(StandardCharsets.US_ASCII)));
+    OutputStream out = socket.getOutputStream();
+    synchronized (out) {
+      out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n"
+          + "Connection: Upgrade\r\nSec-WebSocket-Accept: " + accept
+          + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+    // "GET /path HTTP/1.1"
+    return lines[0].split(" ")[1];
+  }
+
+  private static void _writeFrame(OutputStream out, int opcode, boolean fin,
+      byte[] payload, int offset, int length) throws IOException {
+    out.write((fin ? 0x80 : 0) | opcode);
+    if (length < 126) {
+      out.write(length);
+    } else if (length < 65536) {
+      out.write(126);
+      out.write(length >>> 8);
+      out.write(length & 0xFF);
+    } else {
+      out.write(127);
+      for (int shift = 56; shift >= 0; shift -= 8)
+        out.write((int) (((long) length >>> shift) & 0xFF));
+    }
+    out.write(payload, offset, length);
+    out.flush();
+  }
+}